@@ -5,23 +5,24 @@ load(
     _antlr = "antlr",
 )
 
+# the attributes that map to tool options with their defaults
+OPTIONS = {
+    "debug": False,
+    "diagnostic": False,
+    "docbook": False,
+    "html": False,
+    "trace": False,
+    "traceLexer": False,
+    "traceParser": False,
+    "traceTreeParser": False,
+}
+
 def _generate(ctx):
     return _antlr("2", ctx, _args)
 
 def _args(ctx, output_dir):
     args = ctx.actions.args()
-
-    if ctx.attr.debug:
-        args.add("-debug")
-
-    if ctx.attr.html:
-        args.add("-html")
-
-    if ctx.attr.docbook:
-        args.add("-docbook")
-
-    if ctx.attr.diagnostic:
-        args.add("-diagnostic")
+    args.add_all(tool_args(ctx.attr))
 
     if ctx.attr.imports:
         args.add("-glib")
@@ -30,17 +31,41 @@ def _args(ctx, output_dir):
     args.add("-o")
     args.add(output_dir)
 
-    if ctx.attr.trace:
-        args.add("-trace")
+    return args
+
+def tool_args(attr):
+    """Returns the tool options for the given attributes.
+
+    Args:
+      attr: the rule attributes or a struct with the fields of OPTIONS.
+    Returns:
+      the tool options without the import and output directories.
+    """
+    args = []
+
+    if attr.debug:
+        args.append("-debug")
+
+    if attr.html:
+        args.append("-html")
+
+    if attr.docbook:
+        args.append("-docbook")
+
+    if attr.diagnostic:
+        args.append("-diagnostic")
+
+    if attr.trace:
+        args.append("-trace")
 
-    if ctx.attr.traceParser:
-        args.add("-traceParser")
+    if attr.traceParser:
+        args.append("-traceParser")
 
-    if ctx.attr.traceLexer:
-        args.add("-traceLexer")
+    if attr.traceLexer:
+        args.append("-traceLexer")
 
-    if ctx.attr.traceTreeParser:
-        args.add("-traceTreeParser")
+    if attr.traceTreeParser:
+        args.append("-traceTreeParser")
 
     return args
 
@@ -50,6 +75,9 @@ antlr = rule(
 Runs [ANTLR 2](https://www.antlr2.org//) on a set of grammars.
     """,
     attrs = {
+        "atomic_output": attr.bool(default = False, doc = "Publish each generated directory with a single rename once generation succeeded. The directories are renamed one after another, so the guarantee holds per directory only. Fails for target languages that produce a srcjar."),
+        "compile": attr.bool(default = False, doc = "Compile the generated Java sources within the same action and provide them as Java library. Only supported for the Java target language."),
+        "compile_deps": attr.label_list(providers = [JavaInfo], doc = "Additional libraries required to compile the generated sources, e.g. for code in @header sections. Only used with compile."),
         "debug": attr.bool(default = False, doc = """
 Launch the ParseView debugger upon parser invocation. Unless you have
 downloaded and unzipped the debugger over the top of the standard ANTLR
@@ -60,9 +88,12 @@ compile.
         "diagnostic": attr.bool(default = False, doc = "Generate a text file from your grammar with a lot of debugging info."),
         "docbook": attr.bool(default = False, doc = "Generate a docbook SGML file from your grammar without actions and so on. It only works for parsers, not lexers or tree parsers."),
         "html": attr.bool(default = False, doc = "Generate a HTML file from your grammar without actions and so on. It only works for parsers, not lexers or tree parsers."),
+        "huge_methods": attr.string(default = "warn", values = ["off", "warn", "error"], doc = "How to handle compiled methods with more bytecode than the HotSpot HugeMethodLimit (8000 bytes) that are never JIT-compiled. Either off, warn or error. Only used with compile."),
         "imports": attr.label_list(allow_files = True, doc = "The grammar file to import."),
+        "javacopts": attr.string_list(doc = "Extra compiler options for the generated sources. The classes target Java 8 unless the options set --release, -source or -target. Only used with compile."),
         "language": attr.string(doc = "The code generation target language. Either Cpp, CSharp, Java or Python (case-sensitive)."),
         "package": attr.string(doc = "The package/namespace for the generated code."),
+        "runtime": attr.label(default = Label("@antlr2//jar"), providers = [JavaInfo], doc = "The ANTLR runtime library the generated sources are compiled against. Only used with compile."),
         "srcs": attr.label_list(allow_files = True, doc = "The grammar files to process."),
         "trace": attr.bool(default = False, doc = "Have all rules call traceIn/traceOut."),
         "traceLexer": attr.bool(default = False, doc = "Have lexer rules call traceIn/traceOut."),
@@ -6,6 +6,36 @@ load(
     _lib_dir = "lib_dir",
 )
 
+# the attributes that map to tool options with their defaults
+OPTIONS = {
+    "debug": False,
+    "depend": False,
+    "dfa": False,
+    "dump": False,
+    "language": "",
+    "message_format": "",
+    "nfa": False,
+    "profile": False,
+    "report": False,
+    "trace": False,
+    "Xconversiontimeout": 0,
+    "Xdbgconversion": False,
+    "Xdbgst": False,
+    "Xdfa": False,
+    "Xdfaverbose": False,
+    "Xgrtree": False,
+    "Xm": 0,
+    "Xmaxdfaedges": 0,
+    "Xmaxinlinedfastates": 0,
+    "Xmultithreaded": False,
+    "Xnfastates": False,
+    "Xnocollapse": False,
+    "Xnomergestopstates": False,
+    "Xnoprune": False,
+    "XsaveLexer": False,
+    "Xwatchconversion": False,
+}
+
 def imports(folder):
     """Returns the grammar and token files found below the given lib directory."""
     return (native.glob(["{0}/*.g".format(folder)]) +
@@ -17,100 +47,113 @@ def _generate(ctx):
 
 def _args(ctx, output_dir):
     args = ctx.actions.args()
+    args.add_all(tool_args(ctx.attr))
 
-    if ctx.attr.debug:
-        args.add("-debug")
+    lib = _lib_dir(ctx.files.imports)
+    if lib:
+        args.add("-lib")
+        args.add(lib)
 
-    if ctx.attr.depend:
-        args.add("-depend")
+    args.add("-o")
+    args.add(output_dir)
 
-    if ctx.attr.dfa:
-        args.add("-dfa")
+    return args
 
-    if ctx.attr.dump:
-        args.add("-dump")
+def tool_args(attr):
+    """Returns the tool options for the given attributes.
 
-    if ctx.attr.language:
-        args.add("-language")
-        args.add(ctx.attr.language)
+    Args:
+      attr: the rule attributes or a struct with the fields of OPTIONS.
+    Returns:
+      the tool options without the import and output directories.
+    """
+    args = []
 
-    lib = _lib_dir(ctx.files.imports)
-    if lib:
-        args.add("-lib")
-        args.add(lib)
+    if attr.debug:
+        args.append("-debug")
 
-    args.add("-make")
+    if attr.depend:
+        args.append("-depend")
 
-    if ctx.attr.message_format:
-        args.add("-message-format")
-        args.add(ctx.attr.message_format)
+    if attr.dfa:
+        args.append("-dfa")
 
-    if ctx.attr.nfa:
-        args.add("-nfa")
+    if attr.dump:
+        args.append("-dump")
 
-    args.add("-o")
-    args.add(output_dir)
+    if attr.language:
+        args.append("-language")
+        args.append(attr.language)
+
+    args.append("-make")
+
+    if attr.message_format:
+        args.append("-message-format")
+        args.append(attr.message_format)
+
+    if attr.nfa:
+        args.append("-nfa")
 
-    if ctx.attr.profile:
-        args.add("-profile")
+    if attr.profile:
+        args.append("-profile")
 
-    if ctx.attr.report:
-        args.add("-report")
+    if attr.report:
+        args.append("-report")
 
-    if ctx.attr.trace:
-        args.add("-trace")
+    if attr.trace:
+        args.append("-trace")
 
-    if ctx.attr.Xconversiontimeout:
-        args.add("-Xconversiontimeout")
-        args.add(ctx.attr.Xconversiontimeout)
+    if attr.Xconversiontimeout:
+        args.append("-Xconversiontimeout")
+        args.append(str(attr.Xconversiontimeout))
 
-    if ctx.attr.Xdbgconversion:
-        args.add("-Xdbgconversion")
+    if attr.Xdbgconversion:
+        args.append("-Xdbgconversion")
 
-    if ctx.attr.Xdbgst:
-        args.add("-XdbgST")
+    if attr.Xdbgst:
+        args.append("-XdbgST")
 
-    if ctx.attr.Xdfa:
-        args.add("-Xdfa")
+    if attr.Xdfa:
+        args.append("-Xdfa")
 
-    if ctx.attr.Xdfaverbose:
-        args.add("-Xdfaverbose")
+    if attr.Xdfaverbose:
+        args.append("-Xdfaverbose")
 
-    if ctx.attr.Xgrtree:
-        args.add("-Xgrtree")
+    if attr.Xgrtree:
+        args.append("-Xgrtree")
 
-    if ctx.attr.Xm:
-        args.add("-Xm")
-        args.add(ctx.attr.Xm)
+    if attr.Xm:
+        args.append("-Xm")
+        args.append(str(attr.Xm))
 
-    if ctx.attr.Xmaxdfaedges:
-        args.add("-Xmaxdfaedges")
-        args.add(ctx.attr.Xmaxdfaedges)
+    if attr.Xmaxdfaedges:
+        args.append("-Xmaxdfaedges")
+        args.append(str(attr.Xmaxdfaedges))
 
-    if ctx.attr.Xmaxinlinedfastates:
-        args.add("-Xmaxinlinedfastates")
-        args.add(ctx.attr.Xmaxinlinedfastates)
+    if attr.Xmaxinlinedfastates:
+        args.append("-Xmaxinlinedfastates")
+        args.append(str(attr.Xmaxinlinedfastates))
 
-    if ctx.attr.Xmultithreaded:
-        args.add("-Xmultithreaded")
+    if attr.Xmultithreaded:
+        args.append("-Xmultithreaded")
 
-    if ctx.attr.Xnfastates:
-        args.add("-Xnfastates")
+    if attr.Xnfastates:
+        args.append("-Xnfastates")
 
-    if ctx.attr.Xnocollapse:
-        args.add("-Xnocollapse")
+    if attr.Xnocollapse:
+        args.append("-Xnocollapse")
 
-    if ctx.attr.Xnomergestopstates:
-        args.add("-Xnomergestopstates")
+    if attr.Xnomergestopstates:
+        args.append("-Xnomergestopstates")
 
-    if ctx.attr.Xnoprune:
-        args.add("-Xnoprune")
+    if attr.Xnoprune:
+        args.append("-Xnoprune")
 
-    if ctx.attr.XsaveLexer:
-        args.add("-XsaveLexer")
+    if attr.XsaveLexer:
+        args.append("-XsaveLexer")
 
-    if ctx.attr.Xwatchconversion:
-        args.add("-Xwatchconversion")
+    if attr.Xwatchconversion:
+        args.append("-Xwatchconversion")
 
     return args
 
@@ -118,6 +161,9 @@ antlr = rule(
     implementation = _generate,
     doc = "Runs [ANTLR 3](https://www.antlr3.org//) on a set of grammars.",
     attrs = {
+        "atomic_output": attr.bool(default = False, doc = "Publish each generated directory with a single rename once generation succeeded. The directories are renamed one after another, so the guarantee holds per directory only. Fails for target languages that produce a srcjar."),
+        "compile": attr.bool(default = False, doc = "Compile the generated Java sources within the same action and provide them as Java library. Only supported for the Java target language."),
+        "compile_deps": attr.label_list(providers = [JavaInfo], doc = "Additional libraries required to compile the generated sources, e.g. for code in @header sections. Only used with compile."),
         "debug": attr.bool(default = False, doc = "Generate a parser that emits debugging events."),
         "depend": attr.bool(default = False, doc = "Generate file dependencies; don't actually run antlr."),
         "deps": attr.label_list(default = [
@@ -131,13 +177,16 @@ dependencies here.
 """),
         "dfa": attr.bool(default = False, doc = "Generate a DFA for each decision point."),
         "dump": attr.bool(default = False, doc = "Print out the grammar without actions."),
+        "huge_methods": attr.string(default = "warn", values = ["off", "warn", "error"], doc = "How to handle compiled methods with more bytecode than the HotSpot HugeMethodLimit (8000 bytes) that are never JIT-compiled. Either off, warn or error. Only used with compile."),
         "imports": attr.label_list(allow_files = True, doc = "The grammar and .tokens files to import. Must be all in the same directory."),
+        "javacopts": attr.string_list(doc = "Extra compiler options for the generated sources. The classes target Java 8 unless the options set --release, -source or -target. Only used with compile."),
         "language": attr.string(doc = "The code generation target language. Either C, Cpp, CSharp2, CSharp3, JavaScript, Java, ObjC, Python, Python3 or Ruby (case-sensitive)."),
         "message_format": attr.string(doc = "Specify output style for messages."),
         "nfa": attr.bool(default = False, doc = "Generate an NFA for each rule."),
         "package": attr.string(doc = "The package/namespace for the generated code."),
         "profile": attr.bool(default = False, doc = "Generate a parser that computes profiling information."),
         "report": attr.bool(default = False, doc = "Print out a report about the grammar(s) processed."),
+        "runtime": attr.label(default = Label("@antlr3_runtime//jar"), providers = [JavaInfo], doc = "The ANTLR runtime library the generated sources are compiled against. Only used with compile."),
         "srcs": attr.label_list(allow_files = True, mandatory = True, doc = "The grammar files to process."),
         "trace": attr.bool(default = False, doc = "Generate a parser with trace output. If the default output is not enough, you can override the traceIn and traceOut methods."),
         "Xconversiontimeout": attr.int(doc = "Set NFA conversion timeout for each decision."),
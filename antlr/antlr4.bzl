@@ -6,6 +6,25 @@ load(
     _lib_dir = "lib_dir",
 )
 
+# the attributes that map to tool options with their defaults
+OPTIONS = {
+    "atn": False,
+    "depend": False,
+    "encoding": "UTF-8",
+    "error": False,
+    "force_atn": False,
+    "language": "",
+    "listener": True,
+    "log": False,
+    "long_messages": False,
+    "message_format": "antlr",
+    "no_listener": False,
+    "no_visitor": True,
+    "options": {},
+    "package": "",
+    "visitor": False,
+}
+
 def imports(folder):
     """Returns the grammar and token files found below the given lib directory."""
     return (native.glob(["{0}/*.g4".format(folder)]) +
@@ -16,60 +35,73 @@ def _generate(ctx):
 
 def _args(ctx, output_dir):
     args = ctx.actions.args()
+    args.add_all(tool_args(ctx.attr))
 
-    if ctx.attr.atn:
-        args.add("-atn")
+    lib = _lib_dir(ctx.files.imports)
+    if lib:
+        args.add("-lib")
+        args.add(lib)
 
-    if ctx.attr.depend:
-        args.add("-depend")
+    args.add("-o")
+    args.add(output_dir)
 
-    args.add("-encoding")
-    args.add(ctx.attr.encoding)
+    return args
 
-    if ctx.attr.force_atn:
-        args.add("-force-atn")
+def tool_args(attr):
+    """Returns the tool options for the given attributes.
 
-    if ctx.attr.error:
-        args.add("-Werror")
+    Args:
+      attr: the rule attributes or a struct with the fields of OPTIONS.
+    Returns:
+      the tool options without the import and output directories.
+    """
+    args = []
 
-    lib = _lib_dir(ctx.files.imports)
-    if lib:
-        args.add("-lib")
-        args.add(lib)
+    if attr.atn:
+        args.append("-atn")
 
-    if ctx.attr.listener:
-        args.add("-listener")
+    if attr.depend:
+        args.append("-depend")
 
-    if ctx.attr.log:
-        args.add("-Xlog")
+    args.append("-encoding")
+    args.append(attr.encoding)
 
-    if ctx.attr.language:
-        args.add("-Dlanguage={0}".format(ctx.attr.language))
+    if attr.force_atn:
+        args.append("-force-atn")
 
-    if ctx.attr.long_messages:
-        args.add("-long-messages")
+    if attr.error:
+        args.append("-Werror")
 
-    args.add("-message-format")
-    args.add(ctx.attr.message_format)
+    if attr.listener:
+        args.append("-listener")
 
-    if ctx.attr.no_listener:
-        args.add("-no-listener")
+    if attr.log:
+        args.append("-Xlog")
 
-    if ctx.attr.no_visitor:
-        args.add("-no-visitor")
+    if attr.language:
+        args.append("-Dlanguage={0}".format(attr.language))
 
-    args.add("-o")
-    args.add(output_dir)
+    if attr.long_messages:
+        args.append("-long-messages")
+
+    args.append("-message-format")
+    args.append(attr.message_format)
+
+    if attr.no_listener:
+        args.append("-no-listener")
+
+    if attr.no_visitor:
+        args.append("-no-visitor")
 
-    for key in ctx.attr.options:
-        args.add("-D{0}={1}".format(key, ctx.attr.options[key]))
+    for key in attr.options:
+        args.append("-D{0}={1}".format(key, attr.options[key]))
 
-    if ctx.attr.package:
-        args.add("-package")
-        args.add(ctx.attr.package)
+    if attr.package:
+        args.append("-package")
+        args.append(attr.package)
 
-    if ctx.attr.visitor:
-        args.add("-visitor")
+    if attr.visitor:
+        args.append("-visitor")
 
     return args
 
@@ -80,6 +112,10 @@ Runs [ANTLR 4](https://www.antlr.org//) on a set of grammars.
     """,
     attrs = {
         "atn": attr.bool(default = False, doc = "Generate rule augmented transition network diagrams."),
+        "atn_resource": attr.bool(default = False, doc = "Move the serialized ATN of the generated recognizers into a compact binary class resource that is loaded when the first recognizer is created instead of embedding it as string constants. The _serializedATN, _ATN and _decisionToDFA fields move into the nested _ATNHolder class. Requires compile."),
+        "atomic_output": attr.bool(default = False, doc = "Publish each generated directory with a single rename once generation succeeded. The directories are renamed one after another, so the guarantee holds per directory only. Fails for target languages that produce a srcjar."),
+        "compile": attr.bool(default = False, doc = "Compile the generated Java sources within the same action and provide them as Java library. Only supported for the Java target language."),
+        "compile_deps": attr.label_list(providers = [JavaInfo], doc = "Additional libraries required to compile the generated sources, e.g. for code in @header sections. Only used with compile."),
         "depend": attr.bool(default = False, doc = "Generate a list of file dependencies instead of parser and/or lexer."),
         "deps": attr.label_list(default = [
             Label("@antlr4_tool//jar"),
@@ -91,12 +127,16 @@ Runs [ANTLR 4](https://www.antlr.org//) on a set of grammars.
 The dependencies to use. Defaults to the official ANTLR 4 release, but if
 you need to use a different version, you can specify the dependencies here.
                         """),
+        "dfa_cache_limit": attr.int(default = 0, doc = "Generate a <Parser>DfaCache companion class for every parser that reports the DFA states per decision as metrics and clears the DFA of the parser and lexer once their states exceed this limit. Disabled if 0. Only supported for the Java target language and the official runtime."),
         "encoding": attr.string(default = "UTF-8", doc = "The grammar file encoding, e.g. euc-jp."),
         "error": attr.bool(default = False, doc = "Treat warnings as errors."),
         "force_atn": attr.bool(default = False, doc = "Use the ATN simulator for all predictions."),
+        "huge_methods": attr.string(default = "warn", values = ["off", "warn", "error"], doc = "How to handle compiled methods with more bytecode than the HotSpot HugeMethodLimit (8000 bytes) that are never JIT-compiled. Either off, warn or error. Only used with compile."),
         "imports": attr.label_list(allow_files = True, doc = "The grammar and .tokens files to import. Must be all in the same directory."),
+        "javacopts": attr.string_list(doc = "Extra compiler options for the generated sources. The classes target Java 8 unless the options set --release, -source or -target. Only used with compile."),
         "language": attr.string(doc = "The code generation target language. Either Cpp, CSharp, Go, JavaScript, Java, Python2, Python3 or Swift (case-sensitive)."),
         "layout": attr.string(doc = ""),
+        "lint": attr.string(default = "off", values = ["off", "warn", "error"], doc = "How to handle grammar constructs that are likely expensive at parse time: left-recursive rules with more than 16 precedence levels, decisions that may need unbounded lookahead, semantic predicates in rules invoked in a loop or recursively and greedy wildcard loops in lexer rules. Either off, warn or error."),
         "listener": attr.bool(default = True, doc = "Generate parse tree listener."),
         "log": attr.bool(default = False, doc = "Dump lots of logging info to antlr-timestamp.log."),
         "long_messages": attr.bool(default = False, doc = "Show exception details when available for errors and warnings."),
@@ -105,8 +145,15 @@ you need to use a different version, you can specify the dependencies here.
         "no_visitor": attr.bool(default = True, doc = "Do not generate parse tree visitor."),
         "options": attr.string_dict(doc = "Set/override grammar-level options."),
         "package": attr.string(doc = "The package/namespace for the generated code."),
+        "parser_pool": attr.bool(default = False, doc = "Generate a <Parser>Pool driver class for every parser that reuses lexer and parser instances per thread and parses batches of inputs in parallel. Only supported for the Java target language."),
+        "runtime": attr.label(default = Label("@antlr4_runtime//jar"), providers = [JavaInfo], doc = "The ANTLR runtime library the generated sources are compiled against. Only used with compile."),
         "srcs": attr.label_list(allow_files = True, mandatory = True, doc = "The grammar files to process."),
+        "streaming": attr.bool(default = False, doc = "Generate a <Parser>Streaming driver class for every parser that parses input of arbitrary size with unbuffered character and token streams and reports the parse events to a listener instead of building a parse tree. Only supported for the Java target language. Tokens the start rule consumes directly are released once the listener has seen them, so its exit callback sees an empty context. Memory use only stays bounded if unbounded loops consume their tokens in the start rule directly: a sub rule keeps the tokens it consumes until it ends, e.g. body in file: body EOF; body: (ID NEWLINE)*; keeps every token of the input."),
+        "streaming_rule": attr.string_list(doc = "The parser rules the streaming drivers parse with. Use <Parser>=<rule> to set the rule of a single parser, e.g. HelloParser=r, and <rule> to set the rule of all other parsers. Defaults to the first rule of the grammar."),
+        "two_stage": attr.string_list(doc = "The start rules to add <rule>TwoStage() methods to the generated parser for that parse with SLL prediction first and only fall back to full LL prediction on a syntax error. The parser counts the parses and fallbacks per rule. Only supported for the Java target language."),
         "visitor": attr.bool(default = False, doc = "Generate parse tree visitor."),
+        "warmup": attr.label_keyed_string_dict(allow_files = True, doc = "Sample input files in the encoding of the grammars, mapped to the parser they are for, e.g. {\"hello.txt\": \"HelloParser\"}. The parser can be left empty if the target generates only one parser. A generated <Parser>WarmUp companion class embeds the samples of its parser and replays them at startup when you call its run() method. Replaying the corpus fills the DFA cache of the parser by parsing it again in the running JVM; no DFA snapshot is stored or loaded, so the warm-up costs as much time as parsing the corpus. The corpus is parsed at build time as well and must not contain syntax errors. Requires compile."),
+        "warmup_rule": attr.string_list(doc = "The parser rules the warm-up corpus is parsed with. Use <Parser>=<rule> to set the rule of a single parser, e.g. HelloParser=r. Just <rule> is only allowed if the target generates only one parser. Defaults to the first rule of the grammar."),
         "_tool": attr.label(
             executable = True,
             cfg = "host",
@@ -0,0 +1,246 @@
+"""Rules to process the grammars of several targets within a single action."""
+
+load(":antlr2.bzl", _antlr2_options = "OPTIONS", _antlr2_tool_args = "tool_args")
+load(":antlr3.bzl", _antlr3_options = "OPTIONS", _antlr3_tool_args = "tool_args")
+load(":antlr4.bzl", _antlr4_options = "OPTIONS", _antlr4_tool_args = "tool_args")
+load(
+    ":impl.bzl",
+    _lib_dir = "lib_dir",
+    _outputs = "outputs",
+    _providers = "providers",
+)
+
+_AntlrBatchInfo = provider(
+    fields = {
+        "targets": "The providers of the batched targets by target name.",
+    },
+)
+
+_DEPS = {
+    "2": [
+        Label("@antlr2//jar"),
+    ],
+    "3": [
+        Label("@antlr3_runtime//jar"),
+        Label("@antlr3_tool//jar"),
+        Label("@stringtemplate4//jar"),
+    ],
+    "4": [
+        Label("@antlr4_tool//jar"),
+        Label("@antlr4_runtime//jar"),
+        Label("@antlr3_runtime//jar"),
+        Label("@stringtemplate4//jar"),
+        Label("@javax_json//jar"),
+    ],
+}
+
+_OPTIONS = {
+    "2": (_antlr2_options, _antlr2_tool_args),
+    "3": (_antlr3_options, _antlr3_tool_args),
+    "4": (_antlr4_options, _antlr4_tool_args),
+}
+
+# the target configuration keys that do not map to tool options
+_KEYS = ["args", "encoding", "language", "layout", "package", "srcs"]
+
+def _escape(value):
+    # the manifest uses the Java properties format
+    return value.replace("\\", "\\\\").replace("\n", "\\n")
+
+def _tool_args(ctx, target, output_dir):
+    # the options were already derived from the target configuration by the macro
+    args = list(ctx.attr.args.get(target, []))
+
+    if ctx.attr.version == "2":
+        if ctx.files.imports:
+            args.extend(["-glib", ";".join([x.path for x in ctx.files.imports])])
+    else:
+        lib = _lib_dir(ctx.files.imports)
+        if lib:
+            args.extend(["-lib", lib])
+
+    return args + ["-o", output_dir]
+
+def _generate(ctx):
+    grammars = {}
+    owners = {}
+    for src, target in ctx.attr.srcs.items():
+        for f in src.files.to_list():
+            if owners.get(f.path, target) != target:
+                fail("Grammar {} is used by targets '{}' and '{}'".format(f.path, owners[f.path], target), attr = "srcs")
+            owners[f.path] = target
+            grammars.setdefault(target, []).append(f.path)
+
+    tool_inputs, _, input_manifests = ctx.resolve_command(tools = ctx.attr.deps + [ctx.attr._tool])
+    manifest = ["targets=" + ",".join(ctx.attr.targets)]
+    if ctx.var.get("antlr_pool_metrics") == "true":
+        manifest.append("metrics=true")
+    declared = []
+    targets = {}
+
+    for target in ctx.attr.targets:
+        if not grammars.get(target):
+            fail("No grammars provided for target '{}'".format(target), attr = "srcs")
+
+        language = ctx.attr.languages.get(target, "")
+        package = ctx.attr.packages.get(target, "")
+
+        # every target needs its own scratch directory as the .srcjar is created from
+        # all files found there
+        out = _outputs(ctx, target, language, "{}/rules_antlr/{}/{}".format(
+            ctx.configuration.bin_dir.path,
+            ctx.label.package,
+            target,
+        ))
+        declared.extend(out.outputs + out.data)
+        targets[target] = _providers(target, package, out)
+
+        config = {
+            "ANTLR_CACHE_DIR": ctx.var.get("antlr_cache_dir", ""),
+            "ANTLR_CACHE_SIZE": ctx.var.get("antlr_cache_size", ""),
+            "ANTLR_VERSION": ctx.attr.version,
+            "ARGS": "\n".join(_tool_args(ctx, target, out.output_dir)),
+            "DIRECTORY_LAYOUT": ctx.attr.layouts.get(target, ""),
+            "ENCODING": ctx.attr.encodings.get(target, "UTF-8" if ctx.attr.version == "4" else ""),
+            "GRAMMARS": ",".join(grammars[target]),
+            "OUTPUT_DIRECTORY": out.output_dir,
+            "PACKAGE_NAME": package,
+            "SRC_JAR": out.srcjar.path if out.srcjar else "",
+            "TARGET": target,
+            "TARGET_LANGUAGE": language,
+            "TOOL_CLASSPATH": ",".join([f.path for f in tool_inputs]),
+        }
+
+        for key in sorted(config.keys()):
+            manifest.append("{}.{}={}".format(target, key, _escape(config[key])))
+
+    manifest_file = ctx.actions.declare_file(ctx.attr.name + ".manifest")
+    ctx.actions.write(manifest_file, "\n".join(manifest) + "\n")
+
+    ctx.actions.run(
+        inputs = ctx.files.srcs + ctx.files.imports + [manifest_file],
+        outputs = declared,
+        mnemonic = "ANTLR" + ctx.attr.version,
+        executable = ctx.executable._tool,
+        env = {
+            "MANIFEST": manifest_file.path,
+        },
+        input_manifests = input_manifests,
+        progress_message = "Processing ANTLR {} grammars of {} targets".format(
+            ctx.attr.version,
+            len(ctx.attr.targets),
+        ),
+        tools = tool_inputs,
+    )
+
+    return [
+        _AntlrBatchInfo(targets = targets),
+        DefaultInfo(files = depset(declared)),
+    ]
+
+_antlr_batch = rule(
+    implementation = _generate,
+    attrs = {
+        "args": attr.string_list_dict(),
+        "deps": attr.label_list(),
+        "encodings": attr.string_dict(),
+        "imports": attr.label_list(allow_files = True),
+        "languages": attr.string_dict(),
+        "layouts": attr.string_dict(),
+        "packages": attr.string_dict(),
+        "srcs": attr.label_keyed_string_dict(allow_files = True, mandatory = True),
+        "targets": attr.string_list(mandatory = True),
+        "version": attr.string(mandatory = True, values = ["2", "3", "4"]),
+        "_tool": attr.label(
+            executable = True,
+            cfg = "host",
+            default = Label("@rules_antlr//src/main/java/org/antlr/bazel"),
+        ),
+    },
+)
+
+def _select(ctx):
+    return ctx.attr.batch[_AntlrBatchInfo].targets[ctx.attr.target]
+
+_antlr_batch_target = rule(
+    implementation = _select,
+    attrs = {
+        "batch": attr.label(mandatory = True, providers = [_AntlrBatchInfo]),
+        "target": attr.string(mandatory = True),
+    },
+)
+
+def antlr_batch(name, version, targets, imports = [], deps = None, **kwargs):
+    """Processes the grammars of several co-located targets within a single action.
+
+    ANTLR still runs once per target, but all targets share one JVM and the class
+    loaders of the tool, which saves the start-up and warm-up costs. Every entry
+    in `targets` results in a target of the same name that provides the same
+    outputs as the corresponding `antlr` rule would. A grammar must only belong
+    to a single target.
+
+    ```python
+    load("@rules_antlr//antlr:batch.bzl", "antlr_batch")
+
+    antlr_batch(
+        name = "grammars",
+        version = "4",
+        targets = {
+            "hello": {"srcs": ["Hello.g4"], "package": "hello"},
+            "calc": {"srcs": ["Calc.g4"], "language": "Cpp", "visitor": True},
+        },
+    )
+    ```
+
+    Args:
+      name: the name of the target that runs ANTLR.
+      version: the ANTLR release stream, either 2, 3 or 4.
+      targets: the target configurations by target name. Supported keys are srcs,
+        package, language, layout, encoding, args (additional tool arguments) and
+        the tool option attributes of the antlr rule of the version, e.g. visitor
+        or options for ANTLR 4.
+      imports: the grammar and .tokens files to import for all targets.
+      deps: the tool dependencies. Defaults to the bundled ANTLR release.
+      **kwargs: common attributes like visibility that are applied to all targets.
+    """
+    version = str(version)[0]
+    options, tool_args = _OPTIONS[version]
+    args = {}
+    srcs = {}
+
+    for target, config in targets.items():
+        for key in config:
+            if key not in _KEYS and key not in options:
+                fail("Unsupported key '{}' for target '{}'".format(key, target), attr = "targets")
+
+        for src in config["srcs"]:
+            if src in srcs:
+                fail("Grammar {} is used by targets '{}' and '{}'".format(src, srcs[src], target), attr = "targets")
+            srcs[src] = target
+
+        attr = dict(options)
+        attr.update({k: v for k, v in config.items() if k in options})
+        args[target] = tool_args(struct(**attr)) + config.get("args", [])
+
+    _antlr_batch(
+        name = name,
+        args = args,
+        deps = deps if deps else _DEPS[version],
+        encodings = {t: c["encoding"] for t, c in targets.items() if c.get("encoding")},
+        imports = imports,
+        languages = {t: c["language"] for t, c in targets.items() if c.get("language")},
+        layouts = {t: c["layout"] for t, c in targets.items() if c.get("layout")},
+        packages = {t: c["package"] for t, c in targets.items() if c.get("package")},
+        srcs = srcs,
+        targets = targets.keys(),
+        version = version,
+        **kwargs
+    )
+
+    for target in targets:
+        _antlr_batch_target(
+            name = target,
+            batch = ":" + name,
+            target = target,
+            **kwargs
+        )
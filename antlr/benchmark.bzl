@@ -0,0 +1,112 @@
+"""Rules to measure the throughput of generated ANTLR 4 Java parsers with JMH."""
+
+load("@rules_java//java:defs.bzl", "java_binary", "java_plugin")
+load(":impl.bzl", _recognizer_source = "recognizer_source")
+
+def _generate(ctx):
+    out = _recognizer_source(ctx, "Benchmark", {
+        # the runfiles paths are relative to the working directory of bazel run
+        "{CORPUS}": ", ".join(['"{}"'.format(f.short_path) for f in ctx.files.corpus]),
+    })
+
+    return [DefaultInfo(files = depset([out]))]
+
+_antlr_benchmark_source = rule(
+    implementation = _generate,
+    attrs = {
+        "corpus": attr.label_list(allow_files = True, mandatory = True),
+        "lexer": attr.string(),
+        "parser": attr.string(mandatory = True),
+        "rule": attr.string(mandatory = True),
+        "_template": attr.label(
+            allow_single_file = True,
+            default = Label("@rules_antlr//antlr:benchmark.java.tpl"),
+        ),
+    },
+)
+
+def antlr_benchmark(
+        name,
+        parser,
+        rule,
+        corpus,
+        deps,
+        jmh,
+        jmh_annprocess,
+        lexer = None,
+        runtime = Label("@antlr4_runtime//jar"),
+        args = ["-prof", "gc"],
+        **kwargs):
+    """Generates and runs a JMH benchmark for a generated ANTLR 4 Java parser.
+
+    The benchmark measures the throughput of lexing as well as parsing with SLL and
+    LL prediction and of parsing and walking the parse tree, every operation
+    processing the whole corpus. The garbage collection profiler is enabled by
+    default to report the allocation rate per operation.
+
+    ```python
+    load("@rules_antlr//antlr:antlr4.bzl", "antlr")
+    load("@rules_antlr//antlr:benchmark.bzl", "antlr_benchmark")
+
+    antlr(
+        name = "parser",
+        srcs = ["Hello.g4"],
+        compile = True,
+        package = "hello.world",
+    )
+
+    antlr_benchmark(
+        name = "benchmark",
+        parser = "hello.world.HelloParser",
+        rule = "r",
+        corpus = glob(["samples/*.txt"]),
+        deps = [":parser"],
+        jmh = "@maven//:org_openjdk_jmh_jmh_core",
+        jmh_annprocess = "@maven//:org_openjdk_jmh_jmh_generator_annprocess",
+    )
+    ```
+
+    Run it with `bazel run :benchmark`, additional JMH options can be appended after
+    `--`.
+
+    Args:
+      name: the name of the benchmark binary.
+      parser: the fully qualified class name of the parser.
+      rule: the parser rule to start parsing with.
+      corpus: the sample input files (UTF-8).
+      deps: the libraries with the compiled parser and lexer, e.g. an antlr target
+        with compile enabled.
+      jmh: the JMH core library.
+      jmh_annprocess: the JMH annotation processor library.
+      lexer: the fully qualified class name of the lexer. Derived from the parser
+        name by default.
+      runtime: the ANTLR 4 runtime library.
+      args: the JMH options.
+      **kwargs: common attributes like visibility that are applied to all targets.
+    """
+    _antlr_benchmark_source(
+        name = name + "_source",
+        corpus = corpus,
+        lexer = lexer if lexer else "",
+        parser = parser,
+        rule = rule,
+        **kwargs
+    )
+
+    java_plugin(
+        name = name + "_jmh",
+        processor_class = "org.openjdk.jmh.generators.BenchmarkProcessor",
+        deps = [jmh, jmh_annprocess],
+        **kwargs
+    )
+
+    java_binary(
+        name = name,
+        srcs = [":" + name + "_source"],
+        args = args,
+        data = corpus,
+        main_class = "org.openjdk.jmh.Main",
+        plugins = [":" + name + "_jmh"],
+        deps = deps + [jmh, runtime],
+        **kwargs
+    )
@@ -0,0 +1,114 @@
+{PACKAGE}
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the throughput of {@link {PARSER}} for a sample corpus. Every operation
+ * processes the whole corpus. Generated by rules_antlr.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class {CLASS} {
+    private static final String[] CORPUS = { {CORPUS} };
+
+    /** Visits every node to measure the cost of walking the tree. */
+    private static final ParseTreeListener LISTENER = new ParseTreeListener() {
+        @Override
+        public void visitTerminal(TerminalNode node) {
+        }
+
+        @Override
+        public void visitErrorNode(ErrorNode node) {
+        }
+
+        @Override
+        public void enterEveryRule(ParserRuleContext ctx) {
+        }
+
+        @Override
+        public void exitEveryRule(ParserRuleContext ctx) {
+        }
+    };
+
+    private final List<String> samples = new ArrayList<>();
+
+    @Setup
+    public void load() throws IOException {
+        for (String path : CORPUS) {
+            samples.add(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public void lex(Blackhole bh) {
+        for (String sample : samples) {
+            {LEXER} lexer = lexer(sample);
+            for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+                bh.consume(token);
+            }
+        }
+    }
+
+    @Benchmark
+    public void parseSLL(Blackhole bh) {
+        for (String sample : samples) {
+            bh.consume(parse(sample, PredictionMode.SLL));
+        }
+    }
+
+    @Benchmark
+    public void parseLL(Blackhole bh) {
+        for (String sample : samples) {
+            bh.consume(parse(sample, PredictionMode.LL));
+        }
+    }
+
+    @Benchmark
+    public void parseWalk(Blackhole bh) {
+        for (String sample : samples) {
+            ParseTree tree = parse(sample, PredictionMode.LL);
+            ParseTreeWalker.DEFAULT.walk(LISTENER, tree);
+            bh.consume(tree);
+        }
+    }
+
+    private static {LEXER} lexer(String sample) {
+        {LEXER} lexer = new {LEXER}(CharStreams.fromString(sample));
+        lexer.removeErrorListeners();
+        return lexer;
+    }
+
+    private static ParseTree parse(String sample, PredictionMode mode) {
+        {PARSER} parser = new {PARSER}(new CommonTokenStream(lexer(sample)));
+        parser.removeErrorListeners();
+        parser.getInterpreter().setPredictionMode(mode);
+        return parser.{RULE}();
+    }
+}
@@ -0,0 +1,157 @@
+"""Rules to compare the official ANTLR 4 release with the "optimized" fork."""
+
+load("@rules_java//java:defs.bzl", "java_binary")
+load(":antlr4.bzl", "antlr")
+load(":impl.bzl", _recognizer_source = "recognizer_source")
+
+def _generate(ctx):
+    return [DefaultInfo(files = depset([_recognizer_source(ctx, "Comparison")]))]
+
+_antlr_comparison_source = rule(
+    implementation = _generate,
+    attrs = {
+        "lexer": attr.string(),
+        "parser": attr.string(mandatory = True),
+        "rule": attr.string(mandatory = True),
+        "_template": attr.label(
+            allow_single_file = True,
+            default = Label("@rules_antlr//antlr:compare.java.tpl"),
+        ),
+    },
+)
+
+def antlr_compare(
+        name,
+        srcs,
+        parser,
+        rule,
+        corpus,
+        lexer = None,
+        imports = [],
+        iterations = 20,
+        official = [
+            Label("@antlr4_tool//jar"),
+            Label("@antlr4_runtime//jar"),
+            Label("@antlr3_runtime//jar"),
+            Label("@stringtemplate4//jar"),
+            Label("@javax_json//jar"),
+        ],
+        official_runtime = Label("@antlr4_runtime//jar"),
+        optimized = [
+            Label("@optimized_antlr4_tool//jar"),
+            Label("@optimized_antlr4_runtime//jar"),
+            Label("@optimized_antlr3_runtime//jar"),
+            Label("@optimized_stringtemplate4//jar"),
+            Label("@optimized_javax_json//jar"),
+        ],
+        optimized_runtime = Label("@optimized_antlr4_runtime//jar"),
+        **kwargs):
+    """Generates grammars with the official and the optimized ANTLR 4 toolchain and compares them.
+
+    Both toolchains generate and compile the same grammars. Each parser then parses
+    the corpus in a fresh JVM: the first pass measures the warm-up, including class
+    loading, ATN deserialization and filling the DFA cache, and the following passes
+    measure the steady state throughput and the memory allocated per pass. The heap
+    retained after garbage collection mostly consists of the DFA cache. The report
+    `<name>.txt` lists the results side by side with the ratio of the optimized to the
+    official result, the raw results are written to `<name>_official.properties` and
+    `<name>_optimized.properties`.
+
+    The optimized fork must be loaded with a prefix, so it does not clash with the
+    official release:
+
+    ```python
+    load("@rules_antlr//antlr:repositories.bzl", "rules_antlr_dependencies", "rules_antlr_optimized_dependencies")
+
+    rules_antlr_dependencies("4.8")
+    rules_antlr_optimized_dependencies("4.7.4", prefix = "optimized_")
+    ```
+
+    ```python
+    load("@rules_antlr//antlr:compare.bzl", "antlr_compare")
+
+    antlr_compare(
+        name = "compare",
+        srcs = ["Hello.g4"],
+        parser = "hello.world.HelloParser",
+        rule = "r",
+        corpus = glob(["samples/*.txt"]),
+    )
+    ```
+
+    Args:
+      name: the name of the report target.
+      srcs: the grammar files to process.
+      parser: the fully qualified class name of the parser. The package is used for
+        the generated code.
+      rule: the parser rule to start parsing with.
+      corpus: the sample input files (UTF-8).
+      lexer: the fully qualified class name of the lexer. Derived from the parser
+        name by default.
+      imports: the grammar and .tokens files to import.
+      iterations: the number of passes over the corpus after the warm-up.
+      official: the dependencies of the official toolchain.
+      official_runtime: the official ANTLR 4 runtime library.
+      optimized: the dependencies of the optimized toolchain.
+      optimized_runtime: the optimized ANTLR 4 runtime library.
+      **kwargs: common attributes like visibility that are applied to all targets.
+    """
+    toolchains = {
+        "official": (official, official_runtime),
+        "optimized": (optimized, optimized_runtime),
+    }
+
+    _antlr_comparison_source(
+        name = name + "_source",
+        lexer = lexer if lexer else "",
+        parser = parser,
+        rule = rule,
+        **kwargs
+    )
+
+    for toolchain in toolchains:
+        deps, runtime = toolchains[toolchain]
+
+        antlr(
+            name = "{}_{}_parser".format(name, toolchain),
+            srcs = srcs,
+            compile = True,
+            deps = deps,
+            imports = imports,
+            package = parser.rpartition(".")[0],
+            runtime = runtime,
+            **kwargs
+        )
+
+        java_binary(
+            name = "{}_{}".format(name, toolchain),
+            srcs = [":" + name + "_source"],
+            main_class = parser + "Comparison",
+            deps = [":{}_{}_parser".format(name, toolchain), runtime],
+            **kwargs
+        )
+
+    measure = ("$(location :{name}_{toolchain}) --toolchain {toolchain} --iterations {iterations} " +
+               "--output $(location {name}_{toolchain}.properties) {corpus}")
+
+    native.genrule(
+        name = name,
+        srcs = corpus,
+        outs = [
+            name + ".txt",
+            name + "_official.properties",
+            name + "_optimized.properties",
+        ],
+        cmd = " && ".join([measure.format(
+            name = name,
+            toolchain = toolchain,
+            iterations = iterations,
+            corpus = " ".join(["$(location {})".format(c) for c in corpus]),
+        ) for toolchain in toolchains] + [
+            "$(location :{name}_official) --report $(location {name}.txt) $(location {name}_official.properties) $(location {name}_optimized.properties)".format(name = name),
+        ]),
+        # the timings differ with every run
+        tags = ["no-cache"],
+        tools = [":{}_{}".format(name, toolchain) for toolchain in toolchains],
+        **kwargs
+    )
@@ -0,0 +1,208 @@
+{PACKAGE}
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+/**
+ * Measures warm-up, throughput and heap use of {@link {PARSER}} for a sample corpus and
+ * compares the results of several toolchains. Generated by rules_antlr.
+ *
+ * <p>Usage: {CLASS} --toolchain name [--iterations n] --output file sample...<br>
+ * {CLASS} --report file result...</p>
+ */
+public class {CLASS} {
+    private static final String[][] METRICS = {
+        { "warmup.ms", "warm-up, first pass (ms)" },
+        { "steady.ms", "steady state, median pass (ms)" },
+        { "throughput.samples", "throughput (samples/s)" },
+        { "throughput.bytes", "throughput (KiB/s)" },
+        { "allocated.bytes", "allocated per pass (KiB)" },
+        { "retained.bytes", "retained heap after GC (KiB)" },
+        { "errors", "syntax errors per pass" },
+    };
+
+    public static void main(String[] args) throws IOException {
+        List<Path> files = new ArrayList<>();
+        String toolchain = "";
+        int iterations = 20;
+        Path output = null;
+        Path report = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--toolchain")) {
+                toolchain = args[++i];
+            }
+            else if (args[i].equals("--iterations")) {
+                iterations = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--output")) {
+                output = Paths.get(args[++i]);
+            }
+            else if (args[i].equals("--report")) {
+                report = Paths.get(args[++i]);
+            }
+            else {
+                files.add(Paths.get(args[i]));
+            }
+        }
+
+        if (report == null) {
+            Properties result = measure(toolchain, iterations, files);
+
+            try (OutputStream out = (output == null) ? System.out : Files.newOutputStream(output)) {
+                result.store(out, "{PARSER}");
+            }
+        }
+        else {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(report), false, "UTF-8")) {
+                report(files, out);
+            }
+        }
+    }
+
+    private static Properties measure(String toolchain, int iterations, List<Path> corpus)
+        throws IOException {
+        List<String> samples = new ArrayList<>();
+        long bytes = 0;
+
+        for (Path path : corpus) {
+            byte[] contents = Files.readAllBytes(path);
+            samples.add(new String(contents, StandardCharsets.UTF_8));
+            bytes += contents.length;
+        }
+
+        // the first pass includes class loading, ATN deserialization and filling the DFA cache
+        long start = System.nanoTime();
+        int errors = parse(samples);
+        long warmup = System.nanoTime() - start;
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean allocation = threads instanceof com.sun.management.ThreadMXBean;
+        long[] times = new long[Math.max(1, iterations)];
+        long allocated = 0;
+
+        for (int i = 0; i < times.length; i++) {
+            long before = allocation ? allocated(threads) : 0;
+            start = System.nanoTime();
+            parse(samples);
+            times[i] = System.nanoTime() - start;
+            allocated += allocation ? (allocated(threads) - before) : 0;
+        }
+
+        Arrays.sort(times);
+        long median = Math.max(1, times[times.length / 2]);
+
+        // the remaining heap is dominated by the shared DFA cache
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        long retained = runtime.totalMemory() - runtime.freeMemory();
+
+        Properties result = new Properties();
+        result.setProperty("toolchain", toolchain);
+        result.setProperty("samples", String.valueOf(samples.size()));
+        result.setProperty("warmup.ms", format(warmup / 1e6));
+        result.setProperty("steady.ms", format(median / 1e6));
+        result.setProperty("throughput.samples", format(samples.size() * 1e9 / median));
+        result.setProperty("throughput.bytes", String.valueOf((long) (bytes * 1e9 / median)));
+        result.setProperty("allocated.bytes", allocation ? String.valueOf(allocated / times.length) : "");
+        result.setProperty("retained.bytes", String.valueOf(retained));
+        result.setProperty("errors", String.valueOf(errors));
+
+        return result;
+    }
+
+    private static long allocated(ThreadMXBean threads) {
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static int parse(List<String> samples) {
+        int errors = 0;
+
+        for (String sample : samples) {
+            {LEXER} lexer = new {LEXER}(CharStreams.fromString(sample));
+            lexer.removeErrorListeners();
+            {PARSER} parser = new {PARSER}(new CommonTokenStream(lexer));
+            parser.removeErrorListeners();
+            parser.{RULE}();
+            errors += parser.getNumberOfSyntaxErrors();
+        }
+
+        return errors;
+    }
+
+    private static void report(List<Path> files, PrintStream out) throws IOException {
+        List<Properties> results = new ArrayList<>();
+
+        for (Path file : files) {
+            Properties result = new Properties();
+
+            try (InputStream in = Files.newInputStream(file)) {
+                result.load(in);
+            }
+
+            results.add(result);
+        }
+
+        out.printf("{PARSER}, %s samples%n%n", results.isEmpty() ? "0" : results.get(0).getProperty("samples"));
+        out.printf("%-32s", "");
+        for (Properties result : results) {
+            out.printf(" %16s", result.getProperty("toolchain"));
+        }
+        if (results.size() == 2) {
+            out.printf(" %10s", "ratio");
+        }
+        out.println();
+
+        for (String[] metric : METRICS) {
+            out.printf("%-32s", metric[1]);
+
+            List<Double> values = new ArrayList<>();
+            for (Properties result : results) {
+                String value = result.getProperty(metric[0], "");
+
+                if (value.isEmpty()) {
+                    out.printf(" %16s", "n/a");
+                    values.add(null);
+                }
+                else {
+                    double v = Double.parseDouble(value);
+                    if (metric[0].endsWith(".bytes")) {
+                        v /= 1024;
+                    }
+                    out.printf(" %16s", format(v));
+                    values.add(v);
+                }
+            }
+
+            if (results.size() == 2) {
+                Double first = values.get(0);
+                Double second = values.get(1);
+                out.printf(" %10s", (first != null && second != null && first != 0)
+                    ? format(second / first) + "x" : "");
+            }
+
+            out.println();
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+}
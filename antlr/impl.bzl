@@ -27,72 +27,197 @@ def antlr(version, ctx, args):
     if not ctx.files.srcs:
         fail("No grammars provided, either add the srcs attribute or check your filespec", attr = "srcs")
 
+    out = outputs(ctx, ctx.attr.name, ctx.attr.language)
+    tool_inputs, _, input_manifests = ctx.resolve_command(tools = ctx.attr.deps + [ctx.attr._tool])
+    java = _java(ctx, out)
+    # the warm-up samples keyed by parser, unless the value is empty
+    corpus = getattr(ctx.attr, "warmup", {})
+    warmup = [(corpus[sample], f) for sample in corpus for f in sample.files.to_list()]
+
+    ctx.actions.run(
+        arguments = [args(ctx, out.output_dir)],
+        inputs = ctx.files.srcs + ctx.files.imports + [f for _, f in warmup] + (java.classpath + java.runtime if java else []),
+        outputs = out.outputs + out.data + ([java.jar] if java else []),
+        mnemonic = "ANTLR" + version,
+        executable = ctx.executable._tool,
+        env = {
+            "ANTLR_CACHE_DIR": ctx.var.get("antlr_cache_dir", ""),
+            "ANTLR_CACHE_SIZE": ctx.var.get("antlr_cache_size", ""),
+            "ANTLR_VERSION": version,
+            "ATN_RESOURCE": str(getattr(ctx.attr, "atn_resource", False)).lower(),
+            "ATOMIC_OUTPUT": str(getattr(ctx.attr, "atomic_output", False)).lower(),
+            "CLASS_JAR": java.jar.path if java else "",
+            "COMPILE_CLASSPATH": ",".join([f.path for f in java.classpath]) if java else "",
+            "DFA_CACHE_LIMIT": str(getattr(ctx.attr, "dfa_cache_limit", 0)),
+            "DIRECTORY_LAYOUT": ctx.attr.layout if hasattr(ctx.attr, "layout") else "",
+            "ENCODING": ctx.attr.encoding if hasattr(ctx.attr, "encoding") else "",
+            "GRAMMARS": ",".join([f.path for f in ctx.files.srcs]),
+            "HUGE_METHODS": ctx.attr.huge_methods if java else "",
+            "JAVAC_OPTS": "\n".join(ctx.attr.javacopts) if java else "",
+            "LINT": getattr(ctx.attr, "lint", "off"),
+            "OUTPUT_DIRECTORY": out.output_dir,
+            "PACKAGE_NAME": ctx.attr.package,
+            "PARSER_POOL": str(getattr(ctx.attr, "parser_pool", False)).lower(),
+            "RUNTIME_CLASSPATH": ",".join([f.path for f in java.runtime]) if java else "",
+            "SRC_JAR": out.srcjar.path if out.srcjar else "",
+            "STREAMING": str(getattr(ctx.attr, "streaming", False)).lower(),
+            "STREAMING_RULE": ",".join(getattr(ctx.attr, "streaming_rule", [])),
+            "TARGET": ctx.attr.name,
+            "TARGET_LANGUAGE": ctx.attr.language,
+            "TOOL_CLASSPATH": ",".join([f.path for f in tool_inputs]),
+            "TWO_STAGE_RULES": ",".join(getattr(ctx.attr, "two_stage", [])),
+            "WARMUP_CORPUS": ",".join([(parser + "=" if parser else "") + f.path for parser, f in warmup]),
+            "WARMUP_RULE": ",".join(getattr(ctx.attr, "warmup_rule", [])),
+        },
+        input_manifests = input_manifests,
+        progress_message = "Processing ANTLR {} grammars".format(version),
+        tools = tool_inputs,
+    )
+
+    return providers(ctx.attr.name, ctx.attr.package, out, java)
+
+def _java(ctx, out):
+    # the generated sources are only compiled on request
+    if not getattr(ctx.attr, "compile", False):
+        # the extracted resources are only part of the compiled classes
+        if getattr(ctx.attr, "atn_resource", False):
+            fail("Extracting the ATN requires compile = True", attr = "atn_resource")
+        if getattr(ctx.attr, "warmup", []):
+            fail("Warming up requires compile = True", attr = "warmup")
+        return None
+
+    if not out.srcjar:
+        fail("Only Java sources can be compiled", attr = "compile")
+
+    deps = [ctx.attr.runtime] + ctx.attr.compile_deps
+
+    return struct(
+        classpath = depset(transitive = [dep[JavaInfo].transitive_compile_time_jars for dep in deps]).to_list(),
+        deps = [dep[JavaInfo] for dep in deps],
+        jar = ctx.actions.declare_file(ctx.attr.name + ".jar"),
+        # the warm-up corpus is replayed with the full runtime classpath
+        runtime = depset(transitive = [dep[JavaInfo].transitive_runtime_jars for dep in deps]).to_list() if getattr(ctx.attr, "warmup", []) else [],
+    )
+
+def recognizer_source(ctx, suffix, substitutions = {}):
+    """Generates a Java source for a compiled parser from the template of the rule.
+
+    Args:
+      ctx: the rule context with parser, lexer, rule and _template attributes.
+      suffix: the suffix appended to the parser class name to get the class name.
+      substitutions: additional template substitutions.
+    Returns:
+      the generated source file.
+    """
+    parts = ctx.attr.parser.rpartition(".")
+    package = parts[0]
+    parser = parts[2]
+    lexer = ctx.attr.lexer
+
+    if not lexer:
+        # combined as well as separate grammars produce classes with the same prefix
+        if not parser.endswith("Parser"):
+            fail("Could not derive the lexer from the parser name", attr = "lexer")
+        lexer = parser[:-len("Parser")] + "Lexer"
+
+    name = parser + suffix
+    out = ctx.actions.declare_file("{}/{}/{}.java".format(ctx.attr.name, package.replace(".", "/"), name))
+    values = {
+        "{CLASS}": name,
+        "{LEXER}": lexer,
+        "{PACKAGE}": "package {};\n".format(package) if package else "",
+        "{PARSER}": parser,
+        "{RULE}": ctx.attr.rule,
+    }
+    values.update(substitutions)
+
+    ctx.actions.expand_template(
+        template = ctx.file._template,
+        output = out,
+        substitutions = values,
+    )
+
+    return out
+
+def outputs(ctx, name, language, scratch_dir = None):
+    """Declares the outputs of a target.
+
+    Args:
+      ctx: the rule context.
+      name: the target name.
+      language: the code generation target language.
+      scratch_dir: the directory to use for .srcjar output, defaults to a shared one.
+    Returns:
+      a struct with the declared outputs.
+    """
     srcjar = None
     data = []
     sources = []
     headers = []
-    cc = ctx.attr.language == CPP or ctx.attr.language == C or ctx.attr.language == OBJC
-    output_type = "dir" if ctx.attr.language and ctx.attr.language != "Java" else "srcjar"
+    cc = language == CPP or language == C or language == OBJC
+    output_type = "dir" if language and language != "Java" else "srcjar"
 
     if output_type == "srcjar":
         # the Java rules are special in that the output is a .jar file
-        srcjar = ctx.actions.declare_file(ctx.attr.name + "." + output_type)
-        output_dir = ctx.configuration.bin_dir.path + "/rules_antlr"
+        srcjar = ctx.actions.declare_file(name + "." + output_type)
+        output_dir = scratch_dir if scratch_dir else ctx.configuration.bin_dir.path + "/rules_antlr"
         outputs = [srcjar]
     else:
         # for all other languages we use directories
-        sources = ctx.actions.declare_directory(ctx.attr.name + extension(ctx.attr.language))
+        sources = ctx.actions.declare_directory(name + extension(language))
         output_dir = sources.path
 
         # for C/C++ we must split headers from sources
         if cc:
-            data = [ctx.actions.declare_directory(ctx.attr.name + ".antlr")]
-            headers = ctx.actions.declare_directory(ctx.attr.name + ".inc")
+            data = [ctx.actions.declare_directory(name + ".antlr")]
+            headers = ctx.actions.declare_directory(name + ".inc")
             outputs = [sources, headers]
-        elif ctx.attr.language == GO:
-            data = [ctx.actions.declare_directory(ctx.attr.name + ".antlr")]
+        elif language == GO:
+            data = [ctx.actions.declare_directory(name + ".antlr")]
             outputs = [sources]
         else:
             outputs = [sources]
 
-    tool_inputs, _, input_manifests = ctx.resolve_command(tools = ctx.attr.deps + [ctx.attr._tool])
-
-    ctx.actions.run(
-        arguments = [args(ctx, output_dir)],
-        inputs = ctx.files.srcs + ctx.files.imports,
-        outputs = outputs + data,
-        mnemonic = "ANTLR" + version,
-        executable = ctx.executable._tool,
-        env = {
-            "ANTLR_VERSION": version,
-            "DIRECTORY_LAYOUT": ctx.attr.layout if hasattr(ctx.attr, "layout") else "",
-            "ENCODING": ctx.attr.encoding if hasattr(ctx.attr, "encoding") else "",
-            "GRAMMARS": ",".join([f.path for f in ctx.files.srcs]),
-            "OUTPUT_DIRECTORY": output_dir,
-            "PACKAGE_NAME": ctx.attr.package,
-            "SRC_JAR": srcjar.path if srcjar else "",
-            "TARGET": ctx.attr.name,
-            "TARGET_LANGUAGE": ctx.attr.language,
-            "TOOL_CLASSPATH": ",".join([f.path for f in tool_inputs]),
-        },
-        input_manifests = input_manifests,
-        progress_message = "Processing ANTLR {} grammars".format(version),
-        tools = tool_inputs,
+    return struct(
+        cc = cc,
+        data = data,
+        headers = headers,
+        output_dir = output_dir,
+        outputs = outputs,
+        sources = sources,
+        srcjar = srcjar,
     )
 
+def providers(name, package, out, java = None):
+    """Creates the providers of a target.
+
+    Args:
+      name: the target name.
+      package: the package/namespace for the generated code.
+      out: the declared outputs of the target.
+      java: the compiled Java library, if any.
+    Returns:
+      the providers.
+    """
+
     # for C/C++ we add the generated headers to the compilation context
-    if cc:
-        compilation_context = cc_common.create_compilation_context(headers = depset([headers]), system_includes = depset([headers.path + "/" + ctx.attr.package]))
+    if out.cc:
+        compilation_context = cc_common.create_compilation_context(headers = depset([out.headers]), system_includes = depset([out.headers.path + "/" + package]))
 
     return [
         AntlrInfo(
-            sources = sources,
-            headers = headers,
-            data = [ctx.attr.name + ".antlr"],
+            sources = out.sources,
+            headers = out.headers,
+            data = [name + ".antlr"],
         ),
-        CcInfo(compilation_context = compilation_context) if cc else _NullInfo(),
-        DefaultInfo(files = depset(outputs)),
-    ]
+        CcInfo(compilation_context = compilation_context) if out.cc else _NullInfo(),
+        DefaultInfo(files = depset(out.outputs + ([java.jar] if java else []))),
+    ] + ([JavaInfo(
+        output_jar = java.jar,
+        compile_jar = java.jar,
+        source_jar = out.srcjar,
+        deps = java.deps,
+    )] if java else [])
 
 def extension(language):
     """Determines the extension to use for tree artifact output.
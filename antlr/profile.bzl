@@ -0,0 +1,107 @@
+"""Rules to report the prediction statistics of generated ANTLR 4 Java parsers."""
+
+load("@rules_java//java:defs.bzl", "java_binary")
+load(":impl.bzl", _recognizer_source = "recognizer_source")
+
+def _generate(ctx):
+    return [DefaultInfo(files = depset([_recognizer_source(ctx, "Profiler")]))]
+
+_antlr_profiler_source = rule(
+    implementation = _generate,
+    attrs = {
+        "lexer": attr.string(),
+        "parser": attr.string(mandatory = True),
+        "rule": attr.string(mandatory = True),
+        "_template": attr.label(
+            allow_single_file = True,
+            default = Label("@rules_antlr//antlr:profile.java.tpl"),
+        ),
+    },
+)
+
+def antlr_profile(
+        name,
+        parser,
+        rule,
+        corpus,
+        deps,
+        grammars = [],
+        lexer = None,
+        runtime = Label("@antlr4_runtime//jar"),
+        **kwargs):
+    """Parses a corpus with profiling enabled and reports the statistics of every decision.
+
+    The report `<name>.txt` lists every decision that was invoked with the rule it
+    belongs to and the rule's location in the grammar, the number of invocations,
+    the time spent in prediction, the SLL and LL lookahead depths, the number of
+    fallbacks from SLL to full LL prediction as well as the ambiguities, context
+    sensitivities and predicate evaluations encountered. Decisions are sorted by
+    prediction time, so the rules that dominate the parse cost come first.
+
+    ```python
+    load("@rules_antlr//antlr:antlr4.bzl", "antlr")
+    load("@rules_antlr//antlr:profile.bzl", "antlr_profile")
+
+    antlr(
+        name = "parser",
+        srcs = ["Hello.g4"],
+        compile = True,
+        package = "hello.world",
+    )
+
+    antlr_profile(
+        name = "profile",
+        parser = "hello.world.HelloParser",
+        rule = "r",
+        corpus = glob(["samples/*.txt"]),
+        grammars = ["Hello.g4"],
+        deps = [":parser"],
+    )
+    ```
+
+    The profiler can also be run directly with `bazel run :profile_profiler --
+    <sample>...`.
+
+    Args:
+      name: the name of the report target.
+      parser: the fully qualified class name of the parser.
+      rule: the parser rule to start parsing with.
+      corpus: the sample input files (UTF-8).
+      deps: the libraries with the compiled parser and lexer, e.g. an antlr target
+        with compile enabled.
+      grammars: the grammar files to look up the rule locations in.
+      lexer: the fully qualified class name of the lexer. Derived from the parser
+        name by default.
+      runtime: the ANTLR 4 runtime library.
+      **kwargs: common attributes like visibility that are applied to all targets.
+    """
+    _antlr_profiler_source(
+        name = name + "_source",
+        lexer = lexer if lexer else "",
+        parser = parser,
+        rule = rule,
+        **kwargs
+    )
+
+    java_binary(
+        name = name + "_profiler",
+        srcs = [":" + name + "_source"],
+        main_class = parser + "Profiler",
+        deps = deps + [runtime],
+        **kwargs
+    )
+
+    native.genrule(
+        name = name,
+        srcs = corpus + grammars,
+        outs = [name + ".txt"],
+        cmd = "$(location :{profiler}) --output $@ {grammars} {corpus}".format(
+            profiler = name + "_profiler",
+            grammars = " ".join(["--grammar $(location {})".format(g) for g in grammars]),
+            corpus = " ".join(["$(location {})".format(c) for c in corpus]),
+        ),
+        # the timings differ with every run
+        tags = ["no-cache"],
+        tools = [":" + name + "_profiler"],
+        **kwargs
+    )
@@ -0,0 +1,135 @@
+{PACKAGE}
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.atn.DecisionInfo;
+import org.antlr.v4.runtime.atn.DecisionState;
+
+/**
+ * Parses a sample corpus with {@link {PARSER}} in profiling mode and reports the
+ * prediction statistics of every decision. Generated by rules_antlr.
+ *
+ * <p>Usage: {CLASS} [--output file] [--grammar file]... sample...</p>
+ */
+public class {CLASS} {
+    private static final Pattern RULE = Pattern.compile(
+        "^\\s*(?:(?:public|private|protected|fragment)\\s+)?([a-zA-Z_]\\w*)\\s*(?:\\[|returns\\b|locals\\b|throws\\b|options\\b|@|:|$)");
+
+    public static void main(String[] args) throws IOException {
+        List<Path> corpus = new ArrayList<>();
+        List<Path> grammars = new ArrayList<>();
+        Path output = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--output")) {
+                output = Paths.get(args[++i]);
+            }
+            else if (args[i].equals("--grammar")) {
+                grammars.add(Paths.get(args[++i]));
+            }
+            else {
+                corpus.add(Paths.get(args[i]));
+            }
+        }
+
+        {LEXER} lexer = new {LEXER}(CharStreams.fromString(""));
+        lexer.removeErrorListeners();
+        {PARSER} parser = new {PARSER}(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+        parser.setProfile(true);
+
+        // the parser is reused so the statistics accumulate over the whole corpus
+        int errors = 0;
+        for (Path sample : corpus) {
+            lexer.setInputStream(CharStreams.fromPath(sample, StandardCharsets.UTF_8));
+            parser.setTokenStream(new CommonTokenStream(lexer));
+            parser.{RULE}();
+            errors += parser.getNumberOfSyntaxErrors();
+        }
+
+        if (output == null) {
+            report(parser, grammars, corpus.size(), errors, System.out);
+        }
+        else {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(output), false, "UTF-8")) {
+                report(parser, grammars, corpus.size(), errors, out);
+            }
+        }
+    }
+
+    private static Map<String, String> locations(List<Path> grammars) throws IOException {
+        Map<String, String> result = new HashMap<>();
+
+        for (Path grammar : grammars) {
+            List<String> lines = Files.readAllLines(grammar, StandardCharsets.UTF_8);
+
+            for (int i = 0; i < lines.size(); i++) {
+                Matcher m = RULE.matcher(lines.get(i));
+
+                if (m.find() && !result.containsKey(m.group(1))) {
+                    result.put(m.group(1), grammar.getFileName() + ":" + (i + 1));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static void report({PARSER} parser, List<Path> grammars, int samples, int errors, PrintStream out)
+        throws IOException {
+        Map<String, String> locations = locations(grammars);
+        DecisionInfo[] decisions = parser.getParseInfo().getDecisionInfo();
+        DecisionInfo[] sorted = decisions.clone();
+        Arrays.sort(sorted, Comparator.comparingLong((DecisionInfo d) -> d.timeInPrediction).reversed());
+
+        long time = 0;
+        for (DecisionInfo decision : decisions) {
+            time += decision.timeInPrediction;
+        }
+
+        out.printf("%d samples, %d syntax errors, %d decisions, %.3f ms in prediction%n%n",
+            samples, errors, decisions.length, time / 1e6);
+        out.printf("%-8s %-32s %-24s %12s %10s %8s %14s %9s %14s %8s %8s %8s %8s%n",
+            "decision", "rule", "location", "invocations", "time(ms)", "time(%)",
+            "SLL look(avg)", "SLL max", "LL fallbacks", "LL max", "ambig", "ctxsens", "preds");
+
+        for (DecisionInfo decision : sorted) {
+            if (decision.invocations == 0) {
+                continue;
+            }
+
+            DecisionState state = parser.getATN().getDecisionState(decision.decision);
+            String rule = parser.getRuleNames()[state.ruleIndex];
+            String location = locations.containsKey(rule) ? locations.get(rule) : "";
+
+            out.printf("%-8d %-32s %-24s %12d %10.3f %8.2f %14.2f %9d %14d %8d %8d %8d %8d%n",
+                decision.decision,
+                rule,
+                location,
+                decision.invocations,
+                decision.timeInPrediction / 1e6,
+                (time > 0) ? (100.0 * decision.timeInPrediction / time) : 0.0,
+                (double) decision.SLL_TotalLook / decision.invocations,
+                decision.SLL_MaxLook,
+                decision.LL_Fallback,
+                decision.LL_MaxLook,
+                decision.ambiguities.size(),
+                decision.contextSensitivities.size(),
+                decision.predicateEvals.size());
+        }
+    }
+}
@@ -192,7 +192,7 @@ def rules_antlr_dependencies(*versionsAndLanguages):
     else:
         fail("Missing ANTLR version", attr = "versionsAndLanguages")
 
-def rules_antlr_optimized_dependencies(version):
+def rules_antlr_optimized_dependencies(version, prefix = ""):
     """Loads the dependencies for the "optimized" fork of ANTLR 4 maintained by Sam Harwell.
 
     ```python
@@ -201,17 +201,27 @@ def rules_antlr_optimized_dependencies(version):
     rules_antlr_optimized_dependencies("4.7.2")
     ```
 
+    To load the fork next to an official release, e.g. to compare both with
+    [antlr_compare](compare.md#antlr_compare), provide a prefix for the repository names:
+
+    ```python
+    rules_antlr_dependencies("4.8")
+    rules_antlr_optimized_dependencies("4.7.4", prefix = "optimized_")
+    ```
+
     Args:
       version: the ANTLR release version to make available.
+      prefix: the prefix for the names of the loaded repositories, e.g.
+        `optimized_` yields `@optimized_antlr4_tool` instead of `@antlr4_tool`.
     """
     if version == 4 or version == "4.7.4":
-        _antlr474_optimized_dependencies()
+        _antlr474_optimized_dependencies(prefix)
     elif version == "4.7.3":
-        _antlr473_optimized_dependencies()
+        _antlr473_optimized_dependencies(prefix)
     elif version == "4.7.2":
-        _antlr472_optimized_dependencies()
+        _antlr472_optimized_dependencies(prefix)
     elif version == "4.7.1":
-        _antlr471_optimized_dependencies()
+        _antlr471_optimized_dependencies(prefix)
     elif type(version) == "int" or str(version).isdigit():
         fail('Integer version \'{}\' no longer valid. Use semantic version "{}" instead.'.format(version, ".".join(str(version).elems())), attr = "version")
     else:
@@ -256,41 +266,41 @@ def _antlr471_dependencies(languages):
         },
     )
 
-def _antlr474_optimized_dependencies():
+def _antlr474_optimized_dependencies(prefix):
     _dependencies({
         "antlr4_runtime": "4.7.4-opt",
         "antlr4_tool": "4.7.4-opt",
         "antlr3_runtime": "3.5.2",
         "stringtemplate4": "4.0.8",
         "javax_json": "1.0.4",
-    })
+    }, prefix)
 
-def _antlr473_optimized_dependencies():
+def _antlr473_optimized_dependencies(prefix):
     _dependencies({
         "antlr4_runtime": "4.7.3-opt",
         "antlr4_tool": "4.7.3-opt",
         "antlr3_runtime": "3.5.2",
         "stringtemplate4": "4.0.8",
         "javax_json": "1.0.4",
-    })
+    }, prefix)
 
-def _antlr472_optimized_dependencies():
+def _antlr472_optimized_dependencies(prefix):
     _dependencies({
         "antlr4_runtime": "4.7.2-opt",
         "antlr4_tool": "4.7.2-opt",
         "antlr3_runtime": "3.5.2",
         "stringtemplate4": "4.0.8",
         "javax_json": "1.0.4",
-    })
+    }, prefix)
 
-def _antlr471_optimized_dependencies():
+def _antlr471_optimized_dependencies(prefix):
     _dependencies({
         "antlr4_runtime": "4.7.1-opt",
         "antlr4_tool": "4.7.1-opt",
         "antlr3_runtime": "3.5.2",
         "stringtemplate4": "4.0.8",
         "javax_json": "1.0.4",
-    })
+    }, prefix)
 
 def _antlr4_dependencies(version, languages, dependencies):
     _dependencies(dependencies)
@@ -504,11 +514,11 @@ py_library(
 
     return script
 
-def _dependencies(dependencies):
+def _dependencies(dependencies, prefix = ""):
     for key in dependencies:
         version = dependencies[key]
         _download(
-            name = key,
+            name = prefix + key,
             path = PACKAGES[key][version]["path"],
             sha256 = PACKAGES[key][version]["sha256"],
         )
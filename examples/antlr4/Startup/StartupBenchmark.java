@@ -0,0 +1,90 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Measures the time to create the first instance of generated recognizers, i.e. to load
+ * the class and deserialize its ATN. Every sample runs in a new JVM to measure a cold start.
+ *
+ * <p>Usage: StartupBenchmark recognizer... [samples]</p>
+ */
+public class StartupBenchmark
+{
+    private static final String CHILD = "-child";
+
+    public static void main(String[] args) throws Exception
+    {
+        if ((args.length == 2) && args[0].equals(CHILD))
+        {
+            long start = System.nanoTime();
+            // generated recognizers only have a single constructor for their input
+            Class.forName(args[1]).getConstructors()[0].newInstance(new Object[] { null });
+            System.out.println(System.nanoTime() - start);
+
+            return;
+        }
+
+        int samples = 10;
+        List<String> recognizers = new ArrayList<>();
+
+        for (String arg : args)
+        {
+            if (arg.matches("\\d+"))
+            {
+                samples = Integer.parseInt(arg);
+            }
+            else
+            {
+                recognizers.add(arg);
+            }
+        }
+
+        for (String recognizer : recognizers)
+        {
+            long[] times = new long[samples];
+
+            for (int i = 0; i < samples; i++)
+            {
+                times[i] = sample(recognizer);
+            }
+
+            Arrays.sort(times);
+
+            System.out.printf("%-40s median %8.3f ms   min %8.3f ms%n",
+                recognizer,
+                times[samples / 2] / 1e6,
+                times[0] / 1e6);
+        }
+    }
+
+
+    private static long sample(String recognizer) throws Exception
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin"
+            + File.separator + "java";
+        Process process = new ProcessBuilder(java,
+                "-cp",
+                System.getProperty("java.class.path"),
+                StartupBenchmark.class.getName(),
+                CHILD,
+                recognizer).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+        try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)))
+        {
+            String line = in.readLine();
+
+            if ((process.waitFor() != 0) || (line == null))
+            {
+                throw new IllegalStateException("Could not initialize " + recognizer);
+            }
+
+            return Long.parseLong(line.trim());
+        }
+    }
+}
@@ -10,6 +10,9 @@ import org.junit.Test;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -177,6 +180,28 @@ public class Antlr3Test
     }
 
 
+    @Test
+    public void concurrentErrors() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try
+        {
+            Future<String> several = executor.submit(
+                () -> errors("src/it/resources/antlr3/SeveralErrors"));
+            Future<String> single = executor.submit(
+                () -> errors("src/it/resources/antlr3/SingleError"));
+
+            assertEquals("ANTLR terminated with 7 errors", several.get());
+            assertEquals("ANTLR terminated with 1 error", single.get());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+
     @Test
     public void objC() throws Exception
     {
@@ -200,6 +225,28 @@ public class Antlr3Test
     }
 
 
+    private String errors(String path) throws Exception
+    {
+        try (TestProject project = TestProject.create(path))
+        {
+            AntlrRules.create(project.root())
+                .srcjar(project.srcjar().toString())
+                .version("3")
+                .classpath(classpath())
+                .outputDirectory(project.outputDirectory().toString())
+                .grammars(project.grammars())
+                .args(project.args())
+                .generate();
+
+            return null;
+        }
+        catch (IllegalStateException ex)
+        {
+            return ex.getMessage();
+        }
+    }
+
+
     private String[] classpath() throws Exception
     {
         Path root = Paths.get(System.getenv().get("RUNFILES_DIR"));
@@ -1,7 +1,15 @@
 package org.antlr.bazel;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
@@ -9,7 +17,11 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Function;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -24,6 +36,328 @@ import org.junit.Test;
  */
 public class Antlr4Test
 {
+    @Test
+    public void atnResource() throws Exception
+    {
+        try (TestProject project = TestProject.create("examples/antlr4/Java"))
+        {
+            AntlrRules.create(project.root())
+                .srcjar(project.srcjar().toString())
+                .version("4")
+                .classpath(classpath())
+                .outputDirectory(project.outputDirectory().toString())
+                .encoding("UTF-8")
+                .grammars(project.grammars())
+                .args(project.args())
+                .atnResource(true)
+                .generate();
+
+            project.validate("HelloLexer.tokens",
+                "Hello.tokens",
+                "HelloBaseListener.java",
+                "HelloParser.java",
+                "HelloParser.atn",
+                "HelloLexer.interp",
+                "HelloListener.java",
+                "HelloLexer.java",
+                "HelloLexer.atn",
+                "Hello.interp");
+        }
+    }
+
+
+    @Test
+    public void atomicSrcjar() throws Exception
+    {
+        try (TestProject project = TestProject.create("examples/antlr4/Java"))
+        {
+            AntlrRules.create(project.root())
+                .srcjar(project.srcjar().toString())
+                .version("4")
+                .classpath(classpath())
+                .outputDirectory(project.outputDirectory().toString())
+                .encoding("UTF-8")
+                .grammars(project.grammars())
+                .args(project.args())
+                .atomic(true)
+                .generate();
+
+            fail();
+        }
+        catch (IllegalStateException ex)
+        {
+            assertEquals("Atomic output requires a target language that produces directories",
+                ex.getMessage());
+        }
+    }
+
+
+    @Test
+    public void batch() throws Exception
+    {
+        try (TestProject project = TestProject.create("examples/antlr4/Java"))
+        {
+            Path second = Files.createDirectories(project.resolve("target/second"));
+            Properties manifest = new Properties();
+            manifest.setProperty("targets", "first,second");
+
+            for (String target : new String[] { "first", "second" })
+            {
+                Path output = target.equals("first") ? project.outputDirectory() : second;
+                manifest.setProperty(target + ".SRC_JAR", output.resolve(target + ".srcjar").toString());
+                manifest.setProperty(target + ".ANTLR_VERSION", "4");
+                manifest.setProperty(target + ".TOOL_CLASSPATH", String.join(",", classpath()));
+                manifest.setProperty(target + ".OUTPUT_DIRECTORY", output.toString());
+                manifest.setProperty(target + ".ENCODING", "UTF-8");
+                manifest.setProperty(target + ".GRAMMARS", String.join(",", project.grammars()));
+                manifest.setProperty(target + ".PACKAGE_NAME", target);
+                manifest.setProperty(target + ".DIRECTORY_LAYOUT", "");
+                manifest.setProperty(target + ".TARGET", target);
+                manifest.setProperty(target + ".TARGET_LANGUAGE", "");
+                manifest.setProperty(target + ".ARGS",
+                    String.join("\n", "-o", output.toString(), "-package", target));
+            }
+
+            Path file = project.resolve("batch.manifest");
+
+            try (OutputStream out = Files.newOutputStream(file))
+            {
+                manifest.store(out, null);
+            }
+
+            AntlrRules.generate(project.root(), file);
+
+            for (String target : new String[] { "first", "second" })
+            {
+                Path output = target.equals("first") ? project.outputDirectory() : second;
+                URI uri = URI.create("jar:file:"
+                        + output.resolve(target + ".srcjar").toUri().getPath());
+
+                try (FileSystem fs = FileSystems.newFileSystem(uri,
+                        new HashMap<String, String>()))
+                {
+                    Path parser = fs.getPath(target, "HelloParser.java");
+
+                    assertTrue(Files.exists(parser));
+                    assertTrue(new String(Files.readAllBytes(parser), StandardCharsets.UTF_8)
+                        .contains("package " + target + ";"));
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void cache() throws Exception
+    {
+        try (TestProject project = TestProject.create("examples/antlr4/Java"))
+        {
+            for (int i = 0; i < 2; i++)
+            {
+                Files.deleteIfExists(project.srcjar());
+
+                AntlrRules.create(project.root())
+                    .srcjar(project.srcjar().toString())
+                    .version("4")
+                    .classpath(classpath())
+                    .outputDirectory(project.outputDirectory().toString())
+                    .encoding("UTF-8")
+                    .grammars(project.grammars())
+                    .args(project.args())
+                    .cache(project.resolve("cache").toString(), null)
+                    .generate();
+
+                project.validate("HelloLexer.tokens",
+                    "Hello.tokens",
+                    "HelloBaseListener.java",
+                    "HelloParser.java",
+                    "HelloLexer.interp",
+                    "HelloListener.java",
+                    "HelloLexer.java",
+                    "Hello.interp");
+            }
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(
+                    project.resolve("cache")))
+            {
+                int count = 0;
+
+                for (@SuppressWarnings("unused")
+                    Path entry : entries)
+                {
+                    count++;
+                }
+
+                assertEquals(1, count);
+            }
+        }
+    }
+
+
+    @Test
+    public void cacheConfigurations() throws Exception
+    {
+        try (TestProject project = TestProject.create("examples/antlr4/Java"))
+        {
+            Path source = Paths.get(project.grammars()[0]);
+
+            // the same grammar generated for two configurations
+            for (String configuration : new String[] { "k8-fastbuild", "k8-opt" })
+            {
+                Path grammar = Files.createDirectories(project.resolve(
+                            "bazel-out/" + configuration + "/bin/src")).resolve("Hello.g4");
+                Files.copy(source, grammar);
+                Files.deleteIfExists(project.srcjar());
+
+                AntlrRules.create(project.root())
+                    .srcjar(project.srcjar().toString())
+                    .version("4")
+                    .classpath(classpath())
+                    .outputDirectory(project.outputDirectory().toString())
+                    .encoding("UTF-8")
+                    .grammars(project.relative(grammar).toString())
+                    .args(project.args())
+                    .cache(project.resolve("cache").toString(), null)
+                    .generate();
+
+                assertTrue(Files.exists(project.srcjar()));
+            }
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(
+                    project.resolve("cache")))
+            {
+                int count = 0;
+
+                for (@SuppressWarnings("unused")
+                    Path entry : entries)
+                {
+                    count++;
+                }
+
+                assertEquals(1, count);
+            }
+        }
+    }
+
+
+    @Test
+    public void companions() throws Exception
+    {
+        try (TestProject project = TestProject.create("examples/antlr4/Java"))
+        {
+            Path sample = Files.write(project.resolve("sample.txt"),
+                    "hello world".getBytes(StandardCharsets.UTF_8));
+            String runtime = classpath()[1];
+
+            AntlrRules.create(project.root())
+                .srcjar(project.srcjar().toString())
+                .version("4")
+                .classpath(classpath())
+                .outputDirectory(project.outputDirectory().toString())
+                .encoding("UTF-8")
+                .grammars(project.grammars())
+                .args(project.args())
+                .classjar(project.resolve("Hello.jar").toString())
+                .compileClasspath(runtime)
+                .runtimeClasspath(runtime)
+                .atnResource(true)
+                .dfaCacheLimit("10000")
+                .parserPool(true)
+                .streaming(true)
+                .twoStage("r")
+                .warmup(sample.toString())
+                .generate();
+
+            try (URLClassLoader loader = new URLClassLoader(
+                        new URL[] {
+                            project.resolve("Hello.jar").toUri().toURL(),
+                            Paths.get(runtime).toUri().toURL()
+                        },
+                        null))
+            {
+                Class<?> parser = loader.loadClass("HelloParser");
+                Class<?> dfaCache = loader.loadClass("HelloParserDfaCache");
+                Class<?> pool = loader.loadClass("HelloParserPool");
+
+                assertEquals(0, loader.loadClass("HelloParserWarmUp").getMethod("run")
+                    .invoke(null));
+                assertTrue((Integer) dfaCache.getMethod("states").invoke(null) > 0);
+
+                Function<Object, Object> rule = p -> invoke(p, "rTwoStage");
+                Object tree = pool.getMethod("parse", String.class, Function.class)
+                    .invoke(null, "hello world", rule);
+                assertEquals("helloworld", invoke(tree, "getText"));
+                assertEquals(1L,
+                    parser.getMethod("getTwoStageParses", String.class).invoke(null, "r"));
+
+                // a nested parse on the same thread must not reset the outer parser
+                Method parse = pool.getMethod("parse", String.class, Function.class);
+                Object[] nested = new Object[1];
+                Function<Object, Object> reentrant = p ->
+                {
+                    try
+                    {
+                        nested[0] = parse.invoke(null, "hello nested", rule);
+                    }
+                    catch (ReflectiveOperationException ex)
+                    {
+                        throw new IllegalStateException(ex);
+                    }
+
+                    return invoke(p, "rTwoStage");
+                };
+                assertEquals("helloouter",
+                    invoke(parse.invoke(null, "hello outer", reentrant), "getText"));
+                assertEquals("hellonested", invoke(nested[0], "getText"));
+
+                List<?> trees = (List<?>) pool.getMethod("parseAll", List.class,
+                        Function.class)
+                    .invoke(null, Arrays.asList("hello a", "hello b"), rule);
+                assertEquals(2, trees.size());
+
+                // every pooled parse checks the limit
+                dfaCache.getMethod("setLimit", int.class).invoke(null, 1);
+                pool.getMethod("parse", String.class, Function.class)
+                    .invoke(null, "hello world", rule);
+                assertTrue((Long) dfaCache.getMethod("clears").invoke(null) > 0);
+
+                // the start rule context must not keep the streamed tokens
+                int[] terminals = { 0, -1 };
+                Class<?> listener = loader.loadClass(
+                        "org.antlr.v4.runtime.tree.ParseTreeListener");
+                Object counter = Proxy.newProxyInstance(loader,
+                        new Class<?>[] { listener },
+                        (proxy, method, args) ->
+                        {
+                            if (method.getName().equals("visitTerminal"))
+                            {
+                                terminals[0]++;
+                            }
+                            else if (method.getName().equals("exitEveryRule"))
+                            {
+                                terminals[1] = (Integer) invoke(args[0], "getChildCount");
+                            }
+
+                            return null;
+                        });
+
+                assertEquals(0,
+                    loader.loadClass("HelloParserStreaming").getMethod("parse",
+                        InputStream.class,
+                        Charset.class,
+                        listener)
+                    .invoke(null,
+                        new ByteArrayInputStream(
+                            "hello streaming".getBytes(StandardCharsets.UTF_8)),
+                        StandardCharsets.UTF_8,
+                        counter));
+                assertEquals(2, terminals[0]);
+                assertEquals(0, terminals[1]);
+            }
+        }
+    }
+
+
     @Test
     public void detectCppLanguage() throws Exception
     {
@@ -54,6 +388,37 @@ public class Antlr4Test
         }
     }
 
+    @Test
+    public void dfaCacheLimit() throws Exception
+    {
+        try (TestProject project = TestProject.create("examples/antlr4/Java"))
+        {
+            AntlrRules.create(project.root())
+                .srcjar(project.srcjar().toString())
+                .version("4")
+                .classpath(classpath())
+                .outputDirectory(project.outputDirectory().toString())
+                .encoding("UTF-8")
+                .grammars(project.grammars())
+                .args(project.args())
+                .classjar(project.resolve("Hello.jar").toString())
+                .compileClasspath(classpath()[1])
+                .dfaCacheLimit("10000")
+                .parserPool(true)
+                .streaming(true)
+                .generate();
+
+            // the drivers check the limit after every parse
+            project.validate("HelloParser.java",
+                "HelloLexer.java",
+                "HelloParserDfaCache.java",
+                "HelloParserPool.java",
+                "HelloParserStreaming.java");
+            assertTrue(Files.exists(project.resolve("Hello.jar")));
+        }
+    }
+
+
     @Test
     public void inheritLibFolder() throws Exception
     {
@@ -422,6 +787,56 @@ public class Antlr4Test
     }
 
 
+    @Test
+    public void lint() throws Exception
+    {
+        try (TestProject project = TestProject.create("src/it/resources/antlr4/Lint"))
+        {
+            AntlrRules.create(project.root())
+                .srcjar(project.srcjar().toString())
+                .version("4")
+                .classpath(classpath())
+                .outputDirectory(project.outputDirectory().toString())
+                .encoding("UTF-8")
+                .grammars(project.grammars())
+                .args(project.args())
+                .lint("error")
+                .generate();
+
+            fail();
+        }
+        catch (IllegalStateException ex)
+        {
+            String message = ex.getMessage();
+
+            assertTrue(message,
+                message.contains("Lexer rule 'COMMENT' of grammar LintLexer contains a "
+                    + "greedy loop over the wildcard"));
+            assertTrue(message,
+                message.contains("in rule 'statement' of grammar Lint is not LL(1) and 2 "
+                    + "of its alternatives can match input of arbitrary length"));
+            assertTrue(message,
+                message.contains("Rule 'statement' of grammar Lint is invoked repeatedly"));
+        }
+
+        try (TestProject project = TestProject.create("examples/antlr4/Java"))
+        {
+            AntlrRules.create(project.root())
+                .srcjar(project.srcjar().toString())
+                .version("4")
+                .classpath(classpath())
+                .outputDirectory(project.outputDirectory().toString())
+                .encoding("UTF-8")
+                .grammars(project.grammars())
+                .args(project.args())
+                .lint("error")
+                .generate();
+
+            project.validate("HelloParser.java", "HelloLexer.java");
+        }
+    }
+
+
     @Test
     public void log() throws Exception
     {
@@ -659,6 +1074,190 @@ public class Antlr4Test
     }
 
 
+    @Test
+    public void parserPool() throws Exception
+    {
+        try (TestProject project = TestProject.create("examples/antlr4/Java"))
+        {
+            AntlrRules.create(project.root())
+                .srcjar(project.srcjar().toString())
+                .version("4")
+                .classpath(classpath())
+                .outputDirectory(project.outputDirectory().toString())
+                .encoding("UTF-8")
+                .grammars(project.grammars())
+                .args(project.args())
+                .classjar(project.resolve("Hello.jar").toString())
+                .compileClasspath(classpath()[1])
+                .parserPool(true)
+                .generate();
+
+            project.validate("HelloParser.java", "HelloLexer.java", "HelloParserPool.java");
+            assertTrue(Files.exists(project.resolve("Hello.jar")));
+        }
+    }
+
+
+    @Test
+    public void sameNameImports() throws Exception
+    {
+        try (TestProject project = TestProject.create("src/it/resources/antlr4/SameNameImports"))
+        {
+            AntlrRules.create(project.root())
+                .srcjar(project.srcjar().toString())
+                .version("4")
+                .classpath(classpath())
+                .outputDirectory(project.outputDirectory().toString())
+                .encoding("UTF-8")
+                .grammars(project.grammars("Common.g4"))
+                .args(project.args())
+                .generate();
+
+            project.validate("a/AParser.java", "b/BParser.java");
+
+            URI uri = URI.create("jar:file:" + project.srcjar().toUri().getPath());
+
+            try (FileSystem fs = FileSystems.newFileSystem(uri,
+                    new HashMap<String, String>()))
+            {
+                // every grammar must see the import from its own directory
+                assertTrue(new String(Files.readAllBytes(fs.getPath("a/AParser.java")),
+                        StandardCharsets.UTF_8).contains("fromA()"));
+                assertTrue(new String(Files.readAllBytes(fs.getPath("b/BParser.java")),
+                        StandardCharsets.UTF_8).contains("fromB()"));
+            }
+        }
+    }
+
+
+    @Test
+    public void streaming() throws Exception
+    {
+        try (TestProject project = TestProject.create("examples/antlr4/Java"))
+        {
+            AntlrRules.create(project.root())
+                .srcjar(project.srcjar().toString())
+                .version("4")
+                .classpath(classpath())
+                .outputDirectory(project.outputDirectory().toString())
+                .encoding("UTF-8")
+                .grammars(project.grammars())
+                .args(project.args())
+                .classjar(project.resolve("Hello.jar").toString())
+                .compileClasspath(classpath()[1])
+                .streaming(true)
+                .streamingRule("s", "HelloParser=r")
+                .generate();
+
+            project.validate("HelloParser.java", "HelloLexer.java",
+                "HelloParserStreaming.java");
+            assertTrue(Files.exists(project.resolve("Hello.jar")));
+        }
+    }
+
+
+    @Test
+    public void twoStage() throws Exception
+    {
+        try (TestProject project = TestProject.create("examples/antlr4/Java"))
+        {
+            AntlrRules.create(project.root())
+                .srcjar(project.srcjar().toString())
+                .version("4")
+                .classpath(classpath())
+                .outputDirectory(project.outputDirectory().toString())
+                .encoding("UTF-8")
+                .grammars(project.grammars())
+                .args(project.args())
+                .classjar(project.resolve("Hello.jar").toString())
+                .compileClasspath(classpath()[1])
+                .twoStage("r")
+                .generate();
+
+            project.validate("HelloParser.java", "HelloLexer.java");
+            assertTrue(Files.exists(project.resolve("Hello.jar")));
+        }
+    }
+
+
+    @Test
+    public void warmUp() throws Exception
+    {
+        try (TestProject project = TestProject.create("examples/antlr4/Java"))
+        {
+            Path sample = Files.write(project.resolve("sample.txt"),
+                    "hello world".getBytes(StandardCharsets.UTF_8));
+            String runtime = classpath()[1];
+
+            AntlrRules.create(project.root())
+                .srcjar(project.srcjar().toString())
+                .version("4")
+                .classpath(classpath())
+                .outputDirectory(project.outputDirectory().toString())
+                .encoding("UTF-8")
+                .grammars(project.grammars())
+                .args(project.args())
+                .classjar(project.resolve("Hello.jar").toString())
+                .compileClasspath(runtime)
+                .runtimeClasspath(runtime)
+                .warmup(sample.toString())
+                .generate();
+
+            project.validate("HelloParser.java",
+                "HelloLexer.java",
+                "HelloParserWarmUp.java",
+                "HelloParserWarmUp.corpus");
+            assertTrue(Files.exists(project.resolve("Hello.jar")));
+        }
+    }
+
+
+    @Test
+    public void warmUpSyntaxError() throws Exception
+    {
+        try (TestProject project = TestProject.create("examples/antlr4/Java"))
+        {
+            Path sample = Files.write(project.resolve("sample.txt"),
+                    "hello 42".getBytes(StandardCharsets.UTF_8));
+            String runtime = classpath()[1];
+
+            AntlrRules.create(project.root())
+                .srcjar(project.srcjar().toString())
+                .version("4")
+                .classpath(classpath())
+                .outputDirectory(project.outputDirectory().toString())
+                .encoding("UTF-8")
+                .grammars(project.grammars())
+                .args(project.args())
+                .classjar(project.resolve("Hello.jar").toString())
+                .compileClasspath(runtime)
+                .runtimeClasspath(runtime)
+                .warmup(sample.toString())
+                .generate();
+
+            fail();
+        }
+        catch (IllegalStateException ex)
+        {
+            assertEquals("Sample corpus does not match HelloParser: 1 syntax errors",
+                ex.getMessage());
+        }
+    }
+
+
+    private static Object invoke(Object target, String method)
+    {
+        try
+        {
+            return target.getClass().getMethod(method).invoke(target);
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+
     private String[] classpath() throws Exception
     {
         Path root = Paths.get(System.getenv().get("RUNFILES_DIR"));
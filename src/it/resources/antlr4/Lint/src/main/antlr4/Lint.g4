@@ -0,0 +1,7 @@
+grammar Lint;
+file      : statement* EOF ;
+statement : list ';' | list '=' ID ';' | {enabled}? ID '!' ;
+list      : ID (',' ID)* ;
+ID        : [a-z]+ ;
+COMMENT   : '#' .* '\n' -> skip ;
+WS        : [ \t\r\n]+ -> skip ;
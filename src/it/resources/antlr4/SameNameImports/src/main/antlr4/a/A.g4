@@ -0,0 +1,3 @@
+grammar A;
+import Common;
+r : fromA ;
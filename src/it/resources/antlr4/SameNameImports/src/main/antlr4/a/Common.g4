@@ -0,0 +1,4 @@
+grammar Common;
+fromA : 'a' ID ;
+ID : [a-z]+ ;
+WS : [ \t\r\n]+ -> skip ;
@@ -0,0 +1,3 @@
+grammar B;
+import Common;
+r : fromB ;
@@ -0,0 +1,4 @@
+grammar Common;
+fromB : 'b' ID ;
+ID : [a-z]+ ;
+WS : [ \t\r\n]+ -> skip ;
@@ -2,10 +2,13 @@ package org.antlr.bazel;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Reader;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.CopyOption;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
@@ -13,6 +16,7 @@ import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import static java.nio.file.FileVisitResult.CONTINUE;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
@@ -28,7 +32,9 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.TreeMap;
+import java.util.regex.Pattern;
 
 
 /**
@@ -43,22 +49,46 @@ public class AntlrRules
         StandardCopyOption.REPLACE_EXISTING
     };
 
+    /** Matches the configuration specific output root within execution paths. */
+    private static final Pattern OUTPUT_ROOT = Pattern.compile(
+            "bazel-out/[^/]+/(?:bin|genfiles)/");
+
     private String[] args;
+    private boolean atnResource;
+    private boolean atomic;
+    private OutputCache cache;
+    private Path classjar;
     private String[] classpath;
+    private final List<Path> compileClasspath = new ArrayList<>();
+    private int dfaCacheLimit;
     private Charset encoding = Charset.defaultCharset();
     private final FileSystem fs;
     private List<String> grammars;
+    private String hugeMethods = "off";
     private boolean keepImports;
     private Language language;
     private String layout;
+    private String lint = "off";
     private Namespace namespace;
     private Path outputDirectory;
+    private boolean parserPool;
+    private final List<String> javacopts = new ArrayList<>();
     private final Path sandbox;
     private Path srcjar;
     private String target;
+    private final List<String> twoStage = new ArrayList<>();
     private Version version;
+    private final List<Path> runtimeClasspath = new ArrayList<>();
+    private final List<Path> warmup = new ArrayList<>();
+    private final Map<String, List<Path>> warmupCorpora = new TreeMap<>();
+    private String warmupRule;
+    private final Map<String, String> warmupRules = new TreeMap<>();
     private Output output;
     private boolean split = true;
+    private boolean streaming;
+    private String streamingRule;
+    private final Map<String, String> streamingRules = new TreeMap<>();
+    private final List<String> warnings = new ArrayList<>();
 
     /**
      * Creates a new AntlrRules object.
@@ -84,19 +114,15 @@ public class AntlrRules
         // the command-line arguments to ANTLR
         Map<String, String> env = System.getenv();
 
-        AntlrRules.create()
-            .srcjar(env.get("SRC_JAR"))
-            .version(env.get("ANTLR_VERSION"))
-            .classpath(env.get("TOOL_CLASSPATH").split(","))
-            .outputDirectory(env.get("OUTPUT_DIRECTORY"))
-            .encoding(env.get("ENCODING"))
-            .grammars(env.get("GRAMMARS").split(","))
-            .namespace(env.get("PACKAGE_NAME"))
-            .language(env.get("TARGET_LANGUAGE"))
-            .layout(env.get("DIRECTORY_LAYOUT"))
-            .target(env.get("TARGET"))
-            .args(args)
-            .generate();
+        // several targets might be batched into a single invocation
+        if (env.containsKey("MANIFEST"))
+        {
+            generate(Paths.get(".").toRealPath(), Paths.get(env.get("MANIFEST")));
+        }
+        else
+        {
+            AntlrRules.create().configure(env).args(args).generate();
+        }
     }
 
 
@@ -106,6 +132,61 @@ public class AntlrRules
     }
 
 
+    /**
+     * Generates the files for all targets of the given manifest. The manifest is a
+     * properties file that lists the target names as comma-separated {@code targets}
+     * entry and the configuration of each target with the target name as key prefix. The
+     * tool arguments of a target are provided line by line by the {@code ARGS} entry. If
+     * the {@code metrics} entry is {@code true}, the class loader pool metrics are printed
+     * once all targets are generated.
+     *
+     * @param   root      the root directory.
+     * @param   manifest  the manifest file.
+     *
+     * @throws  Exception  if an error occurred.
+     */
+    static void generate(Path root, Path manifest) throws Exception
+    {
+        Properties properties = new Properties();
+
+        try (Reader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8))
+        {
+            properties.load(reader);
+        }
+
+        for (String target : properties.getProperty("targets", "").split(","))
+        {
+            if (target.isEmpty())
+            {
+                continue;
+            }
+
+            String prefix = target + ".";
+            Map<String, String> config = new HashMap<>();
+
+            for (String key : properties.stringPropertyNames())
+            {
+                if (key.startsWith(prefix))
+                {
+                    config.put(key.substring(prefix.length()), properties.getProperty(key));
+                }
+            }
+
+            String arguments = config.getOrDefault("ARGS", "");
+
+            AntlrRules.create(root)
+                .configure(config)
+                .args(arguments.isEmpty() ? new String[0] : arguments.split("\n"))
+                .generate();
+        }
+
+        if (Boolean.parseBoolean(properties.getProperty("metrics")))
+        {
+            System.err.println("ANTLR class loader pool: " + ClassLoaderPool.shared().metrics());
+        }
+    }
+
+
     AntlrRules args(String[] args)
     {
         this.args = args;
@@ -116,257 +197,238 @@ public class AntlrRules
     }
 
 
-    AntlrRules classpath(String... classpath)
+    /**
+     * Enables the extraction of the serialized ATN into class resources.
+     *
+     * @param   atnResource  if {@code true} the ATN is extracted.
+     *
+     * @return  this object.
+     */
+    AntlrRules atnResource(boolean atnResource)
     {
-        this.classpath = classpath;
+        this.atnResource = atnResource;
 
         return this;
     }
 
 
-    AntlrRules encoding(String encoding)
+    AntlrRules atomic(boolean atomic)
     {
-        this.encoding = encoding.isEmpty() ? Charset.defaultCharset()
-                                           : Charset.forName(encoding);
+        this.atomic = atomic;
 
         return this;
     }
 
 
-    void generate() throws Exception
+    /**
+     * Enables the output cache.
+     *
+     * @param   directory  the cache directory. Disables the cache if {@code null} or
+     *                     empty.
+     * @param   size       the maximal cache size in megabytes. Uses the default size if
+     *                     {@code null} or empty.
+     *
+     * @return  this object.
+     */
+    AntlrRules cache(String directory, String size)
     {
-        expandSrcJarImports();
+        this.cache = ((directory == null) || directory.isEmpty())
+            ? null
+            : new OutputCache(sandbox.resolve(directory),
+                ((size == null) || size.isEmpty()) ? OutputCache.DEFAULT_SIZE
+                                                   : Long.parseLong(size) * 1024 * 1024);
 
-        Map<Namespace, Collection<Grammar>> namespaces = groupByNamespace(grammars);
-
-        // use reflection so we are not tied to a specific ANTLR version
-        try (URLClassLoader loader = classloader(classpath))
-        {
-            switch (version)
-            {
-                case V2 :
-                {
-                    List<String> arguments = new ArrayList<>(Arrays.asList(args));
-
-                    // ANTLR 2 does only accept a single grammar per invocation
-                    for (String grammar : grammars)
-                    {
-                        arguments.add(grammar);
-                        supergrammars(arguments);
+        return this;
+    }
 
-                        antlr2(loader, arguments.toArray(new String[arguments.size()]));
 
-                        arguments.remove(arguments.size() - 1);
-                    }
+    /**
+     * Enables compilation of the generated Java sources.
+     *
+     * @param   jar  the class jar to create. Disables compilation if {@code null} or
+     *               empty.
+     *
+     * @return  this object.
+     */
+    AntlrRules classjar(String jar)
+    {
+        this.classjar = ((jar == null) || jar.isEmpty()) ? null : sandbox.resolve(jar);
 
-                    break;
-                }
+        return this;
+    }
 
-                case V3 :
-                {
-                    antlr3(loader, new Arguments(args).build(grammars));
 
-                    break;
-                }
+    AntlrRules classpath(String... classpath)
+    {
+        this.classpath = classpath;
 
-                case V4 :
-                {
-                    Arguments arguments = new Arguments(args);
+        return this;
+    }
 
-                    for (Map.Entry<Namespace, Collection<Grammar>> e
-                        : namespaces.entrySet())
-                    {
-                        antlr4(loader,
-                            arguments.log,
-                            arguments.build(e.getKey(), e.getValue()));
-                    }
 
-                    break;
-                }
-            }
-        }
+    /**
+     * Applies the given configuration.
+     *
+     * @param   config  the configuration values by environment variable name.
+     *
+     * @return  this object.
+     */
+    AntlrRules configure(Map<String, String> config)
+    {
+        return srcjar(config.get("SRC_JAR"))
+            .version(config.get("ANTLR_VERSION"))
+            .classpath(config.get("TOOL_CLASSPATH").split(","))
+            .outputDirectory(config.get("OUTPUT_DIRECTORY"))
+            .encoding(config.get("ENCODING"))
+            .grammars(config.get("GRAMMARS").split(","))
+            .namespace(config.get("PACKAGE_NAME"))
+            .language(config.get("TARGET_LANGUAGE"))
+            .layout(config.get("DIRECTORY_LAYOUT"))
+            .target(config.get("TARGET"))
+            .atomic(Boolean.parseBoolean(config.get("ATOMIC_OUTPUT")))
+            .atnResource(Boolean.parseBoolean(config.get("ATN_RESOURCE")))
+            .cache(config.get("ANTLR_CACHE_DIR"), config.get("ANTLR_CACHE_SIZE"))
+            .classjar(config.get("CLASS_JAR"))
+            .compileClasspath(config.getOrDefault("COMPILE_CLASSPATH", "").split(","))
+            .javacopts(config.getOrDefault("JAVAC_OPTS", "").split("\n"))
+            .warmup(config.getOrDefault("WARMUP_CORPUS", "").split(","))
+            .warmupRule(config.getOrDefault("WARMUP_RULE", "").split(","))
+            .hugeMethods(config.get("HUGE_METHODS"))
+            .lint(config.get("LINT"))
+            .parserPool(Boolean.parseBoolean(config.get("PARSER_POOL")))
+            .dfaCacheLimit(config.get("DFA_CACHE_LIMIT"))
+            .twoStage(config.getOrDefault("TWO_STAGE_RULES", "").split(","))
+            .streaming(Boolean.parseBoolean(config.get("STREAMING")))
+            .streamingRule(config.getOrDefault("STREAMING_RULE", "").split(","))
+            .runtimeClasspath(config.getOrDefault("RUNTIME_CLASSPATH", "").split(","));
+    }
 
-        Map<String, Grammar> names = grammarNames(namespaces);
 
-        switch (output)
+    AntlrRules compileClasspath(String... classpath)
+    {
+        for (String entry : classpath)
         {
-            case FOLDER:
+            if (!entry.isEmpty())
             {
-                Files.createDirectories(outputDirectory);
-                Path other = Files.createDirectories(
-                        outputDirectory
-                            .getParent()
-                            .resolve(target + ".antlr"));
-                Path headers = Files.createDirectories(
-                        outputDirectory
-                            .getParent()
-                            .resolve(target + ".inc"));
-                Path includes = Files.createDirectories(
-                        outputDirectory
-                            .getParent()
-                            .resolve(target + ".inc"));
-                Files.createDirectories(includes);
-
-                List<String> files = new ArrayList<>();
-
-                try (DirectoryStream<Path> entries = Files.newDirectoryStream(outputDirectory))
-                {
-                    PathMatcher expanded = outputDirectory.getFileSystem()
-                        .getPathMatcher("glob:**/expanded*.g");
-                    PathMatcher csources = outputDirectory.getFileSystem()
-                        .getPathMatcher("glob:**.{c,cc,cpp,cxx,c++,C,m,mm}");
-                    PathMatcher cheaders = outputDirectory.getFileSystem()
-                        .getPathMatcher("glob:**.{h,hh,hpp,hxx,h++,inc,inl,ipp,pch,tlh,tli,H}");
-                    PathMatcher gosources = outputDirectory.getFileSystem()
-                        .getPathMatcher("glob:**.{go}");
-
-                    for (Path entry : entries)
-                    {
-                        // for extended grammars ANTLR 2 creates a new grammar file that
-                        // merges the two grammars and must be ignored
-                        if (expanded.matches(entry))
-                        {
-                            Files.delete(entry);
-
-                            continue;
-                        }
-
-                        String fileName = entry.getFileName().toString();
-
-                        if (fileName.endsWith(".log"))
-                        {
-                            Files.move(entry, other.resolve(entry.getFileName()));
+                compileClasspath.add(sandbox.resolve(entry));
+            }
+        }
 
-                            continue;
-                        }
+        return this;
+    }
 
-                        Grammar grammar = findGrammar(entry, names);
 
-                        // indicates imported file that should not be kept
-                        if (grammar == null)
-                        {
-                            Files.delete(entry);
+    /**
+     * Enables the generation of DFA cache companions for the generated parsers.
+     *
+     * @param   limit  the default limit for the number of DFA states. Disabled if
+     *                 {@code null}, empty or zero.
+     *
+     * @return  this object.
+     */
+    AntlrRules dfaCacheLimit(String limit)
+    {
+        int value = ((limit == null) || limit.isEmpty()) ? 0 : Integer.parseInt(limit);
 
-                            continue;
-                        }
+        if (value < 0)
+        {
+            throw new IllegalArgumentException("Invalid DFA cache limit: " + limit);
+        }
 
-                        if (language != null)
-                        switch (language)
-                        {
-                            case C :
-                            case CPP :
-                            case OBJC:
-                            {
-                                if (cheaders.matches(entry))
-                                {
-                                    if (split)
-                                    {
-                                        Path target = headers.resolve(
-                                                grammar.getNamespacePath().toString())
-                                                .resolve(entry.getFileName());
-                                        Files.createDirectories(target.getParent());
-                                        Files.move(entry, target);
-                                        continue;
-                                    }
-                                }
-                                else if (!csources.matches(entry))
-                                {
-                                    Files.move(entry, other.resolve(entry.getFileName()));
+        this.dfaCacheLimit = value;
 
-                                    continue;
-                                }
+        return this;
+    }
 
-                                break;
-                            }
 
-                            case GO:
-                            {
-                                if (!gosources.matches(entry))
-                                {
-                                    Files.move(entry, other.resolve(entry.getFileName()));
+    AntlrRules encoding(String encoding)
+    {
+        this.encoding = encoding.isEmpty() ? Charset.defaultCharset()
+                                           : Charset.forName(encoding);
 
-                                    continue;
-                                }
+        return this;
+    }
 
-                                break;
-                            }
-                        }
 
-                        // source files should be stored below their corresponding
-                        // package/namespace
-                        Path target = outputDirectory.resolve(
-                                grammar.getNamespacePath().toString())
-                                .resolve(entry.getFileName());
+    void generate() throws Exception
+    {
+        String key = null;
 
-                        files.add(outputDirectory.relativize(target).toString());
+        if (cache != null)
+        {
+            key = key();
 
-                        if (!target.equals(entry))
-                        {
-                            Files.createDirectories(target.getParent());
-                            Files.move(entry, target);
-                        }
-                    }
-                }
-                break;
-            }
+            List<String> cached = cache.restore(key, outputs());
 
-            case SRCJAR:
+            if (cached != null)
             {
-                URI uri = URI.create("jar:file:" + srcjar.toUri().getPath());
-                Map<String, String> env = new HashMap<>();
-                env.put("create", "true");
-
-                try (FileSystem archive = FileSystems.newFileSystem(uri, env))
+                // the checks are not repeated, but their warnings are
+                for (String warning : cached)
                 {
-                    Path root = archive.getPath("/");
+                    warn(warning);
+                }
 
-                    Files.walkFileTree(outputDirectory, new SimpleFileVisitor<Path>()
-                        {
-                            @Override
-                            public FileVisitResult visitFile(Path file, BasicFileAttributes attr)
-                                throws IOException
-                            {
-                                String filename = file.getFileName().toString();
+                return;
+            }
+        }
 
-                                if (filename.endsWith(".srcjar"))
-                                {
-                                    return CONTINUE;
-                                }
+        if (atomic)
+        {
+            if (output != Output.FOLDER)
+            {
+                throw new IllegalStateException(
+                    "Atomic output requires a target language that produces directories");
+            }
 
-                                if (filename.startsWith("expanded"))
-                                {
-                                    return CONTINUE;
-                                }
+            Path published = outputDirectory;
 
-                                Path target = root.resolve(
-                                    outputDirectory.relativize(file).toString());
+            // let ANTLR write into a staging area that is published as a whole to
+            // avoid partial output on failure
+            try (Staging staging = new Staging(published.getParent(), target + ".staging"))
+            {
+                outputDirectory = Files.createDirectories(staging.resolve(published));
+                redirect(published, outputDirectory);
+                process();
+                staging.publish();
+            }
+            finally
+            {
+                outputDirectory = published;
+            }
+        }
+        else
+        {
+            process();
+        }
 
-                                if (!filename.endsWith(".log"))
-                                {
-                                    Grammar grammar = findGrammar(file, names);
+        WarmUp warmUp = postProcess();
 
-                                    // indicates imported file that does not belong in the .srcjar
-                                    if (grammar == null)
-                                    {
-                                        return CONTINUE;
-                                    }
+        if (classjar != null)
+        {
+            if (output != Output.SRCJAR)
+            {
+                throw new IllegalStateException("Only Java sources can be compiled");
+            }
 
-                                    // source files should be stored below their corresponding
-                                    // package/namespace
-                                    target = root.resolve(grammar.getNamespacePath().toString())
-                                        .resolve(target.getFileName());
-                                }
+            new Compilation(encoding).classpath(compileClasspath)
+                .options(javacopts)
+                .compile(srcjar, classjar);
 
-                                Files.createDirectories(target.getParent());
-                                Files.copy(file, target, COPY_OPTIONS);
+            if (warmUp != null)
+            {
+                warmUp.verify(classjar, runtimeClasspath);
+            }
 
-                                return CONTINUE;
-                            }
-                        });
-                }
-                break;
+            if (!hugeMethods.equals("off"))
+            {
+                checkMethodSizes();
             }
         }
+
+        if (key != null)
+        {
+            cache.store(key, outputs(), warnings);
+        }
     }
 
 
@@ -383,18 +445,78 @@ public class AntlrRules
     }
 
 
-    AntlrRules language(String language)
+    /**
+     * Sets how to handle compiled methods that are too large to be JIT-compiled.
+     *
+     * @param   mode  either off, warn or error. Defaults to off if {@code null} or
+     *                empty.
+     *
+     * @return  this object.
+     */
+    AntlrRules hugeMethods(String mode)
     {
-        this.language = language.isEmpty() ? null : Language.of(language);
+        String value = ((mode == null) || mode.isEmpty()) ? "off" : mode.toLowerCase();
+
+        if (!value.matches("off|warn|error"))
+        {
+            throw new IllegalArgumentException("Invalid huge methods mode: " + mode);
+        }
+
+        this.hugeMethods = value;
 
         return this;
     }
 
 
-    AntlrRules layout(String layout)
+    AntlrRules javacopts(String... options)
     {
-        this.layout = layout.isEmpty() ? null : layout;
-
+        for (String option : options)
+        {
+            if (!option.isEmpty())
+            {
+                javacopts.add(option);
+            }
+        }
+
+        return this;
+    }
+
+
+    AntlrRules language(String language)
+    {
+        this.language = language.isEmpty() ? null : Language.of(language);
+
+        return this;
+    }
+
+
+    AntlrRules layout(String layout)
+    {
+        this.layout = layout.isEmpty() ? null : layout;
+
+        return this;
+    }
+
+
+    /**
+     * Sets how to handle grammar constructs that are likely expensive at parse time.
+     *
+     * @param   mode  either off, warn or error. Defaults to off if {@code null} or
+     *                empty.
+     *
+     * @return  this object.
+     */
+    AntlrRules lint(String mode)
+    {
+        String value = ((mode == null) || mode.isEmpty()) ? "off" : mode.toLowerCase();
+
+        if (!value.matches("off|warn|error"))
+        {
+            throw new IllegalArgumentException("Invalid lint mode: " + mode);
+        }
+
+        this.lint = value;
+
         return this;
     }
 
@@ -415,6 +537,35 @@ public class AntlrRules
     }
 
 
+    /**
+     * Enables the generation of pooled drivers for the generated parsers.
+     *
+     * @param   enabled  if {@code true} a driver is generated for every parser.
+     *
+     * @return  this object.
+     */
+    AntlrRules parserPool(boolean enabled)
+    {
+        this.parserPool = enabled;
+
+        return this;
+    }
+
+
+    AntlrRules runtimeClasspath(String... classpath)
+    {
+        for (String entry : classpath)
+        {
+            if (!entry.isEmpty())
+            {
+                runtimeClasspath.add(sandbox.resolve(entry));
+            }
+        }
+
+        return this;
+    }
+
+
     AntlrRules srcjar(String srcjar)
     {
         this.srcjar = sandbox.resolve(srcjar);
@@ -424,6 +575,65 @@ public class AntlrRules
     }
 
 
+    /**
+     * Enables the generation of streaming drivers for the generated parsers.
+     *
+     * @param   enabled  if {@code true} a driver is generated for every parser.
+     *
+     * @return  this object.
+     */
+    AntlrRules streaming(boolean enabled)
+    {
+        this.streaming = enabled;
+
+        return this;
+    }
+
+
+    /**
+     * Sets the start rules of the streaming drivers.
+     *
+     * @param   rules  the start rules. Either {@code <Parser>=<rule>} to set the rule of a
+     *                 single parser or just {@code <rule>} to set the rule of all other
+     *                 parsers. Parsers without a rule use the first rule of their grammar.
+     *
+     * @return  this object.
+     *
+     * @throws  IllegalArgumentException  if a parser is given more than one rule.
+     */
+    AntlrRules streamingRule(String... rules)
+    {
+        for (String rule : rules)
+        {
+            if (rule.isEmpty())
+            {
+                continue;
+            }
+
+            String[] keyed = Companions.keyed(rule);
+
+            if (keyed[0] == null)
+            {
+                if (streamingRule != null)
+                {
+                    throw new IllegalArgumentException(
+                        "More than one default streaming rule: " + streamingRule + ", "
+                        + rule);
+                }
+
+                streamingRule = rule;
+            }
+            else if (streamingRules.put(keyed[0], keyed[1]) != null)
+            {
+                throw new IllegalArgumentException(
+                    "More than one streaming rule for " + keyed[0]);
+            }
+        }
+
+        return this;
+    }
+
+
     AntlrRules target(String target)
     {
         if (target == null) throw new NullPointerException("target must not be null");
@@ -434,6 +644,27 @@ public class AntlrRules
     }
 
 
+    /**
+     * Enables the generation of two-stage parse methods.
+     *
+     * @param   rules  the start rules to generate the methods for.
+     *
+     * @return  this object.
+     */
+    AntlrRules twoStage(String... rules)
+    {
+        for (String rule : rules)
+        {
+            if (!rule.isEmpty())
+            {
+                twoStage.add(rule);
+            }
+        }
+
+        return this;
+    }
+
+
     AntlrRules version(String version)
     {
         this.version = Version.of(version);
@@ -442,6 +673,84 @@ public class AntlrRules
     }
 
 
+    /**
+     * Enables the generation of warm-up companions for the generated parsers.
+     *
+     * @param   corpus  the sample files to parse. Either {@code <Parser>=<file>} to add
+     *                  a sample for a single parser or just {@code <file>} if the target
+     *                  has only one parser.
+     *
+     * @return  this object.
+     */
+    AntlrRules warmup(String... corpus)
+    {
+        for (String sample : corpus)
+        {
+            if (sample.isEmpty())
+            {
+                continue;
+            }
+
+            String[] keyed = Companions.keyed(sample);
+
+            if (keyed[0] == null)
+            {
+                warmup.add(sandbox.resolve(sample));
+            }
+            else
+            {
+                warmupCorpora.computeIfAbsent(keyed[0], parser -> new ArrayList<>()).add(
+                    sandbox.resolve(keyed[1]));
+            }
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Sets the start rules the warm-up corpus is parsed with.
+     *
+     * @param   rules  the start rules. Either {@code <Parser>=<rule>} to set the rule of a
+     *                 single parser or just {@code <rule>} if the target has only one
+     *                 parser. Parsers without a rule use the first rule of their grammar.
+     *
+     * @return  this object.
+     *
+     * @throws  IllegalArgumentException  if a parser is given more than one rule.
+     */
+    AntlrRules warmupRule(String... rules)
+    {
+        for (String rule : rules)
+        {
+            if (rule.isEmpty())
+            {
+                continue;
+            }
+
+            String[] keyed = Companions.keyed(rule);
+
+            if (keyed[0] == null)
+            {
+                if (warmupRule != null)
+                {
+                    throw new IllegalArgumentException(
+                        "More than one default warm-up rule: " + warmupRule + ", " + rule);
+                }
+
+                warmupRule = rule;
+            }
+            else if (warmupRules.put(keyed[0], keyed[1]) != null)
+            {
+                throw new IllegalArgumentException("More than one warm-up rule for "
+                    + keyed[0]);
+            }
+        }
+
+        return this;
+    }
+
+
     private static AntlrRules create() throws IOException
     {
         return new AntlrRules(Paths.get(".").toRealPath());
@@ -450,239 +759,788 @@ public class AntlrRules
 
     private void antlr2(URLClassLoader loader, String[] args) throws Exception
     {
-        Class<?> $Tool = loader.loadClass("antlr.Tool");
-
-        $Tool.getDeclaredMethod("doEverything", String[].class)
-            .invoke($Tool.getDeclaredConstructor().newInstance(), new Object[] { args });
+        ToolAdapter.v2(loader).process(args);
     }
 
 
     private void antlr3(URLClassLoader loader, String[] args) throws Exception
     {
-        Class<?> $Tool = loader.loadClass("org.antlr.Tool");
-        Class<?> $ErrorManager = loader.loadClass("org.antlr.tool.ErrorManager");
+        int errors = ToolAdapter.v3(loader).process(args);
+
+        if (errors > 0)
+        {
+            throw new IllegalStateException(
+                String.format("ANTLR terminated with %s error%s",
+                    errors,
+                    (errors == 1) ? "" : "s"));
+        }
+    }
+
+
+    /**
+     * Processes the given grammars with ANTLR 4. The tool is only created once and then
+     * used for all namespace groups to avoid loading the message and code generation
+     * templates over and over again.
+     *
+     * @param   loader      the class loader to use.
+     * @param   arguments   the tool arguments.
+     * @param   namespaces  the grammars grouped by namespace.
+     *
+     * @throws  Exception  if an error occurred.
+     */
+    private void antlr4(URLClassLoader loader,
+        Arguments arguments,
+        Map<Namespace, Collection<Grammar>> namespaces) throws Exception
+    {
+        ToolAdapter.V4 adapter = ToolAdapter.v4(loader);
+        Object tool = adapter.create(arguments.build());
+        List<String> findings = new ArrayList<>();
+
+        try
+        {
+            for (Map.Entry<Namespace, Collection<Grammar>> e : namespaces.entrySet())
+            {
+                if (!arguments.packageAttribute)
+                {
+                    adapter.setPackage(tool,
+                        arguments.packageName(e.getKey(), e.getValue()));
+                }
+
+                // neither the error state nor the imports must leak into the next group
+                adapter.reset(tool);
+                adapter.process(tool, arguments.paths(e.getValue()));
+
+                int errors = adapter.getNumErrors(tool);
+
+                if (errors > 0)
+                {
+                    throw new IllegalStateException(
+                        String.format("ANTLR terminated with %s error%s",
+                            errors,
+                            (errors == 1) ? "" : "s"));
+                }
+
+                if (!lint.equals("off"))
+                {
+                    // the tool does not keep the processed grammars, so load them again
+                    for (String grammar : arguments.paths(e.getValue()))
+                    {
+                        findings.addAll(GrammarLint.check(adapter.loadGrammar(tool, grammar)));
+                    }
+                }
+            }
+
+            reportLint(findings);
+        }
+        finally
+        {
+            if (arguments.log)
+            {
+                Path logFile = fs.getPath(adapter.saveLog(tool)).toRealPath();
+                Files.copy(logFile, outputDirectory.resolve(logFile.getFileName()));
+                Files.delete(logFile);
+            }
+        }
+    }
+
+
+    private void checkMethodSizes() throws IOException
+    {
+        List<String> methods = HugeMethods.find(classjar, srcjar, encoding);
+
+        if (methods.isEmpty())
+        {
+            return;
+        }
+
+        if (hugeMethods.equals("error"))
+        {
+            throw new IllegalStateException(String.join(System.lineSeparator(), methods));
+        }
+
+        for (String method : methods)
+        {
+            warn(method);
+        }
+    }
+
+
+    private void expandSrcJarImports() throws IOException
+    {
+        for (int i = 0; i < args.length; i++)
+        {
+            // ANTLR can't handle imports in an archive. We therefore expand it and alter
+            // the lib path accordingly
+            if (args[i].equals("-lib") && args[i + 1].endsWith(".srcjar"))
+            {
+                Path srcjar = sandbox.resolve(args[i + 1]);
+                URI uri = URI.create("jar:file:" + srcjar.toUri().getPath());
+
+                try (FileSystem fs = FileSystems.newFileSystem(uri, new HashMap<String, String>()))
+                {
+                    Path root = fs.getPath("/");
+                    Path target = sandbox.resolve(this.target + ".imports");
+
+                    Files.createDirectories(target);
+                    Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+                    {
+                        @Override
+                        public FileVisitResult preVisitDirectory(Path dir,
+                            BasicFileAttributes attrs) throws IOException
+                        {
+                            Files.createDirectories(target.resolve(root.relativize(dir).toString()));
+
+                            return FileVisitResult.CONTINUE;
+                        }
+
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                            throws IOException
+                        {
+                            Files.copy(file, target.resolve(file.getFileName().toString()), COPY_OPTIONS);
+
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+
+                    args[i + 1] = sandbox.relativize(target).toString();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Runs the configured post-processing steps on the generated Java sources. All steps
+     * rewrite the srcjar, which is therefore only opened once for the whole chain.
+     *
+     * @return  the warm-up to verify after compilation or {@code null} if there is none.
+     *
+     * @throws  IOException  if an I/O error occurred.
+     */
+    private WarmUp postProcess() throws IOException
+    {
+        boolean warm = !(warmup.isEmpty() && warmupCorpora.isEmpty());
+
+        if (atnResource)
+        {
+            requireSrcjar("ATN resources");
+        }
+
+        if (!twoStage.isEmpty())
+        {
+            requireSrcjar("two-stage parsing");
+        }
+
+        if (warm && (classjar == null))
+        {
+            throw new IllegalStateException("Warming up requires compilation");
+        }
+
+        if (parserPool)
+        {
+            requireSrcjar("parser pools");
+        }
+
+        if (dfaCacheLimit > 0)
+        {
+            requireSrcjar("DFA cache limits");
+        }
+
+        if (streaming)
+        {
+            requireSrcjar("streaming drivers");
+        }
+
+        if (!(atnResource || !twoStage.isEmpty() || warm || parserPool
+                || (dfaCacheLimit > 0) || streaming))
+        {
+            return null;
+        }
+
+        URI uri = URI.create("jar:file:" + srcjar.toUri().getPath());
+
+        try (FileSystem archive = FileSystems.newFileSystem(uri,
+                new HashMap<String, String>()))
+        {
+            Path root = archive.getPath("/");
+            WarmUp warmUp = null;
+
+            if (atnResource)
+            {
+                AtnResources.extract(root, encoding);
+            }
+
+            if (!twoStage.isEmpty())
+            {
+                TwoStage.generate(root, encoding, twoStage);
+            }
+
+            if (warm)
+            {
+                warmUp = new WarmUp(warmup, warmupCorpora, warmupRule, warmupRules);
+                warmUp.generate(root, encoding);
+            }
+
+            if (parserPool)
+            {
+                ParserPool.generate(root, encoding, dfaCacheLimit > 0);
+            }
+
+            if (dfaCacheLimit > 0)
+            {
+                DfaCache.generate(root, encoding, dfaCacheLimit);
+            }
+
+            if (streaming)
+            {
+                Streaming.generate(root,
+                    encoding,
+                    streamingRule,
+                    streamingRules,
+                    dfaCacheLimit > 0);
+            }
+
+            return warmUp;
+        }
+    }
+
+
+    private void reportLint(List<String> findings)
+    {
+        if (findings.isEmpty())
+        {
+            return;
+        }
+
+        if (lint.equals("error"))
+        {
+            throw new IllegalStateException(String.join(System.lineSeparator(), findings));
+        }
+
+        for (String finding : findings)
+        {
+            warn(finding);
+        }
+    }
+
+
+    private void requireSrcjar(String feature)
+    {
+        if (output != Output.SRCJAR)
+        {
+            throw new IllegalStateException("Only Java sources support " + feature);
+        }
+    }
+
+
+    /**
+     * Reports the given warning and remembers it for the cache entry.
+     *
+     * @param  warning  the warning.
+     */
+    private void warn(String warning)
+    {
+        warnings.add(warning);
+        System.err.println("warning: " + warning);
+    }
+
+
+    /**
+     * Finds the grammar that corresponds to the given generated file.
+     *
+     * @param   file      the generated source file.
+     * @param   grammars  the processed grammars.
+     *
+     * @return  the corresponding grammar.
+     */
+    private Grammar findGrammar(Path file, Map<String, Grammar> grammars)
+    {
+        for (Map.Entry<String, Grammar> e : grammars.entrySet())
+        {
+            String fileName = file.getFileName().toString();
+            String grammarName = e.getKey();
+
+            if (fileName.startsWith(e.getKey())
+                // the Go target uses lower underscore, but not consistently
+                || fileName.startsWith(CaseFormat.toLowerUnderscore(grammarName))
+                || fileName.startsWith(grammarName.toLowerCase()))
+            {
+                return e.getValue();
+            }
+
+            // ANTLR 2 does not enforce casing for grammars
+            if ((version == Version.V2)
+                && fileName.toLowerCase().startsWith(e.getKey().toLowerCase()))
+            {
+                return e.getValue();
+            }
+        }
+
+        throw new IllegalStateException(
+            "Could not find matching grammar for " + file.getFileName());
+    }
+
+
+    /**
+     * Runs ANTLR for all grammars.
+     *
+     * @param   loader      the class loader that provides the tool.
+     * @param   namespaces  the grammars grouped by namespace.
+     *
+     * @throws  Exception  if an error occurred.
+     */
+    private void generate(URLClassLoader loader,
+        Map<Namespace, Collection<Grammar>> namespaces) throws Exception
+    {
+        switch (version)
+        {
+            case V2 :
+            {
+                List<String> arguments = new ArrayList<>(Arrays.asList(args));
+
+                // ANTLR 2 does only accept a single grammar per invocation
+                for (String grammar : grammars)
+                {
+                    arguments.add(grammar);
+                    supergrammars(arguments);
+
+                    antlr2(loader, arguments.toArray(new String[arguments.size()]));
+
+                    arguments.remove(arguments.size() - 1);
+                }
+
+                break;
+            }
+
+            case V3 :
+            {
+                antlr3(loader, new Arguments(args).build(grammars));
+
+                break;
+            }
+
+            case V4 :
+            {
+                antlr4(loader, new Arguments(args), namespaces);
+
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * Creates mappings of the possible grammar output file names sorted from longest name
+     * to shortest name to their corresponding grammars.
+     *
+     * @param   namespaces  the grammars grouped by namespaces.
+     *
+     * @return  the sorted map.
+     */
+    private Map<String, Grammar> grammarNames(
+        Map<Namespace, Collection<Grammar>> namespaces)
+    {
+        Map<String, Grammar> result = new TreeMap<>(new LengthComparator());
+
+        for (Collection<Grammar> grammars : namespaces.values())
+        {
+            for (Grammar grammar : grammars)
+            {
+                for (String name : grammar.names)
+                {
+                    result.put(name, grammar);
+                }
+
+                for (String name : grammar.imports)
+                {
+                    result.put(name, keepImports ? grammar : null);
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    private Map<Namespace, Collection<Grammar>> groupByNamespace(
+        Collection<String> grammars) throws IOException
+    {
+        Map<Namespace, Collection<Grammar>> result = new LinkedHashMap<>();
+
+        for (String path : grammars)
+        {
+            Grammar grammar = new Grammar(version,
+                fs.getPath(path),
+                language,
+                namespace,
+                encoding,
+                layout);
+
+            List<Grammar> files = (List<Grammar>) result.get(grammar.namespace);
+
+            if (files == null)
+            {
+                files = new ArrayList<>();
+                result.put(grammar.namespace, files);
+            }
+
+            files.add(grammar);
+
+            // enforce order to avoid problems with imported grammars
+            Collections.sort(files);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Computes the output cache key from everything that influences code generation.
+     *
+     * @return  the cache key.
+     *
+     * @throws  IOException  if an I/O error occurred.
+     */
+    private String key() throws IOException
+    {
+        OutputCache.Digest digest = cache.digest()
+            .string(version.name())
+            .string(String.valueOf(language))
+            .string(String.valueOf(namespace))
+            .string(String.valueOf(layout))
+            .string(encoding.name())
+            .string(output.name())
+            .string(String.valueOf(split))
+            .string(String.valueOf(classjar != null))
+            .string(String.valueOf(atnResource))
+            .string(String.valueOf(parserPool))
+            .string(String.valueOf(dfaCacheLimit))
+            .string(twoStage.toString())
+            .string(String.valueOf(streaming))
+            .string(String.valueOf(streamingRule))
+            .string(streamingRules.toString())
+            .string(lint)
+            .string(hugeMethods)
+            .string(javacopts.toString())
+            .string(String.valueOf(warmupRule))
+            .string(warmupRules.toString())
+            .string(String.valueOf(warmup.size()));
+
+        for (Path sample : warmup)
+        {
+            digest.file(sample);
+        }
+
+        for (Map.Entry<String, List<Path>> corpus : warmupCorpora.entrySet())
+        {
+            digest.string(corpus.getKey()).string(String.valueOf(corpus.getValue().size()));
+
+            for (Path sample : corpus.getValue())
+            {
+                digest.file(sample);
+            }
+        }
+
+        for (Path entry : compileClasspath)
+        {
+            digest.file(entry);
+        }
+
+        for (String grammar : grammars)
+        {
+            Path path = sandbox.resolve(grammar);
+            digest.string(rootRelative(sandbox.relativize(path).toString())).file(path);
+        }
+
+        for (URL url : urls(classpath))
+        {
+            try
+            {
+                digest.file(Paths.get(url.toURI()));
+            }
+            catch (URISyntaxException ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        for (int i = 0; i < args.length; i++)
+        {
+            // the output directory differs between configurations but does not
+            // influence the generated files
+            if (args[i].equals("-o") && (i < args.length - 1))
+            {
+                digest.string(args[i]).string("");
+                i++;
+
+                continue;
+            }
+
+            // generated grammars and token files live below a different output root
+            // for every configuration
+            digest.string(rootRelative(args[i]));
+
+            for (String part : args[i].split(";"))
+            {
+                try
+                {
+                    Path path = sandbox.resolve(part);
+
+                    if (Files.isRegularFile(path))
+                    {
+                        digest.file(path);
+                    }
+                    else if ((i > 0) && args[i - 1].equals("-lib") && Files.isDirectory(path))
+                    {
+                        digest.tree(path);
+                    }
+                }
+                catch (InvalidPathException ex)
+                {
+                    // no path
+                }
+            }
+        }
+
+        return digest.toString();
+    }
+
+
+    /**
+     * Strips the configuration specific output root from the execution paths in the
+     * given string.
+     *
+     * @param   paths  the string with execution paths.
+     *
+     * @return  the paths relative to their output root.
+     */
+    private static String rootRelative(String paths)
+    {
+        return OUTPUT_ROOT.matcher(paths).replaceAll("");
+    }
+
+
+    /**
+     * Returns the outputs by role.
+     *
+     * @return  the outputs.
+     */
+    private Map<String, Path> outputs()
+    {
+        Map<String, Path> result = new LinkedHashMap<>();
+
+        if (output == Output.SRCJAR)
+        {
+            result.put("srcjar", srcjar);
+
+            if (classjar != null)
+            {
+                result.put("classjar", classjar);
+            }
+        }
+        else
+        {
+            result.put("sources", outputDirectory);
+            result.put("headers", outputDirectory.getParent().resolve(target + ".inc"));
+            result.put("data", outputDirectory.getParent().resolve(target + ".antlr"));
+        }
+
+        return result;
+    }
+
+
+    private void process() throws Exception
+    {
+        expandSrcJarImports();
+
+        Map<Namespace, Collection<Grammar>> namespaces = groupByNamespace(grammars);
+
+        // use reflection so we are not tied to a specific ANTLR version
+        try (ClassLoaderPool.Lease lease = ClassLoaderPool.shared()
+                .checkout(version, urls(classpath)))
+        {
+            try
+            {
+                generate(lease.loader(), namespaces);
+            }
+            catch (Exception ex)
+            {
+                lease.discard();
+
+                throw ex;
+            }
+        }
+
+        Map<String, Grammar> names = grammarNames(namespaces);
+
+        switch (output)
+        {
+            case FOLDER:
+            {
+                Files.createDirectories(outputDirectory);
+                Path other = Files.createDirectories(
+                        outputDirectory
+                            .getParent()
+                            .resolve(target + ".antlr"));
+                Path headers = Files.createDirectories(
+                        outputDirectory
+                            .getParent()
+                            .resolve(target + ".inc"));
+                Path includes = Files.createDirectories(
+                        outputDirectory
+                            .getParent()
+                            .resolve(target + ".inc"));
+                Files.createDirectories(includes);
+
+                List<String> files = new ArrayList<>();
+                Relocation relocation = new Relocation();
 
-        Object tool = $Tool.getConstructor(String[].class)
-            .newInstance(new Object[] { args });
+                FileTypes types = (language != null)
+                    ? language.getFileTypes() : FileTypes.DEFAULT;
 
-        $Tool.getDeclaredMethod("process").invoke(tool);
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(outputDirectory))
+                {
+                    for (Path entry : entries)
+                    {
+                        FileTypes.Role role = types.classify(entry);
 
-        int errors = (int) $ErrorManager.getDeclaredMethod("getNumErrors").invoke(null);
+                        if (role == FileTypes.Role.DISCARD)
+                        {
+                            Files.delete(entry);
 
-        if (errors > 0)
-        {
-            throw new IllegalStateException(
-                String.format("ANTLR terminated with %s error%s",
-                    errors,
-                    (errors == 1) ? "" : "s"));
-        }
-    }
+                            continue;
+                        }
 
+                        if (role == FileTypes.Role.LOG)
+                        {
+                            relocation.add(entry, other.resolve(entry.getFileName()));
 
-    private void antlr4(URLClassLoader loader, boolean log, String[] args)
-        throws Exception
-    {
-        Class<?> $Tool = loader.loadClass("org.antlr.v4.Tool");
-        Class<?> $ErrorManager = loader.loadClass("org.antlr.v4.tool.ErrorManager");
-        Object tool = $Tool.getConstructor(String[].class)
-            .newInstance(new Object[] { args });
-        Object errorManager = $Tool.getDeclaredField("errMgr").get(tool);
-        $Tool.getDeclaredMethod("processGrammarsOnCommandLine").invoke(tool);
+                            continue;
+                        }
 
-        if (log)
-        {
-            Class<?> $LogManager = loader.loadClass(
-                "org.antlr.v4.runtime.misc.LogManager");
-            Object logManager = $Tool.getDeclaredField("logMgr").get(tool);
-            String filename = (String) $LogManager.getDeclaredMethod("save")
-                .invoke(logManager);
-            Path logFile = fs.getPath(filename).toRealPath();
-            Files.copy(logFile, outputDirectory.resolve(logFile.getFileName()));
-            Files.delete(logFile);
-        }
+                        Grammar grammar = findGrammar(entry, names);
 
-        int errors = (int) $ErrorManager.getDeclaredMethod("getNumErrors")
-            .invoke(errorManager);
+                        // indicates imported file that should not be kept
+                        if (grammar == null)
+                        {
+                            Files.delete(entry);
 
-        if (errors > 0)
-        {
-            throw new IllegalStateException(
-                String.format("ANTLR terminated with %s error%s",
-                    errors,
-                    (errors == 1) ? "" : "s"));
-        }
-    }
+                            continue;
+                        }
 
+                        if (role == FileTypes.Role.DATA)
+                        {
+                            relocation.add(entry, other.resolve(entry.getFileName()));
 
-    private URLClassLoader classloader(String[] classpath) throws IOException
-    {
-        PathMatcher matcher = sandbox.getFileSystem().getPathMatcher("glob:**/*.jar");
+                            continue;
+                        }
 
-        Collection<URL> urls = new LinkedHashSet<>();
+                        if ((role == FileTypes.Role.HEADER) && split)
+                        {
+                            Path target = headers.resolve(
+                                    grammar.getNamespacePath().toString())
+                                    .resolve(entry.getFileName());
+                            relocation.add(entry, target);
 
-        for (String path : classpath)
-        {
-            Path lib = sandbox.resolve(path);
+                            continue;
+                        }
 
-            if (matcher.matches(lib))
-            {
-                if (Files.notExists(lib))
-                {
-                    throw new FileNotFoundException(path);
+                        // source files should be stored below their corresponding
+                        // package/namespace
+                        Path target = outputDirectory.resolve(
+                                grammar.getNamespacePath().toString())
+                                .resolve(entry.getFileName());
+
+                        files.add(outputDirectory.relativize(target).toString());
+                        relocation.add(entry, target);
+                    }
                 }
 
-                urls.add(lib.toUri().toURL());
+                // moving is deferred until all entries have been read to create the
+                // target directories only once and move the files concurrently
+                relocation.execute();
+                break;
             }
-        }
 
-        return new ContextClassLoader(urls, null);
-    }
-
-
-    private void expandSrcJarImports() throws IOException
-    {
-        for (int i = 0; i < args.length; i++)
-        {
-            // ANTLR can't handle imports in an archive. We therefore expand it and alter
-            // the lib path accordingly
-            if (args[i].equals("-lib") && args[i + 1].endsWith(".srcjar"))
+            case SRCJAR:
             {
-                Path srcjar = sandbox.resolve(args[i + 1]);
                 URI uri = URI.create("jar:file:" + srcjar.toUri().getPath());
+                Map<String, String> env = new HashMap<>();
+                env.put("create", "true");
 
-                try (FileSystem fs = FileSystems.newFileSystem(uri, new HashMap<String, String>()))
+                try (FileSystem archive = FileSystems.newFileSystem(uri, env))
                 {
-                    Path root = fs.getPath("/");
-                    Path target = sandbox.resolve(this.target + ".imports");
+                    Path root = archive.getPath("/");
 
-                    Files.createDirectories(target);
-                    Files.walkFileTree(root, new SimpleFileVisitor<Path>()
-                    {
-                        @Override
-                        public FileVisitResult preVisitDirectory(Path dir,
-                            BasicFileAttributes attrs) throws IOException
+                    Files.walkFileTree(outputDirectory, new SimpleFileVisitor<Path>()
                         {
-                            Files.createDirectories(target.resolve(root.relativize(dir).toString()));
-
-                            return FileVisitResult.CONTINUE;
-                        }
+                            @Override
+                            public FileVisitResult visitFile(Path file, BasicFileAttributes attr)
+                                throws IOException
+                            {
+                                String filename = file.getFileName().toString();
 
+                                if (filename.endsWith(".srcjar"))
+                                {
+                                    return CONTINUE;
+                                }
 
-                        @Override
-                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-                            throws IOException
-                        {
-                            Files.copy(file, target.resolve(file.getFileName().toString()), COPY_OPTIONS);
+                                if (filename.startsWith("expanded"))
+                                {
+                                    return CONTINUE;
+                                }
 
-                            return FileVisitResult.CONTINUE;
-                        }
-                    });
+                                Path target = root.resolve(
+                                    outputDirectory.relativize(file).toString());
 
-                    args[i + 1] = sandbox.relativize(target).toString();
-                }
-            }
-        }
-    }
+                                if (!filename.endsWith(".log"))
+                                {
+                                    Grammar grammar = findGrammar(file, names);
 
+                                    // indicates imported file that does not belong in the .srcjar
+                                    if (grammar == null)
+                                    {
+                                        return CONTINUE;
+                                    }
 
-    /**
-     * Finds the grammar that corresponds to the given generated file.
-     *
-     * @param   file      the generated source file.
-     * @param   grammars  the processed grammars.
-     *
-     * @return  the corresponding grammar.
-     */
-    private Grammar findGrammar(Path file, Map<String, Grammar> grammars)
-    {
-        for (Map.Entry<String, Grammar> e : grammars.entrySet())
-        {
-            String fileName = file.getFileName().toString();
-            String grammarName = e.getKey();
+                                    // source files should be stored below their corresponding
+                                    // package/namespace
+                                    target = root.resolve(grammar.getNamespacePath().toString())
+                                        .resolve(target.getFileName());
+                                }
 
-            if (fileName.startsWith(e.getKey())
-                // the Go target uses lower underscore, but not consistently
-                || fileName.startsWith(CaseFormat.toLowerUnderscore(grammarName))
-                || fileName.startsWith(grammarName.toLowerCase()))
-            {
-                return e.getValue();
-            }
+                                Files.createDirectories(target.getParent());
+                                Files.copy(file, target, COPY_OPTIONS);
 
-            // ANTLR 2 does not enforce casing for grammars
-            if ((version == Version.V2)
-                && fileName.toLowerCase().startsWith(e.getKey().toLowerCase()))
-            {
-                return e.getValue();
+                                return CONTINUE;
+                            }
+                        });
+                }
+                break;
             }
         }
-
-        throw new IllegalStateException(
-            "Could not find matching grammar for " + file.getFileName());
     }
 
 
     /**
-     * Creates mappings of the possible grammar output file names sorted from longest name
-     * to shortest name to their corresponding grammars.
-     *
-     * @param   namespaces  the grammars grouped by namespaces.
+     * Points the ANTLR output directory argument to the given directory.
      *
-     * @return  the sorted map.
+     * @param  from  the original output directory.
+     * @param  to    the new output directory.
      */
-    private Map<String, Grammar> grammarNames(
-        Map<Namespace, Collection<Grammar>> namespaces)
-    {
-        Map<String, Grammar> result = new TreeMap<>(new LengthComparator());
-
-        for (Collection<Grammar> grammars : namespaces.values())
-        {
-            for (Grammar grammar : grammars)
-            {
-                for (String name : grammar.names)
-                {
-                    result.put(name, grammar);
-                }
-
-                for (String name : grammar.imports)
-                {
-                    result.put(name, keepImports ? grammar : null);
-                }
-            }
-        }
-
-        return result;
-    }
-
-
-    private Map<Namespace, Collection<Grammar>> groupByNamespace(
-        Collection<String> grammars) throws IOException
+    private void redirect(Path from, Path to)
     {
-        Map<Namespace, Collection<Grammar>> result = new LinkedHashMap<>();
+        args = args.clone();
 
-        for (String path : grammars)
+        for (int i = 0; i < args.length - 1; i++)
         {
-            Grammar grammar = new Grammar(version,
-                fs.getPath(path),
-                language,
-                namespace,
-                encoding,
-                layout);
-
-            List<Grammar> files = (List<Grammar>) result.get(grammar.namespace);
-
-            if (files == null)
+            if (args[i].equals("-o") && sandbox.resolve(args[i + 1]).equals(from))
             {
-                files = new ArrayList<>();
-                result.put(grammar.namespace, files);
+                args[i + 1] = to.toString();
             }
-
-            files.add(grammar);
-
-            // enforce order to avoid problems with imported grammars
-            Collections.sort(files);
         }
-
-        return result;
     }
 
 
@@ -761,12 +1619,39 @@ public class AntlrRules
         }
     }
 
+
+    private Collection<URL> urls(String[] classpath) throws IOException
+    {
+        PathMatcher matcher = sandbox.getFileSystem().getPathMatcher("glob:**/*.jar");
+
+        Collection<URL> urls = new LinkedHashSet<>();
+
+        for (String path : classpath)
+        {
+            Path lib = sandbox.resolve(path);
+
+            if (matcher.matches(lib))
+            {
+                if (Files.notExists(lib))
+                {
+                    throw new FileNotFoundException(path);
+                }
+
+                // the real path is stable across sandboxes and allows to reuse pooled
+                // class loaders
+                urls.add(lib.toRealPath().toUri().toURL());
+            }
+        }
+
+        return urls;
+    }
+
     private class Arguments
     {
         public boolean log;
+        public boolean packageAttribute;
 
         private List<String> arguments;
-        private boolean packageAttribute;
 
         public Arguments(String[] arguments)
         {
@@ -811,37 +1696,36 @@ public class AntlrRules
         }
 
 
-        public String[] build(Namespace namespace, Collection<Grammar> grammars)
+        public String[] build()
         {
-            List<String> result = new ArrayList<>(arguments);
+            return arguments.toArray(new String[arguments.size()]);
+        }
 
-            List<Grammar> headers = new ArrayList<>(grammars.size());
 
+        /**
+         * Determines the package to use for the given namespace group.
+         *
+         * @param   namespace  the namespace.
+         * @param   grammars   the grammars of the namespace.
+         *
+         * @return  the package name. Returns {@code null} if no package should be set.
+         */
+        public String packageName(Namespace namespace, Collection<Grammar> grammars)
+        {
             for (Grammar grammar : grammars)
             {
+                // we can only set the package if no grammar defines a namespace
                 if (grammar.namespace.isHeader())
                 {
-                    headers.add(grammar);
-                }
-            }
-
-            if (!packageAttribute)
-            {
-                // we can only add the -package option if no grammar defines a namespace
-                if (headers.isEmpty() && !namespace.isEmpty())
-                {
-                    result.add("-package");
-                    result.add(namespace.id);
+                    return null;
                 }
             }
 
-            result.addAll(paths(grammars));
-
-            return result.toArray(new String[result.size()]);
+            return namespace.isEmpty() ? null : namespace.id;
         }
 
 
-        private List<String> paths(Collection<Grammar> grammars)
+        public List<String> paths(Collection<Grammar> grammars)
         {
             List<String> result = new ArrayList<>(grammars.size());
 
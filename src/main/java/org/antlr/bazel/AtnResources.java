@@ -0,0 +1,694 @@
+package org.antlr.bazel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Moves the serialized ATN of generated ANTLR 4 Java recognizers into a binary resource
+ * next to the class. The ATN is otherwise embedded as string constants that inflate the
+ * constant pool and have to be decoded from modified UTF-8 when the class is loaded. The
+ * resource stores every character as unsigned LEB128 varint, which needs a single byte
+ * for most of the values. The ATN fields are moved into a nested holder class, so the
+ * resource is only read and deserialized when the first recognizer is created, not
+ * already when the class is initialized, e.g. to access its vocabulary. Only the
+ * references in generated code are redirected to the holder. If actions refer to the ATN
+ * fields, the recognizer keeps them as delegates to the holder, which loads the ATN when
+ * the class is initialized again.
+ */
+class AtnResources
+{
+    /** The file extension of ATN resources. */
+    static final String EXTENSION = ".atn";
+
+    /** The name of the nested class that holds the ATN fields. */
+    static final String HOLDER = "_ATNHolder";
+
+    private static final Pattern DECLARATION = Pattern.compile(
+            "(?m)^([ \\t]*)((?:public |private |protected )?static final String) "
+            + "(_serializedATN(?:Segment\\d+)?)\\s*=");
+
+    /**
+     * The fields that depend on the serialized ATN and are moved into the holder. The
+     * first group captures the modifiers and type of field declarations.
+     */
+    private static final Pattern[] DEPENDENTS =
+    {
+        Pattern.compile("(?m)^[ \\t]*((?:public |private |protected )?static final \\S+) "
+            + "_ATN\\s*=[^;]*;[ \\t]*(?:\\r?\\n)?"),
+        Pattern.compile("(?m)^[ \\t]*((?:public |private |protected )?static final "
+            + "DFA\\[\\]) _decisionToDFA\\s*;[ \\t]*(?:\\r?\\n)?"),
+        Pattern.compile("(?m)^[ \\t]*static\\s*\\{\\s*_decisionToDFA\\s*=")
+    };
+
+    /** The names of the fields that {@link #DEPENDENTS} declare. */
+    private static final String[] DEPENDENT_FIELDS = { "_ATN", "_decisionToDFA", null };
+
+    /** The generated code that refers to the moved fields. */
+    private static final Pattern GENERATED_REFERENCE = Pattern.compile(
+            "new \\w+ATNSimulator\\(\\s*this\\s*,\\s*_ATN\\s*,\\s*_decisionToDFA\\s*,"
+            + "|get(?:Serialized)?ATN\\(\\)\\s*\\{\\s*return\\s+_(?:serializedATN|ATN)\\s*;");
+
+    private static final Pattern MOVED_REFERENCE = Pattern.compile(
+            "(?<![\\w$.])(_serializedATN|_ATN|_decisionToDFA)(?![\\w$])");
+
+    private static final String DELEGATE = "%1$s%2$s %3$s = " + HOLDER + ".%3$s;%n";
+
+    private static final String LOADER =
+        "%1$s/** Loads the ATN when the first recognizer is created. */%n"
+        + "%1$sstatic final class " + HOLDER + " {%n"
+        + "%1$s\t%2$s _serializedATN = _loadATN();%n"
+        + "%5$s%n"
+        + "%1$s\tprivate static String _loadATN() {%n"
+        + "%1$s\t\tjava.io.InputStream stream = %3$s.class.getResourceAsStream(\"%3$s%4$s\");%n"
+        + "%1$s\t\tif (stream == null) throw new IllegalStateException(\"Missing %3$s%4$s\");%n"
+        + "%1$s\t\ttry (java.io.InputStream in = new java.io.BufferedInputStream(stream)) {%n"
+        + "%1$s\t\t\tint size = _readVarint(in);%n"
+        + "%1$s\t\t\tStringBuilder atn = new StringBuilder(size);%n"
+        + "%1$s\t\t\tfor (int i = 0; i < size; i++) {%n"
+        + "%1$s\t\t\t\tatn.append((char)_readVarint(in));%n"
+        + "%1$s\t\t\t}%n"
+        + "%1$s\t\t\treturn atn.toString();%n"
+        + "%1$s\t\t}%n"
+        + "%1$s\t\tcatch (java.io.IOException e) {%n"
+        + "%1$s\t\t\tthrow new IllegalStateException(\"Could not read %3$s%4$s\", e);%n"
+        + "%1$s\t\t}%n"
+        + "%1$s\t}%n%n"
+        + "%1$s\tprivate static int _readVarint(java.io.InputStream in) throws java.io.IOException {%n"
+        + "%1$s\t\tint value = 0;%n"
+        + "%1$s\t\tfor (int shift = 0; ; shift += 7) {%n"
+        + "%1$s\t\t\tint b = in.read();%n"
+        + "%1$s\t\t\tif (b == -1) throw new java.io.EOFException();%n"
+        + "%1$s\t\t\tvalue |= (b & 0x7f) << shift;%n"
+        + "%1$s\t\t\tif ((b & 0x80) == 0) return value;%n"
+        + "%1$s\t\t}%n"
+        + "%1$s\t}%n"
+        + "%1$s}%n";
+
+    /** Creates a new AtnResources object. */
+    private AtnResources()
+    {
+        super();
+    }
+
+    /**
+     * Extracts the serialized ATN of all Java sources below the given directory.
+     *
+     * @param   directory  the directory with the generated sources.
+     * @param   encoding   the encoding of the source files.
+     *
+     * @return  the number of extracted resources.
+     *
+     * @throws  IOException  if an I/O error occurred.
+     */
+    public static int extract(Path directory, Charset encoding) throws IOException
+    {
+        List<Path> sources = new ArrayList<>();
+
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                {
+                    if (file.getFileName().toString().endsWith(".java"))
+                    {
+                        sources.add(file);
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+        int count = 0;
+
+        for (Path source : sources)
+        {
+            String name = source.getFileName().toString();
+            name = name.substring(0, name.length() - ".java".length());
+
+            String contents = new String(Files.readAllBytes(source), encoding);
+            StringBuilder atn = new StringBuilder();
+            String rewritten = rewrite(contents, name, atn);
+
+            if (rewritten != null)
+            {
+                Files.write(source.resolveSibling(name + EXTENSION), encode(atn));
+                Files.write(source, rewritten.getBytes(encoding));
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Decodes the given ATN resource.
+     *
+     * @param   resource  the resource contents.
+     *
+     * @return  the serialized ATN.
+     */
+    static String decode(byte[] resource)
+    {
+        int[] position = { 0 };
+        int size = varint(resource, position);
+        StringBuilder buf = new StringBuilder(size);
+
+        for (int i = 0; i < size; i++)
+        {
+            buf.append((char) varint(resource, position));
+        }
+
+        return buf.toString();
+    }
+
+
+    /**
+     * Encodes the given serialized ATN.
+     *
+     * @param   atn  the serialized ATN.
+     *
+     * @return  the resource contents.
+     */
+    static byte[] encode(CharSequence atn)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(atn.length() + 5);
+        varint(out, atn.length());
+
+        for (int i = 0, size = atn.length(); i < size; i++)
+        {
+            varint(out, atn.charAt(i));
+        }
+
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Returns the class that declares the static ATN fields of the given recognizer.
+     *
+     * @param   source     the recognizer source.
+     * @param   className  the recognizer class name.
+     *
+     * @return  the recognizer class name, qualified with the holder if the ATN was
+     *          extracted.
+     */
+    static String owner(String source, String className)
+    {
+        return source.contains("static final class " + HOLDER + " {")
+            ? (className + "." + HOLDER) : className;
+    }
+
+
+    /**
+     * Replaces the serialized ATN string constants of the given source with a nested
+     * holder class that loads the ATN from the class resource. The fields that are
+     * initialized from the serialized ATN are moved into the holder as well and all
+     * references are qualified accordingly.
+     *
+     * @param   source     the recognizer source.
+     * @param   className  the recognizer class name.
+     * @param   atn        receives the serialized ATN.
+     *
+     * @return  the rewritten source or {@code null} if the source does not contain a
+     *          serialized ATN.
+     */
+    static String rewrite(String source, String className, StringBuilder atn)
+    {
+        Map<String, Declaration> declarations = new LinkedHashMap<>();
+        Matcher m = DECLARATION.matcher(source);
+
+        while (m.find())
+        {
+            Declaration declaration = new Declaration(m.group(1), m.group(2), m.start());
+            declaration.parse(source, m.end());
+            declarations.put(m.group(3), declaration);
+        }
+
+        Declaration main = declarations.get("_serializedATN");
+
+        if (main == null)
+        {
+            return null;
+        }
+
+        atn.append(main.value);
+
+        // large ATNs are split into segments that are joined at runtime
+        for (String segment : main.references)
+        {
+            Declaration declaration = declarations.get(segment);
+
+            if (declaration == null)
+            {
+                throw new IllegalStateException("Unknown ATN segment " + segment
+                    + " in " + className);
+            }
+
+            atn.append(declaration.value);
+        }
+
+        // the source ranges to remove, by start offset
+        Map<Integer, Integer> removed = new TreeMap<>();
+        StringBuilder moved = new StringBuilder();
+
+        // the modifiers and type of the moved fields, by name
+        Map<String, String> fields = new TreeMap<>();
+        fields.put("_serializedATN", main.modifiers);
+
+        for (Declaration declaration : declarations.values())
+        {
+            removed.put(declaration.start, declaration.end);
+        }
+
+        for (int j = 0; j < DEPENDENTS.length; j++)
+        {
+            Matcher d = DEPENDENTS[j].matcher(source);
+
+            if (d.find())
+            {
+                // only the static initializer is matched up to its first statement
+                int end = d.group().endsWith("=") ? block(source, d.end()) : d.end();
+                removed.put(d.start(), end);
+
+                if (DEPENDENT_FIELDS[j] != null)
+                {
+                    fields.put(DEPENDENT_FIELDS[j], d.group(1));
+                }
+
+                for (String line : source.substring(d.start(), end).split("\\r?\\n"))
+                {
+                    moved.append('\t').append(line).append(System.lineSeparator());
+                }
+            }
+        }
+
+        List<String> kept = new ArrayList<>();
+        int last = 0;
+
+        for (Map.Entry<Integer, Integer> range : removed.entrySet())
+        {
+            kept.add(qualify(source.substring(last, range.getKey())));
+            last = range.getValue();
+        }
+
+        kept.add(qualify(source.substring(last)));
+
+        // actions might refer to the moved fields as well
+        Set<String> referenced = new TreeSet<>();
+
+        for (String code : kept)
+        {
+            references(code, referenced);
+        }
+
+        StringBuilder delegates = new StringBuilder();
+
+        for (String field : referenced)
+        {
+            if (fields.containsKey(field))
+            {
+                delegates.append(String.format(DELEGATE, main.indent, fields.get(field),
+                        field));
+            }
+        }
+
+        if (delegates.length() > 0)
+        {
+            delegates.insert(0, System.lineSeparator());
+        }
+
+        StringBuilder buf = new StringBuilder(source.length());
+        int i = 0;
+
+        for (Integer start : removed.keySet())
+        {
+            buf.append(kept.get(i++));
+
+            if (start == main.start)
+            {
+                buf.append(String.format(LOADER,
+                        main.indent,
+                        main.modifiers,
+                        className,
+                        EXTENSION,
+                        moved));
+                buf.append(delegates);
+            }
+        }
+
+        buf.append(kept.get(i));
+
+        return buf.toString();
+    }
+
+
+    /**
+     * Returns the end of the block that is open at the given offset.
+     *
+     * @param   source  the recognizer source.
+     * @param   offset  an offset within the block.
+     *
+     * @return  the offset after the closing brace and its line break.
+     */
+    private static int block(String source, int offset)
+    {
+        int depth = 1;
+        int i = offset;
+
+        while (depth > 0)
+        {
+            int end = skip(source, i);
+
+            if (end > i)
+            {
+                i = end;
+
+                continue;
+            }
+
+            char c = source.charAt(i++);
+
+            if (c == '{')
+            {
+                depth++;
+            }
+            else if (c == '}')
+            {
+                depth--;
+            }
+        }
+
+        int end = i;
+
+        while ((end < source.length()) && ((source.charAt(end) == ' ')
+                || (source.charAt(end) == '\t') || (source.charAt(end) == '\r')))
+        {
+            end++;
+        }
+
+        return ((end < source.length()) && (source.charAt(end) == '\n')) ? (end + 1) : i;
+    }
+
+
+    /**
+     * Qualifies the references to the moved fields in generated code with the holder.
+     *
+     * @param   source  the recognizer source.
+     *
+     * @return  the qualified source.
+     */
+    private static String qualify(String source)
+    {
+        Matcher m = GENERATED_REFERENCE.matcher(source);
+        StringBuffer buf = new StringBuffer(source.length());
+
+        while (m.find())
+        {
+            m.appendReplacement(buf,
+                Matcher.quoteReplacement(MOVED_REFERENCE.matcher(m.group()).replaceAll(
+                        HOLDER + ".$1")));
+        }
+
+        return m.appendTail(buf).toString();
+    }
+
+
+    /**
+     * Collects the unqualified references to the moved fields in the given source. String
+     * and character literals as well as comments are skipped.
+     *
+     * @param  source  the recognizer source.
+     * @param  result  receives the referenced field names.
+     */
+    private static void references(String source, Set<String> result)
+    {
+        Matcher m = MOVED_REFERENCE.matcher(source).useTransparentBounds(true);
+
+        for (int i = 0, size = source.length(); i < size;)
+        {
+            int end = skip(source, i);
+
+            if (end > i)
+            {
+                i = end;
+            }
+            else if ((source.charAt(i) == '_') && m.region(i, size).lookingAt())
+            {
+                result.add(m.group(1));
+                i = m.end();
+            }
+            else
+            {
+                i++;
+            }
+        }
+    }
+
+
+    /**
+     * Skips the string or character literal or comment that starts at the given offset.
+     *
+     * @param   source  the recognizer source.
+     * @param   offset  the offset.
+     *
+     * @return  the offset after the literal or comment, or the given offset if there is
+     *          none.
+     */
+    private static int skip(String source, int offset)
+    {
+        if (source.startsWith("//", offset))
+        {
+            int end = source.indexOf('\n', offset);
+
+            return (end == -1) ? source.length() : end;
+        }
+
+        if (source.startsWith("/*", offset))
+        {
+            int end = source.indexOf("*/", offset + 2);
+
+            return (end == -1) ? source.length() : (end + 2);
+        }
+
+        char quote = source.charAt(offset);
+
+        if ((quote != '"') && (quote != '\''))
+        {
+            return offset;
+        }
+
+        for (int i = offset + 1, size = source.length(); i < size; i++)
+        {
+            char c = source.charAt(i);
+
+            if (c == '\\')
+            {
+                i++;
+            }
+            else if (c == quote)
+            {
+                return i + 1;
+            }
+        }
+
+        return source.length();
+    }
+
+
+    private static int varint(byte[] bytes, int[] position)
+    {
+        int value = 0;
+
+        for (int shift = 0;; shift += 7)
+        {
+            int b = bytes[position[0]++];
+            value |= (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+    }
+
+
+    private static void varint(ByteArrayOutputStream out, int value)
+    {
+        while ((value & ~0x7f) != 0)
+        {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        out.write(value);
+    }
+
+    /**
+     * A string constant declaration of the serialized ATN or one of its segments.
+     */
+    private static final class Declaration
+    {
+        final String indent;
+        final String modifiers;
+        final List<String> references = new ArrayList<>();
+        final int start;
+        final StringBuilder value = new StringBuilder();
+        int end;
+
+        Declaration(String indent, String modifiers, int start)
+        {
+            this.indent = indent;
+            this.modifiers = modifiers;
+            this.start = start;
+        }
+
+        /**
+         * Parses the initializer that is either a concatenation of string literals or a
+         * join of segment constants.
+         *
+         * @param  source  the recognizer source.
+         * @param  offset  the offset of the initializer.
+         */
+        void parse(String source, int offset)
+        {
+            int i = offset;
+
+            for (int size = source.length(); i < size; i++)
+            {
+                char c = source.charAt(i);
+
+                if (c == ';')
+                {
+                    break;
+                }
+
+                if (c == '"')
+                {
+                    i = literal(source, i + 1);
+                }
+                else if (source.startsWith("_serializedATNSegment", i))
+                {
+                    int j = i;
+
+                    while ((j < size) && Character.isJavaIdentifierPart(source.charAt(j)))
+                    {
+                        j++;
+                    }
+
+                    references.add(source.substring(i, j));
+                    i = j - 1;
+                }
+            }
+
+            // include the line break to not leave blank lines behind
+            end = ((i + 1 < source.length()) && (source.charAt(i + 1) == '\r')) ? i + 2
+                                                                                 : i + 1;
+
+            if ((end < source.length()) && (source.charAt(end) == '\n'))
+            {
+                end++;
+            }
+        }
+
+
+        private int literal(String source, int offset)
+        {
+            for (int i = offset;; i++)
+            {
+                char c = source.charAt(i);
+
+                if (c == '"')
+                {
+                    return i;
+                }
+
+                if (c != '\\')
+                {
+                    value.append(c);
+
+                    continue;
+                }
+
+                c = source.charAt(++i);
+
+                switch (c)
+                {
+                    case 'b' :
+                        value.append('\b');
+                        break;
+
+                    case 't' :
+                        value.append('\t');
+                        break;
+
+                    case 'n' :
+                        value.append('\n');
+                        break;
+
+                    case 'f' :
+                        value.append('\f');
+                        break;
+
+                    case 'r' :
+                        value.append('\r');
+                        break;
+
+                    case 'u' :
+                    {
+                        while (source.charAt(i + 1) == 'u')
+                        {
+                            i++;
+                        }
+
+                        value.append((char) Integer.parseInt(
+                                source.substring(i + 1, i + 5),
+                                16));
+                        i += 4;
+                        break;
+                    }
+
+                    default :
+                    {
+                        if ((c >= '0') && (c <= '7'))
+                        {
+                            // octal escapes have up to three digits, but only up to \377
+                            int max = (c <= '3') ? 3 : 2;
+                            int j = i;
+
+                            while ((j < i + max) && (source.charAt(j) >= '0')
+                                && (source.charAt(j) <= '7'))
+                            {
+                                j++;
+                            }
+
+                            value.append((char) Integer.parseInt(source.substring(i, j), 8));
+                            i = j - 1;
+                        }
+                        else
+                        {
+                            // \", \' and \\
+                            value.append(c);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
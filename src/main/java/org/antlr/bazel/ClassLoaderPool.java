@@ -0,0 +1,420 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Caches one class loader per ANTLR version and tool classpath, as creating a new one
+ * for every generation request is expensive. Targets are generated one after another,
+ * the cached class loader is therefore checked out for a single generation request and
+ * returned afterwards, once the static state of the tool has been reset. A request that
+ * finds the class loader checked out gets a new one that is closed after use. Class
+ * loaders that stay idle longer than the configured timeout are closed.
+ */
+class ClassLoaderPool
+{
+    /** The default idle timeout in nanoseconds. */
+    static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toNanos(5);
+
+    private static final ClassLoaderPool SHARED = new ClassLoaderPool(IDLE_TIMEOUT);
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+    private long evictions;
+    private long hits;
+    private final long idleTimeout;
+    private long misses;
+
+    /**
+     * Creates a new ClassLoaderPool object.
+     *
+     * @param  idleTimeout  the time in nanoseconds after which idle class loaders are
+     *                      closed.
+     */
+    ClassLoaderPool(long idleTimeout)
+    {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns the shared pool.
+     *
+     * @return  the shared pool.
+     */
+    public static ClassLoaderPool shared()
+    {
+        return SHARED;
+    }
+
+
+    /**
+     * Checks out the class loader for the given version and classpath.
+     *
+     * @param   version  the ANTLR version.
+     * @param   urls     the tool classpath.
+     *
+     * @return  the lease that provides the class loader. Must be closed after use.
+     *
+     * @throws  IOException             if the classpath could not be read.
+     * @throws  ClassNotFoundException  if the classpath does not provide the tool.
+     */
+    public Lease checkout(Version version, Collection<URL> urls)
+        throws IOException, ClassNotFoundException
+    {
+        Key key = new Key(version, digest(urls));
+        List<URLClassLoader> expired = new ArrayList<>();
+        boolean cached;
+
+        try
+        {
+            synchronized (this)
+            {
+                evict(System.nanoTime(), expired);
+
+                Entry entry = entries.get(key);
+
+                if ((entry != null) && !entry.leased)
+                {
+                    entry.leased = true;
+                    hits++;
+
+                    return new Lease(version, entry.loader, entry);
+                }
+
+                misses++;
+
+                // only cached if there is no class loader for the key yet
+                cached = entry == null;
+            }
+        }
+        finally
+        {
+            close(expired);
+        }
+
+        // the class loader is created outside of the lock as warming up takes time
+        URLClassLoader loader = new URLClassLoader(urls.toArray(new URL[urls.size()]), null);
+
+        try
+        {
+            // resolves the tool classes and method handles
+            ToolAdapter.of(version, loader);
+        }
+        catch (ClassNotFoundException | RuntimeException ex)
+        {
+            loader.close();
+
+            throw ex;
+        }
+
+        Entry entry = null;
+
+        if (cached)
+        {
+            synchronized (this)
+            {
+                if (!entries.containsKey(key))
+                {
+                    entry = new Entry(loader);
+                    entry.leased = true;
+                    entries.put(key, entry);
+                }
+            }
+        }
+
+        return new Lease(version, loader, entry);
+    }
+
+
+    /**
+     * Returns the pool metrics.
+     *
+     * @return  the current metrics.
+     */
+    public synchronized Metrics metrics()
+    {
+        return new Metrics(hits, misses, evictions);
+    }
+
+
+    /**
+     * Closes the given class loaders. Failures are ignored as the class loaders are not
+     * used anymore anyway.
+     *
+     * @param  loaders  the class loaders to close.
+     */
+    private static void close(List<URLClassLoader> loaders)
+    {
+        for (URLClassLoader loader : loaders)
+        {
+            try
+            {
+                loader.close();
+            }
+            catch (IOException ex)
+            {
+                // ignored
+            }
+        }
+    }
+
+
+    private static String digest(Collection<URL> urls) throws IOException
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            for (URL url : urls)
+            {
+                Path path = Paths.get(url.toURI());
+
+                // the metadata is good enough to detect changed archives and much
+                // cheaper than hashing the contents
+                String entry = url + ":" + Files.size(path) + ":"
+                    + Files.getLastModifiedTime(path).toMillis();
+                digest.update(entry.getBytes(StandardCharsets.UTF_8));
+            }
+
+            StringBuilder buf = new StringBuilder(64);
+
+            for (byte b : digest.digest())
+            {
+                buf.append(String.format("%02x", b));
+            }
+
+            return buf.toString();
+        }
+        catch (NoSuchAlgorithmException | URISyntaxException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+
+    /**
+     * Removes the class loaders that have been idle for longer than the timeout.
+     *
+     * @param  now      the current time in nanoseconds.
+     * @param  expired  receives the removed class loaders that must be closed.
+     */
+    private void evict(long now, List<URLClassLoader> expired)
+    {
+        for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();)
+        {
+            Entry entry = i.next();
+
+            if (!entry.leased && ((now - entry.since) >= idleTimeout))
+            {
+                expired.add(entry.loader);
+                i.remove();
+                evictions++;
+            }
+        }
+    }
+
+
+    /**
+     * Returns the given cached class loader after use.
+     *
+     * @param  entry    the cache entry.
+     * @param  discard  {@code true} if the class loader must not be used again.
+     *
+     * @return  {@code true} if the class loader is still cached and must not be closed.
+     */
+    private boolean restore(Entry entry, boolean discard)
+    {
+        List<URLClassLoader> expired = new ArrayList<>();
+
+        try
+        {
+            synchronized (this)
+            {
+                entry.leased = false;
+
+                if (discard)
+                {
+                    entries.values().remove(entry);
+
+                    return false;
+                }
+
+                entry.since = System.nanoTime();
+                evict(entry.since, expired);
+
+                // might have been evicted right away with a zero timeout
+                return !expired.contains(entry.loader);
+            }
+        }
+        finally
+        {
+            expired.remove(entry.loader);
+            close(expired);
+        }
+    }
+
+    /**
+     * Provides exclusive access to a class loader.
+     */
+    final class Lease implements AutoCloseable
+    {
+        private boolean discard;
+        private final ClassLoader context;
+        private final Entry entry;
+        private final URLClassLoader loader;
+        private final Thread thread;
+        private final Version version;
+
+        private Lease(Version version, URLClassLoader loader, Entry entry)
+        {
+            this.version = version;
+            this.loader = loader;
+            this.entry = entry;
+            this.thread = Thread.currentThread();
+            this.context = thread.getContextClassLoader();
+            this.thread.setContextClassLoader(loader);
+        }
+
+        /**
+         * Returns the class loader.
+         *
+         * @return  the class loader.
+         */
+        public URLClassLoader loader()
+        {
+            return loader;
+        }
+
+
+        /**
+         * Marks the class loader as unusable. It is closed instead of returned to the
+         * pool, because a failed generation might have left the tool in an inconsistent
+         * state.
+         */
+        public void discard()
+        {
+            discard = true;
+        }
+
+
+        @Override
+        public void close() throws IOException
+        {
+            thread.setContextClassLoader(context);
+
+            if (!discard && (entry != null))
+            {
+                try
+                {
+                    ToolAdapter.of(version, loader).cleanup();
+                }
+                catch (Exception ex)
+                {
+                    // a tool we cannot reset must not be reused
+                    discard = true;
+                }
+            }
+
+            if ((entry == null) || !restore(entry, discard))
+            {
+                loader.close();
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the pool metrics.
+     */
+    static final class Metrics
+    {
+        /** The number of requests served by an idle class loader. */
+        public final long hits;
+
+        /** The number of requests that required a new class loader. */
+        public final long misses;
+
+        /** The number of idle class loaders that were closed. */
+        public final long evictions;
+
+        Metrics(long hits, long misses, long evictions)
+        {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("hits=%d, misses=%d, evictions=%d",
+                hits,
+                misses,
+                evictions);
+        }
+    }
+
+    private static final class Key
+    {
+        private final String digest;
+        private final Version version;
+
+        Key(Version version, String digest)
+        {
+            this.version = version;
+            this.digest = digest;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+
+            if ((obj == null) || (getClass() != obj.getClass()))
+            {
+                return false;
+            }
+
+            Key other = (Key) obj;
+
+            return (version == other.version) && digest.equals(other.digest);
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(version, digest);
+        }
+    }
+
+    private static final class Entry
+    {
+        boolean leased;
+        final URLClassLoader loader;
+        long since;
+
+        Entry(URLClassLoader loader)
+        {
+            this.loader = loader;
+        }
+    }
+}
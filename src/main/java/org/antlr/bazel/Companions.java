@@ -0,0 +1,171 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Shared functionality to generate companion classes for ANTLR 4 Java parsers.
+ */
+class Companions
+{
+    /** Matches entries that are keyed by parser name, e.g. {@code HelloParser=r}. */
+    private static final Pattern KEYED = Pattern.compile(
+            "(\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*)=(.*)");
+
+    private static final Pattern PACKAGE = Pattern.compile(
+            "(?m)^package\\s+([\\w.]+)\\s*;");
+
+    /** Matches the first rule name for ANTLR 4.7 and later releases. */
+    private static final Pattern RULE = Pattern.compile(
+            "ruleNames\\s*=\\s*\\{\\s*\"(\\w+)\"|makeRuleNames\\(\\)\\s*\\{\\s*return\\s+"
+            + "new\\s+String\\[\\]\\s*\\{\\s*\"(\\w+)\"");
+
+    /** Creates a new Companions object. */
+    private Companions()
+    {
+        super();
+    }
+
+    /**
+     * Returns the first rule of the given parser.
+     *
+     * @param   source  the parser source.
+     * @param   parser  the parser name.
+     *
+     * @return  the rule name.
+     *
+     * @throws  IllegalStateException  if the rule names could not be found.
+     */
+    public static String firstRule(String source, String parser)
+    {
+        Matcher m = RULE.matcher(source);
+
+        if (!m.find())
+        {
+            throw new IllegalStateException("Could not determine the start rule of "
+                + parser);
+        }
+
+        return (m.group(1) != null) ? m.group(1) : m.group(2);
+    }
+
+
+    /**
+     * Splits the given entry that might be keyed by parser name.
+     *
+     * @param   entry  the entry, either {@code <Parser>=<value>} or just {@code <value>}.
+     *
+     * @return  the parser name and the value. The parser name is {@code null} if the
+     *          entry is not keyed.
+     */
+    public static String[] keyed(String entry)
+    {
+        Matcher m = KEYED.matcher(entry);
+
+        return m.matches() ? new String[] { m.group(1), m.group(2) }
+                           : new String[] { null, entry };
+    }
+
+
+    /**
+     * Returns the package declaration of the given source for use in a companion.
+     *
+     * @param   source  the parser source.
+     *
+     * @return  the package declaration followed by an empty line, the empty string for
+     *          the default package.
+     */
+    public static String packageDeclaration(String source)
+    {
+        String name = packageName(source);
+
+        return (name != null) ? ("package " + name + ";\n\n") : "";
+    }
+
+
+    /**
+     * Returns the package name of the given source.
+     *
+     * @param   source  the parser source.
+     *
+     * @return  the package name, {@code null} for the default package.
+     */
+    public static String packageName(String source)
+    {
+        Matcher m = PACKAGE.matcher(source);
+
+        return m.find() ? m.group(1) : null;
+    }
+
+
+    /**
+     * Returns all parsers below the given directory that have a matching lexer.
+     *
+     * @param   directory  the directory with the generated sources.
+     *
+     * @return  the parser source files in lexical order.
+     *
+     * @throws  IOException  if an I/O error occurred.
+     */
+    public static List<Path> parsers(Path directory) throws IOException
+    {
+        List<Path> result = new ArrayList<>();
+
+        for (Path parser : sources(directory, "Parser.java"))
+        {
+            // combined as well as separate parser and lexer grammars produce a lexer
+            // with the same prefix
+            if (Files.exists(parser.resolveSibling(parser.getFileName().toString()
+                            .replaceFirst("Parser\\.java$", "Lexer.java"))))
+            {
+                result.add(parser);
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Returns all source files below the given directory with the given suffix.
+     *
+     * @param   directory  the directory with the generated sources.
+     * @param   suffix     the file name suffix.
+     *
+     * @return  the source files in lexical order.
+     *
+     * @throws  IOException  if an I/O error occurred.
+     */
+    public static List<Path> sources(Path directory, String suffix) throws IOException
+    {
+        List<Path> result = new ArrayList<>();
+
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                {
+                    if (file.getFileName().toString().endsWith(suffix))
+                    {
+                        result.add(file);
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+        Collections.sort(result);
+
+        return result;
+    }
+}
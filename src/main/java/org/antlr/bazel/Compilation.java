@@ -0,0 +1,320 @@
+package org.antlr.bazel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+
+/**
+ * Compiles the Java sources of a .srcjar in-process and writes the classes together with
+ * the resources of the generated classes into a jar. The sources are read straight from
+ * the archive and the classes are kept in memory, so the generated files are neither
+ * extracted nor read by another process.
+ */
+class Compilation
+{
+    /** The Java release the classes are compiled for by default. */
+    static final String RELEASE = "8";
+
+    /** Fixed timestamp for jar entries to get reproducible output (2010-01-01). */
+    private static final long TIMESTAMP = 1262304000000L;
+
+    private final List<String> classpath = new ArrayList<>();
+    private final Charset encoding;
+    private final List<String> options = new ArrayList<>();
+
+    /**
+     * Creates a new Compilation object.
+     *
+     * @param  encoding  the encoding of the source files.
+     */
+    Compilation(Charset encoding)
+    {
+        this.encoding = encoding;
+    }
+
+    /**
+     * Adds the given entries to the compile classpath.
+     *
+     * @param   entries  the classpath entries.
+     *
+     * @return  this object.
+     */
+    public Compilation classpath(Collection<Path> entries)
+    {
+        for (Path entry : entries)
+        {
+            classpath.add(entry.toString());
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Compiles all Java sources of the given .srcjar.
+     *
+     * @param   srcjar  the .srcjar.
+     * @param   jar     the class jar to create.
+     *
+     * @throws  IOException            if an I/O error occurred.
+     * @throws  IllegalStateException  if no compiler is available or the sources could
+     *                                 not be compiled.
+     */
+    public void compile(Path srcjar, Path jar) throws IOException
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+        if (compiler == null)
+        {
+            throw new IllegalStateException(
+                "No Java compiler available, compiling requires a JDK");
+        }
+
+        URI uri = URI.create("jar:file:" + srcjar.toUri().getPath());
+
+        try (FileSystem archive = FileSystems.newFileSystem(uri,
+                new HashMap<String, String>()))
+        {
+            List<JavaFileObject> sources = new ArrayList<>();
+            Map<String, ByteArrayOutputStream> classes = new TreeMap<>();
+
+            Files.walkFileTree(archive.getPath("/"), new SimpleFileVisitor<Path>()
+                {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                        throws IOException
+                    {
+                        String name = file.getFileName().toString();
+
+                        if (name.endsWith(".java"))
+                        {
+                            sources.add(new Source(file, encoding));
+                        }
+                        else if (name.endsWith(AtnResources.EXTENSION)
+                            || name.endsWith(WarmUp.EXTENSION))
+                        {
+                            // resources loaded by the generated classes
+                            ByteArrayOutputStream resource = new ByteArrayOutputStream();
+                            Files.copy(file, resource);
+                            classes.put(file.toString().substring(1), resource);
+                        }
+
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+            if (!sources.isEmpty())
+            {
+                List<String> args = new ArrayList<>(options);
+                args.add("-proc:none");
+
+                // the classes must run on the same releases as the runtime does. Older
+                // compilers don't know the option, but target that release anyway
+                if (!targetsRelease() && (compiler.isSupportedOption("--release") > -1))
+                {
+                    args.add("--release");
+                    args.add(RELEASE);
+                }
+
+                if (!classpath.isEmpty())
+                {
+                    args.add("-classpath");
+                    args.add(String.join(File.pathSeparator, classpath));
+                }
+
+                try (StandardJavaFileManager files = compiler.getStandardFileManager(
+                            diagnostics,
+                            Locale.ROOT,
+                            encoding);
+                    Classes output = new Classes(files, classes))
+                {
+                    boolean success = compiler.getTask(null,
+                            output,
+                            diagnostics,
+                            args,
+                            null,
+                            sources)
+                        .call();
+
+                    if (!success)
+                    {
+                        StringBuilder buf = new StringBuilder("Compilation failed:");
+
+                        for (Diagnostic<? extends JavaFileObject> diagnostic :
+                            diagnostics.getDiagnostics())
+                        {
+                            buf.append(System.lineSeparator()).append(diagnostic);
+                        }
+
+                        throw new IllegalStateException(buf.toString());
+                    }
+                }
+            }
+
+            write(jar, classes);
+        }
+    }
+
+
+    /**
+     * Adds the given compiler options.
+     *
+     * @param   options  the compiler options.
+     *
+     * @return  this object.
+     */
+    public Compilation options(Collection<String> options)
+    {
+        this.options.addAll(options);
+
+        return this;
+    }
+
+
+    /**
+     * Determines whether the options already specify the target release.
+     *
+     * @return  {@code true} if the options specify the target release.
+     */
+    private boolean targetsRelease()
+    {
+        for (String option : options)
+        {
+            if (option.matches("--?(release|source|target)(=.*)?"))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    private static void write(Path jar, Map<String, ByteArrayOutputStream> classes)
+        throws IOException
+    {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar)))
+        {
+            JarEntry entry = new JarEntry("META-INF/MANIFEST.MF");
+            entry.setTime(TIMESTAMP);
+            out.putNextEntry(entry);
+            manifest.write(out);
+            out.closeEntry();
+
+            for (Map.Entry<String, ByteArrayOutputStream> file : classes.entrySet())
+            {
+                entry = new JarEntry(file.getKey());
+                entry.setTime(TIMESTAMP);
+                out.putNextEntry(entry);
+                file.getValue().writeTo(out);
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Keeps the compiled classes in memory.
+     */
+    private static final class Classes
+        extends ForwardingJavaFileManager<StandardJavaFileManager>
+    {
+        private final Map<String, ByteArrayOutputStream> classes;
+
+        Classes(StandardJavaFileManager manager, Map<String, ByteArrayOutputStream> classes)
+        {
+            super(manager);
+            this.classes = classes;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location,
+            String className,
+            JavaFileObject.Kind kind,
+            FileObject sibling) throws IOException
+        {
+            if ((location != StandardLocation.CLASS_OUTPUT)
+                || (kind != JavaFileObject.Kind.CLASS))
+            {
+                return super.getJavaFileForOutput(location, className, kind, sibling);
+            }
+
+            String name = className.replace('.', '/') + kind.extension;
+
+            return new SimpleJavaFileObject(URI.create("mem:///" + name), kind)
+                {
+                    @Override
+                    public OutputStream openOutputStream()
+                    {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        classes.put(name, out);
+
+                        return out;
+                    }
+                };
+        }
+    }
+
+    /**
+     * A source file within the .srcjar.
+     */
+    private static final class Source extends SimpleJavaFileObject
+    {
+        private final Charset encoding;
+        private final Path file;
+
+        Source(Path file, Charset encoding)
+        {
+            // the file name of the URI is used for error reporting
+            super(URI.create("srcjar:///").resolve(file.toUri().getRawSchemeSpecificPart()
+                    .replaceFirst(".*!/", "")),
+                JavaFileObject.Kind.SOURCE);
+            this.file = file;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors)
+            throws IOException
+        {
+            return new String(Files.readAllBytes(file), encoding);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+
+/**
+ * Generates DFA cache companions for ANTLR 4 Java parsers. The DFA states that adaptive
+ * prediction creates are kept in static arrays shared by all instances of a recognizer
+ * and are never evicted, so highly varied input lets them grow without bound. A companion
+ * reports the state counts per decision and resets the DFA of the parser and its lexer
+ * once their combined state count crosses a limit.
+ */
+class DfaCache
+{
+    /** The suffix of companion class names. */
+    static final String SUFFIX = "DfaCache";
+
+    private static final String TEMPLATE =
+        "%1$s"
+        + "/**%n"
+        + " * Tracks and limits the DFA states shared by all {@link %2$s} and {@link %3$s}%n"
+        + " * instances. Call {@link #checkLimit()} regularly, e.g. after every parsed input.%n"
+        + " * The generated pool and streaming drivers do so after every parse.%n"
+        + " */%n"
+        + "public final class %2$s" + SUFFIX + " {%n"
+        + "\t/** The default limit for the number of DFA states. */%n"
+        + "\tpublic static final int DEFAULT_LIMIT = %4$d;%n%n"
+        + "\tprivate static final java.util.concurrent.atomic.AtomicLong CLEARS = "
+        + "new java.util.concurrent.atomic.AtomicLong();%n"
+        + "\tprivate static volatile int limit = DEFAULT_LIMIT;%n%n"
+        + "\tprivate %2$s" + SUFFIX + "() {%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Returns the number of DFA states of every parser decision.%n"
+        + "\t *%n"
+        + "\t * @return the state counts indexed by decision.%n"
+        + "\t */%n"
+        + "\tpublic static int[] decisionStates() {%n"
+        + "\t\tint[] result = new int[%5$s._decisionToDFA.length];%n"
+        + "\t\tfor (int i = 0; i < result.length; i++) {%n"
+        + "\t\t\tresult[i] = %5$s._decisionToDFA[i].states.size();%n"
+        + "\t\t}%n"
+        + "\t\treturn result;%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Returns the rule a parser decision belongs to.%n"
+        + "\t *%n"
+        + "\t * @param decision the decision.%n"
+        + "\t * @return the rule name.%n"
+        + "\t */%n"
+        + "\tpublic static String rule(int decision) {%n"
+        + "\t\treturn %2$s.ruleNames[%5$s._ATN.getDecisionState(decision).ruleIndex];%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Returns the number of DFA states of the lexer.%n"
+        + "\t *%n"
+        + "\t * @return the state count.%n"
+        + "\t */%n"
+        + "\tpublic static int lexerStates() {%n"
+        + "\t\tint result = 0;%n"
+        + "\t\tfor (org.antlr.v4.runtime.dfa.DFA dfa : %6$s._decisionToDFA) {%n"
+        + "\t\t\tresult += dfa.states.size();%n"
+        + "\t\t}%n"
+        + "\t\treturn result;%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Returns the number of DFA states of the parser and the lexer.%n"
+        + "\t *%n"
+        + "\t * @return the state count.%n"
+        + "\t */%n"
+        + "\tpublic static int states() {%n"
+        + "\t\tint result = lexerStates();%n"
+        + "\t\tfor (org.antlr.v4.runtime.dfa.DFA dfa : %5$s._decisionToDFA) {%n"
+        + "\t\t\tresult += dfa.states.size();%n"
+        + "\t\t}%n"
+        + "\t\treturn result;%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Returns the number of times the DFA was cleared.%n"
+        + "\t *%n"
+        + "\t * @return the number of clears.%n"
+        + "\t */%n"
+        + "\tpublic static long clears() {%n"
+        + "\t\treturn CLEARS.get();%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Returns the current values as metrics: {@code dfa.states}, "
+        + "{@code dfa.lexer.states},%n"
+        + "\t * {@code dfa.clears}, {@code dfa.limit} and {@code dfa.decision.<decision>.<rule>}%n"
+        + "\t * for every parser decision with states.%n"
+        + "\t *%n"
+        + "\t * @return the metric values by name.%n"
+        + "\t */%n"
+        + "\tpublic static java.util.Map<String, Long> metrics() {%n"
+        + "\t\tjava.util.Map<String, Long> result = new java.util.LinkedHashMap<>();%n"
+        + "\t\tint[] decisions = decisionStates();%n"
+        + "\t\tint lexer = lexerStates();%n"
+        + "\t\tlong states = lexer;%n"
+        + "\t\tfor (int count : decisions) {%n"
+        + "\t\t\tstates += count;%n"
+        + "\t\t}%n"
+        + "\t\tresult.put(\"dfa.states\", states);%n"
+        + "\t\tresult.put(\"dfa.lexer.states\", (long) lexer);%n"
+        + "\t\tresult.put(\"dfa.clears\", CLEARS.get());%n"
+        + "\t\tresult.put(\"dfa.limit\", (long) limit);%n"
+        + "\t\tfor (int i = 0; i < decisions.length; i++) {%n"
+        + "\t\t\tif (decisions[i] > 0) {%n"
+        + "\t\t\t\tresult.put(\"dfa.decision.\" + i + \".\" + rule(i), (long) decisions[i]);%n"
+        + "\t\t\t}%n"
+        + "\t\t}%n"
+        + "\t\treturn result;%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Sets the limit for the number of DFA states.%n"
+        + "\t *%n"
+        + "\t * @param states the maximum number of states.%n"
+        + "\t */%n"
+        + "\tpublic static void setLimit(int states) {%n"
+        + "\t\tif (states <= 0) throw new IllegalArgumentException(\"limit must be positive\");%n"
+        + "\t\tlimit = states;%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Clears the DFA if it has more states than the limit.%n"
+        + "\t *%n"
+        + "\t * @return {@code true} if the DFA was cleared.%n"
+        + "\t */%n"
+        + "\tpublic static boolean checkLimit() {%n"
+        + "\t\tif (states() <= limit) {%n"
+        + "\t\t\treturn false;%n"
+        + "\t\t}%n"
+        + "\t\tclear();%n"
+        + "\t\treturn true;%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Clears the DFA of the parser and the lexer. Predictions in progress keep%n"
+        + "\t * using the previous states, new predictions start with an empty DFA.%n"
+        + "\t */%n"
+        + "\tpublic static synchronized void clear() {%n"
+        + "\t\tfor (int i = 0; i < %5$s._decisionToDFA.length; i++) {%n"
+        + "\t\t\t%5$s._decisionToDFA[i] = new org.antlr.v4.runtime.dfa.DFA("
+        + "%5$s._ATN.getDecisionState(i), i);%n"
+        + "\t\t}%n"
+        + "\t\tfor (int i = 0; i < %6$s._decisionToDFA.length; i++) {%n"
+        + "\t\t\t%6$s._decisionToDFA[i] = new org.antlr.v4.runtime.dfa.DFA("
+        + "%6$s._ATN.getDecisionState(i), i);%n"
+        + "\t\t}%n"
+        + "\t\tCLEARS.incrementAndGet();%n"
+        + "\t}%n"
+        + "}%n";
+
+    /** Creates a new DfaCache object. */
+    private DfaCache()
+    {
+        super();
+    }
+
+    /**
+     * Generates a companion for every parser below the given directory.
+     *
+     * @param   directory  the directory with the generated sources.
+     * @param   encoding   the encoding of the source files.
+     * @param   limit      the default limit for the number of DFA states.
+     *
+     * @throws  IOException            if an I/O error occurred.
+     * @throws  IllegalStateException  if no parser was found.
+     */
+    public static void generate(Path directory, Charset encoding, int limit)
+        throws IOException
+    {
+        List<Path> parsers = Companions.parsers(directory);
+
+        if (parsers.isEmpty())
+        {
+            throw new IllegalStateException("No parser and lexer pair found to limit");
+        }
+
+        for (Path parser : parsers)
+        {
+            String source = new String(Files.readAllBytes(parser), encoding);
+            String name = parser.getFileName().toString().replaceFirst("\\.java$", "");
+            String lexer = name.replaceFirst("Parser$", "Lexer");
+            String lexerSource = new String(
+                    Files.readAllBytes(parser.resolveSibling(lexer + ".java")),
+                    encoding);
+
+            Files.write(parser.resolveSibling(name + SUFFIX + ".java"),
+                String.format(TEMPLATE,
+                        Companions.packageDeclaration(source),
+                        name,
+                        lexer,
+                        limit,
+                        AtnResources.owner(source, name),
+                        AtnResources.owner(lexerSource, lexer))
+                    .getBytes(encoding));
+        }
+    }
+}
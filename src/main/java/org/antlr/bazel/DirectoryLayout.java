@@ -1,28 +1,46 @@
 package org.antlr.bazel;
 
 import java.nio.file.Path;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
  * Defines the path of the common default directory where grammars files should be placed.
+ * Layouts are matched segment by segment against the last occurrence within a file
+ * path, which avoids compiling and backtracking a regular expression for every grammar.
  *
  * @author  Marco Hunsicker
  */
 class DirectoryLayout
 {
-    static final Pattern PATH = Pattern.compile(
-        ".*[\\\\/]src[\\\\/]antlr[234]?[\\\\/](.*)");
+    private static final String[] ANTLR = { "antlr", "antlr2", "antlr3", "antlr4" };
 
-    private boolean flat;
+    /** The default directory for most languages: src/antlr[234]. */
+    static final DirectoryLayout PATH = new DirectoryLayout(
+            ".*[\\\\/]src[\\\\/]antlr[234]?[\\\\/](.*)",
+            new String[][] { { "src" }, ANTLR });
 
-    private final Pattern pattern;
+    /** The Maven default directory: src/main/antlr[234]. */
+    static final DirectoryLayout MAVEN = new DirectoryLayout(
+            ".*[\\\\/]src[\\\\/]main[\\\\/]antlr[234]?[\\\\/](.*)",
+            new String[][] { { "src" }, { "main" }, ANTLR });
+
+    private static final ConcurrentMap<String, DirectoryLayout> LAYOUTS =
+        new ConcurrentHashMap<>();
+
+    private final String description;
+    private final boolean flat;
+
+    /** The alternatives per directory segment. */
+    private final String[][] segments;
 
     /** Creates a new DirectoryLayout object. */
     public DirectoryLayout()
     {
-        pattern = null;
+        this("", null);
     }
 
 
@@ -35,28 +53,44 @@ class DirectoryLayout
     {
         this(
             "flat".equalsIgnoreCase(path)
-            ? null
-            : Pattern.compile(
-                ".*"
-                + ((!path.startsWith("/") && !path.startsWith("\\")) ? "[\\\\/]" : "")
-                + path.replaceAll("[\\\\/]", "[\\\\\\\\/]")
-                + ((!path.endsWith("/") && !path.endsWith("\\")) ? "[\\\\/]" : "")
-                + "(.*)"));
-
-        flat = "flat".equalsIgnoreCase(path);
+            ? ""
+            : ".*"
+            + ((!path.startsWith("/") && !path.startsWith("\\")) ? "[\\\\/]" : "")
+            + path.replaceAll("[\\\\/]", "[\\\\\\\\/]")
+            + ((!path.endsWith("/") && !path.endsWith("\\")) ? "[\\\\/]" : "")
+            + "(.*)",
+            "flat".equalsIgnoreCase(path) ? null : segments(path),
+            "flat".equalsIgnoreCase(path));
     }
 
 
+    private DirectoryLayout(String description, String[][] segments)
+    {
+        this(description, segments, false);
+    }
+
+
+    private DirectoryLayout(String description, String[][] segments, boolean flat)
+    {
+        this.description = description;
+        this.segments = segments;
+        this.flat = flat;
+    }
+
     /**
-     * Creates a new DirectoryLayout object.
+     * Returns the layout for the given directory path. Layouts are shared, so the path
+     * is only parsed once.
      *
-     * @param  pattern  the directory pattern.
+     * @param   path  the directory path.
+     *
+     * @return  the layout.
      */
-    DirectoryLayout(Pattern pattern)
+    public static DirectoryLayout of(String path)
     {
-        this.pattern = pattern;
+        return LAYOUTS.computeIfAbsent(path, DirectoryLayout::new);
     }
 
+
     /**
      * Returns the path of the given grammar file relative to the common directory if the
      * file path conforms with this directory layout.
@@ -67,17 +101,38 @@ class DirectoryLayout
      */
     public Path getRelativePath(Path file)
     {
-        if (pattern != null)
+        if (segments != null)
         {
-            Matcher matcher = pattern.matcher(file.toString());
+            String path = file.toString();
+            List<Integer> starts = new ArrayList<>();
+            starts.add(0);
 
-            if (matcher.find())
+            for (int i = 0, size = path.length(); i < size; i++)
             {
-                Path parent = file.getFileSystem().getPath(matcher.group(1)).getParent();
+                char c = path.charAt(i);
 
-                if (parent != null)
+                if ((c == '/') || (c == '\\'))
                 {
-                    return parent;
+                    starts.add(i + 1);
+                }
+            }
+
+            // the directory must be preceded and followed by a separator and the last
+            // occurrence wins
+            for (int i = starts.size() - segments.length - 1; i > 0; i--)
+            {
+                if (matches(path, starts, i))
+                {
+                    Path parent = file.getFileSystem()
+                        .getPath(path.substring(starts.get(i + segments.length)))
+                        .getParent();
+
+                    if (parent != null)
+                    {
+                        return parent;
+                    }
+
+                    break;
                 }
             }
         }
@@ -100,6 +155,52 @@ class DirectoryLayout
     @Override
     public String toString()
     {
-        return (pattern != null) ? pattern.pattern() : "";
+        return description;
+    }
+
+
+    private static String[][] segments(String path)
+    {
+        int start = (path.startsWith("/") || path.startsWith("\\")) ? 1 : 0;
+        int end = (path.endsWith("/") || path.endsWith("\\")) ? path.length() - 1
+                                                              : path.length();
+        String[] names = (start < end) ? path.substring(start, end).split("[\\\\/]", -1)
+                                       : new String[0];
+        String[][] result = new String[names.length][];
+
+        for (int i = 0; i < names.length; i++)
+        {
+            result[i] = new String[] { names[i] };
+        }
+
+        return result;
+    }
+
+
+    private boolean matches(String path, List<Integer> starts, int index)
+    {
+        for (int i = 0; i < segments.length; i++)
+        {
+            int start = starts.get(index + i);
+            int length = starts.get(index + i + 1) - 1 - start;
+            boolean found = false;
+
+            for (String name : segments[i])
+            {
+                if ((name.length() == length) && path.startsWith(name, start))
+                {
+                    found = true;
+
+                    break;
+                }
+            }
+
+            if (!found)
+            {
+                return false;
+            }
+        }
+
+        return true;
     }
 }
@@ -0,0 +1,142 @@
+package org.antlr.bazel;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Classifies generated files by their extension. Every target language provides its
+ * own table, see {@link Language#getFileTypes()}.
+ */
+final class FileTypes
+{
+    /** The table for languages where all generated files are source files. */
+    static final FileTypes DEFAULT = new FileTypes(Role.SOURCE);
+
+    /** The table for C, C++ and Objective-C. */
+    static final FileTypes C = new FileTypes(Role.DATA)
+        .with(Role.SOURCE, "c", "cc", "cpp", "cxx", "c++", "C", "m", "mm")
+        .with(Role.HEADER,
+            "h",
+            "hh",
+            "hpp",
+            "hxx",
+            "h++",
+            "inc",
+            "inl",
+            "ipp",
+            "pch",
+            "tlh",
+            "tli",
+            "H");
+
+    /** The table for Go. */
+    static final FileTypes GO = new FileTypes(Role.DATA).with(Role.SOURCE, "go");
+
+    private final Role fallback;
+    private final Map<String, Role> roles;
+
+    /**
+     * Creates a new FileTypes object.
+     *
+     * @param  fallback  the role of files with unknown extensions.
+     */
+    FileTypes(Role fallback)
+    {
+        this(fallback, Collections.singletonMap("log", Role.LOG));
+    }
+
+
+    private FileTypes(Role fallback, Map<String, Role> roles)
+    {
+        this.fallback = fallback;
+        this.roles = roles;
+    }
+
+    /**
+     * Returns the role of the given file.
+     *
+     * @param   file  the file.
+     *
+     * @return  the role.
+     */
+    public Role classify(Path file)
+    {
+        return classify(file.getFileName().toString());
+    }
+
+
+    /**
+     * Returns the role of the given file.
+     *
+     * @param   fileName  the file name.
+     *
+     * @return  the role.
+     */
+    public Role classify(String fileName)
+    {
+        int dot = fileName.lastIndexOf('.');
+
+        if (dot == -1)
+        {
+            return fallback;
+        }
+
+        String extension = fileName.substring(dot + 1);
+
+        // for extended grammars ANTLR 2 creates a new grammar file that merges the two
+        // grammars and must be ignored
+        if (extension.equals("g") && fileName.startsWith("expanded"))
+        {
+            return Role.DISCARD;
+        }
+
+        Role role = roles.get(extension);
+
+        return (role != null) ? role : fallback;
+    }
+
+
+    /**
+     * Returns a copy of this table that assigns the given role to the given extensions.
+     *
+     * @param   role        the role.
+     * @param   extensions  the file extensions without leading dot (case-sensitive).
+     *
+     * @return  the new table.
+     */
+    public FileTypes with(Role role, String... extensions)
+    {
+        Map<String, Role> result = new HashMap<>(roles);
+
+        for (String extension : extensions)
+        {
+            result.put(extension, role);
+        }
+
+        return new FileTypes(fallback, Collections.unmodifiableMap(result));
+    }
+
+    /**
+     * Enumeration of the roles of generated files.
+     */
+    enum Role
+    {
+        /** A source file that is stored below its namespace. */
+        SOURCE,
+
+        /** A header file that is stored below its namespace in the include directory. */
+        HEADER,
+
+        /** A supporting file, like a .tokens or .interp file. */
+        DATA,
+
+        /** A log file. */
+        LOG,
+
+        /** An intermediate file that must not be kept. */
+        DISCARD;
+    }
+}
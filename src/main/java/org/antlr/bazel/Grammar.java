@@ -39,6 +39,7 @@ class Grammar implements Comparable<Grammar>
     public final Path path;
 
     private final DirectoryLayout layout;
+    private final Path namespacePath;
 
     /**
      * Creates a new Grammar object.
@@ -63,11 +64,15 @@ class Grammar implements Comparable<Grammar>
         this.path = path;
         this.encoding = encoding;
         this.language = (language != null) ? language : Language.detect(text);
-        this.layout = (layout != null) ? new DirectoryLayout(layout)
+        this.layout = (layout != null) ? DirectoryLayout.of(layout)
                                        : this.language.getLayout();
         this.namespace = namespace(namespace, text);
         this.names = detectNames(version, text);
         this.imports = detectImports(text);
+
+        // flat layout might be forced for namespace
+        this.namespacePath = path.getFileSystem()
+            .getPath(this.layout.isFlat() ? "" : this.namespace.toPath(this.language));
     }
 
     @Override
@@ -119,9 +124,7 @@ class Grammar implements Comparable<Grammar>
      */
     public Path getNamespacePath()
     {
-        // flat layout might be forced for namespace
-        return path.getFileSystem()
-            .getPath(layout.isFlat() ? "" : namespace.toPath(language));
+        return namespacePath;
     }
 
 
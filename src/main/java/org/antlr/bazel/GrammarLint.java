@@ -0,0 +1,789 @@
+package org.antlr.bazel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+
+/**
+ * Reports grammar constructs that are likely expensive at parse time. The analysis works
+ * on the ATN that the ANTLR 4 tool builds for a grammar and looks for left-recursive rules
+ * with many precedence levels, decisions that may need unbounded lookahead, semantic
+ * predicates in rules that are invoked repeatedly and greedy wildcard loops in lexer
+ * rules. The findings are heuristics, a grammar that triggers them might still perform
+ * well for the actual input.
+ */
+class GrammarLint
+{
+    /** The maximal number of precedence levels of a left-recursive rule. */
+    static final int PRECEDENCE_LEVELS = 16;
+
+    /** ATN state types as serialized by ANTLR 4. */
+    static final int BASIC = 1;
+    static final int RULE_START = 2;
+    static final int BLOCK_START = 3;
+    static final int PLUS_BLOCK_START = 4;
+    static final int STAR_BLOCK_START = 5;
+    static final int TOKEN_START = 6;
+    static final int RULE_STOP = 7;
+    static final int BLOCK_END = 8;
+    static final int STAR_LOOP_BACK = 9;
+    static final int STAR_LOOP_ENTRY = 10;
+    static final int PLUS_LOOP_BACK = 11;
+    static final int LOOP_END = 12;
+
+    /** ATN transition types as serialized by ANTLR 4. */
+    static final int EPSILON = 1;
+    static final int RANGE = 2;
+    static final int RULE = 3;
+    static final int PREDICATE = 4;
+    static final int ATOM = 5;
+    static final int ACTION = 6;
+    static final int SET = 7;
+    static final int NOT_SET = 8;
+    static final int WILDCARD = 9;
+    static final int PRECEDENCE = 10;
+
+    /** Creates a new GrammarLint object. */
+    private GrammarLint()
+    {
+        super();
+    }
+
+    /**
+     * Checks the given grammar and its implicit lexer, if any.
+     *
+     * @param   grammar  the grammar as loaded by the ANTLR 4 tool.
+     *
+     * @return  the descriptions of the findings, empty if nothing was found.
+     *
+     * @throws  ReflectiveOperationException  if the grammar could not be read.
+     */
+    public static List<String> check(Object grammar) throws ReflectiveOperationException
+    {
+        List<String> result = new ArrayList<>();
+        Object lexer = field(grammar, "implicitLexer");
+
+        if (lexer != null)
+        {
+            result.addAll(analyze(read(lexer)));
+        }
+
+        result.addAll(analyze(read(grammar)));
+
+        return result;
+    }
+
+
+    /**
+     * Analyzes the given ATN.
+     *
+     * @param   atn  the ATN.
+     *
+     * @return  the descriptions of the findings in rule order.
+     */
+    static List<String> analyze(Atn atn)
+    {
+        int rules = atn.rules.length;
+        List<Set<Integer>> calls = new ArrayList<>(rules);
+
+        for (int i = 0; i < rules; i++)
+        {
+            calls.add(new TreeSet<>());
+        }
+
+        BitSet loops = new BitSet();
+        BitSet hot = new BitSet();
+
+        for (State state : atn.states)
+        {
+            for (Transition transition : state.transitions)
+            {
+                if (transition.type == RULE)
+                {
+                    calls.get(state.rule).add(transition.target.rule);
+                }
+            }
+
+            State body = body(state);
+
+            if (body != null)
+            {
+                loops.set(state.rule);
+
+                // rules invoked within a loop are invoked repeatedly
+                Set<Integer> callees = new HashSet<>();
+                reach(body, state, null, callees);
+
+                for (int callee : callees)
+                {
+                    hot.set(callee);
+                }
+            }
+        }
+
+        BitSet recursive = new BitSet();
+
+        for (int rule = 0; rule < rules; rule++)
+        {
+            BitSet start = new BitSet();
+            start.set(rule);
+
+            if (closure(calls, start).get(rule))
+            {
+                recursive.set(rule);
+            }
+        }
+
+        // rules invoked by hot rules are hot as well
+        hot.or(recursive);
+        hot.or(closure(calls, hot));
+
+        // rules that can match input of arbitrary length
+        BitSet unbounded = (BitSet) loops.clone();
+        unbounded.or(recursive);
+
+        for (boolean changed = true; changed;)
+        {
+            changed = false;
+
+            for (int rule = unbounded.nextClearBit(0); rule < rules;
+                    rule = unbounded.nextClearBit(rule + 1))
+            {
+                for (int callee : calls.get(rule))
+                {
+                    if (unbounded.get(callee))
+                    {
+                        unbounded.set(rule);
+                        changed = true;
+
+                        break;
+                    }
+                }
+            }
+        }
+
+        List<String> result = new ArrayList<>();
+
+        for (int rule = 0; rule < rules; rule++)
+        {
+            if (atn.lexer)
+            {
+                wildcards(atn, rule, result);
+                predicates(atn, rule, true, result);
+            }
+            else
+            {
+                precedence(atn, rule, result);
+                lookahead(atn, rule, unbounded, result);
+
+                if (hot.get(rule))
+                {
+                    predicates(atn, rule, false, result);
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Reads the ATN of the given grammar.
+     *
+     * @param   grammar  the grammar as loaded by the ANTLR 4 tool.
+     *
+     * @return  the ATN.
+     *
+     * @throws  ReflectiveOperationException  if the grammar could not be read.
+     */
+    static Atn read(Object grammar) throws ReflectiveOperationException
+    {
+        // use reflection so we are not tied to a specific ANTLR version
+        Atn result = new Atn((String) field(grammar, "name"),
+                (Boolean) call(grammar, "isLexer"),
+                (String[]) call(grammar, "getRuleNames"));
+        List<?> states = (List<?>) field(field(grammar, "atn"), "states");
+        List<?> lookahead = (List<?>) field(grammar, "decisionLOOK");
+        Map<Object, State> mapping = new IdentityHashMap<>();
+
+        for (Object state : states)
+        {
+            if (state != null)
+            {
+                mapping.put(state,
+                    result.state((Integer) call(state, "getStateType"),
+                        (Integer) field(state, "ruleIndex")));
+            }
+        }
+
+        for (Object state : states)
+        {
+            if (state == null)
+            {
+                continue;
+            }
+
+            State target = mapping.get(state);
+
+            switch (target.type)
+            {
+                case RULE_START :
+                {
+                    target.leftRecursive = (Boolean) field(state, "isLeftRecursiveRule");
+
+                    break;
+                }
+
+                case RULE_STOP :
+                {
+                    // the follow links lead into the invoking rules
+                    continue;
+                }
+
+                case STAR_LOOP_ENTRY :
+                {
+                    target.precedenceDecision = (Boolean) field(state,
+                            "isPrecedenceDecision");
+                    target.loopBack = mapping.get(field(state, "loopBackState"));
+
+                    break;
+                }
+
+                default :
+            }
+
+            if ((target.type == BLOCK_START) || (target.type == PLUS_BLOCK_START)
+                || (target.type == STAR_BLOCK_START))
+            {
+                target.end = mapping.get(field(state, "endState"));
+            }
+
+            if (target.isDecision())
+            {
+                target.decision = (Integer) field(state, "decision");
+                target.greedy = !(Boolean) field(state, "nonGreedy");
+
+                if ((lookahead != null) && (target.decision >= 0)
+                    && (target.decision < lookahead.size()))
+                {
+                    target.conflicts = conflicts((Object[]) lookahead.get(target.decision));
+                }
+            }
+
+            for (int i = 0, size = (Integer) call(state, "getNumberOfTransitions"); i < size;
+                    i++)
+            {
+                Object transition = state.getClass().getMethod("transition", int.class)
+                    .invoke(state, i);
+                Transition edge = target.add((Integer) call(transition,
+                            "getSerializationType"),
+                        mapping.get(field(transition, "target")));
+
+                if (edge.type == RULE)
+                {
+                    edge.follow = mapping.get(field(transition, "followState"));
+                }
+                else if (edge.type == PRECEDENCE)
+                {
+                    edge.precedence = (Integer) field(transition, "precedence");
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Returns the first state of the body of the given loop.
+     *
+     * @param   loop  the state.
+     *
+     * @return  the first state of the body or {@code null} if the given state does not
+     *          decide whether to enter the body of a loop.
+     */
+    private static State body(State loop)
+    {
+        if (((loop.type == STAR_LOOP_ENTRY) && !loop.precedenceDecision)
+            || (loop.type == PLUS_LOOP_BACK))
+        {
+            for (Transition transition : loop.transitions)
+            {
+                if ((transition.target.type == STAR_BLOCK_START)
+                    || (transition.target.type == PLUS_BLOCK_START))
+                {
+                    return transition.target;
+                }
+            }
+        }
+
+        return null;
+    }
+
+
+    private static Object call(Object target, String name)
+        throws ReflectiveOperationException
+    {
+        return target.getClass().getMethod(name).invoke(target);
+    }
+
+
+    /**
+     * Returns all rules that are reachable from the given rules.
+     *
+     * @param   calls  the invoked rules by rule.
+     * @param   rules  the rules to start with.
+     *
+     * @return  the reachable rules, includes the given rules only if they are reachable
+     *          from one of them.
+     */
+    private static BitSet closure(List<Set<Integer>> calls, BitSet rules)
+    {
+        BitSet result = new BitSet();
+        Deque<Integer> todo = new ArrayDeque<>();
+        rules.stream().forEach(todo::push);
+
+        while (!todo.isEmpty())
+        {
+            for (int callee : calls.get(todo.pop()))
+            {
+                if (!result.get(callee))
+                {
+                    result.set(callee);
+                    todo.push(callee);
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Determines the alternatives whose LL(1) lookahead overlaps with the lookahead of
+     * another alternative.
+     *
+     * @param   lookahead  the lookahead sets by alternative as computed by the tool.
+     *
+     * @return  the flags by alternative or {@code null} if the decision is LL(1).
+     *
+     * @throws  ReflectiveOperationException  if a set could not be read.
+     */
+    private static boolean[] conflicts(Object[] lookahead)
+        throws ReflectiveOperationException
+    {
+        if (lookahead == null)
+        {
+            return null;
+        }
+
+        boolean[] result = new boolean[lookahead.length];
+        boolean conflict = false;
+
+        for (int i = 0; i < lookahead.length; i++)
+        {
+            for (int j = i + 1; j < lookahead.length; j++)
+            {
+                // the tool fails to compute the set if a predicate is hit
+                if ((lookahead[i] == null) || (lookahead[j] == null)
+                    || !intersection(lookahead[i], lookahead[j]))
+                {
+                    continue;
+                }
+
+                result[i] = result[j] = conflict = true;
+            }
+
+            if (lookahead[i] == null)
+            {
+                result[i] = conflict = true;
+            }
+        }
+
+        return conflict ? result : null;
+    }
+
+
+    private static Object field(Object target, String name)
+        throws ReflectiveOperationException
+    {
+        return target.getClass().getField(name).get(target);
+    }
+
+
+    private static boolean intersection(Object set, Object other)
+        throws ReflectiveOperationException
+    {
+        Class<?> type = Class.forName("org.antlr.v4.runtime.misc.IntSet", false,
+                set.getClass().getClassLoader());
+        Object result = set.getClass().getMethod("and", type).invoke(set, other);
+
+        return (result != null) && !(Boolean) call(result, "isNil");
+    }
+
+
+    private static void lookahead(Atn atn, int rule, BitSet unbounded, List<String> result)
+    {
+        for (State state : atn.states)
+        {
+            if ((state.rule != rule) || (state.conflicts == null) || state.precedenceDecision)
+            {
+                continue;
+            }
+
+            int alternatives = 0;
+
+            for (int i = 0; i < state.conflicts.length; i++)
+            {
+                if (!state.conflicts[i] || (i >= state.transitions.size()))
+                {
+                    continue;
+                }
+
+                Set<Integer> callees = new HashSet<>();
+                Set<State> reached = reach(state.transitions.get(i).target, state, state,
+                        callees);
+                boolean loop = callees.stream().anyMatch(unbounded::get);
+
+                for (State other : reached)
+                {
+                    loop |= (other.type == STAR_LOOP_ENTRY) || (other.type == PLUS_LOOP_BACK);
+                }
+
+                if (loop)
+                {
+                    alternatives++;
+                }
+            }
+
+            if (alternatives > 1)
+            {
+                result.add(String.format(
+                        "Decision %d in rule '%s' of grammar %s is not LL(1) and %d of its "
+                        + "alternatives can match input of arbitrary length, so prediction "
+                        + "may have to look ahead arbitrarily far. Consider left-factoring "
+                        + "the common prefix of the alternatives",
+                        state.decision,
+                        atn.rules[rule],
+                        atn.grammar,
+                        alternatives));
+            }
+        }
+    }
+
+
+    private static void precedence(Atn atn, int rule, List<String> result)
+    {
+        Set<Integer> levels = new TreeSet<>();
+        boolean leftRecursive = false;
+
+        for (State state : atn.states)
+        {
+            if (state.rule != rule)
+            {
+                continue;
+            }
+
+            leftRecursive |= (state.type == RULE_START) && state.leftRecursive;
+
+            for (Transition transition : state.transitions)
+            {
+                if (transition.type == PRECEDENCE)
+                {
+                    levels.add(transition.precedence);
+                }
+            }
+        }
+
+        if (leftRecursive && (levels.size() > PRECEDENCE_LEVELS))
+        {
+            result.add(String.format(
+                    "Rule '%s' of grammar %s is left-recursive with %d precedence levels, "
+                    + "more than %d. All operators are predicted by a single loop decision "
+                    + "whose alternatives are guarded by precedence predicates, so "
+                    + "prediction gets more expensive with every level",
+                    atn.rules[rule],
+                    atn.grammar,
+                    levels.size(),
+                    PRECEDENCE_LEVELS));
+        }
+    }
+
+
+    private static void predicates(Atn atn, int rule, boolean lexer, List<String> result)
+    {
+        int count = 0;
+
+        for (State state : atn.states)
+        {
+            if (state.rule == rule)
+            {
+                for (Transition transition : state.transitions)
+                {
+                    if (transition.type == PREDICATE)
+                    {
+                        count++;
+                    }
+                }
+            }
+        }
+
+        if (count == 0)
+        {
+            return;
+        }
+
+        if (lexer)
+        {
+            result.add(String.format(
+                    "Lexer rule '%s' of grammar %s contains %d semantic predicate%s. The "
+                    + "lexer does not cache DFA transitions for input that reaches a "
+                    + "predicate, so such input is always matched against the ATN",
+                    atn.rules[rule],
+                    atn.grammar,
+                    count,
+                    (count == 1) ? "" : "s"));
+        }
+        else
+        {
+            result.add(String.format(
+                    "Rule '%s' of grammar %s is invoked repeatedly, in a loop or "
+                    + "recursively, and contains %d semantic predicate%s. Predicates are "
+                    + "evaluated on every prediction that reaches them",
+                    atn.rules[rule],
+                    atn.grammar,
+                    count,
+                    (count == 1) ? "" : "s"));
+        }
+    }
+
+
+    /**
+     * Returns the states of a rule that are reachable from the given state. Invoked rules
+     * are skipped and the traversal continues with the follow state.
+     *
+     * @param   start     the state to start with.
+     * @param   stop      the state to stop at.
+     * @param   decision  the decision whose block or loop body limits the traversal.
+     *                    Might be {@code null}.
+     * @param   callees   receives the invoked rules.
+     *
+     * @return  the reachable states.
+     */
+    private static Set<State> reach(State start,
+        State stop,
+        State decision,
+        Set<Integer> callees)
+    {
+        Set<State> result = new HashSet<>();
+        Deque<State> todo = new ArrayDeque<>();
+        todo.push(start);
+
+        while (!todo.isEmpty())
+        {
+            State state = todo.pop();
+
+            if ((state == null) || (state == stop) || !result.add(state))
+            {
+                continue;
+            }
+
+            // the exit branch of a loop continues with the rest of the rule
+            if ((decision != null)
+                && ((state == decision.end) || (state == decision.loopBack)))
+            {
+                continue;
+            }
+
+            for (Transition transition : state.transitions)
+            {
+                if (transition.type == RULE)
+                {
+                    callees.add(transition.target.rule);
+                    todo.push(transition.follow);
+                }
+                else
+                {
+                    todo.push(transition.target);
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    private static void wildcards(Atn atn, int rule, List<String> result)
+    {
+        for (State state : atn.states)
+        {
+            State body = ((state.rule == rule) && state.greedy) ? body(state) : null;
+
+            if (body == null)
+            {
+                continue;
+            }
+
+            // the wildcard must be matched before any other input in the loop
+            Set<State> visited = new HashSet<>();
+            Deque<State> todo = new ArrayDeque<>();
+            todo.push(body);
+
+            while (!todo.isEmpty())
+            {
+                State current = todo.pop();
+
+                if (!visited.add(current))
+                {
+                    continue;
+                }
+
+                for (Transition transition : current.transitions)
+                {
+                    if (transition.type == WILDCARD)
+                    {
+                        result.add(String.format(
+                                "Lexer rule '%s' of grammar %s contains a greedy loop over "
+                                + "the wildcard that reads the rest of the input before "
+                                + "it falls back to the longest match. Consider a "
+                                + "non-greedy loop (.*?) or a negated set instead",
+                                atn.rules[rule],
+                                atn.grammar));
+
+                        return;
+                    }
+
+                    if ((transition.type == EPSILON) || (transition.type == ACTION)
+                        || (transition.type == PREDICATE))
+                    {
+                        todo.push(transition.target);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The ATN of a grammar, reduced to what the analysis needs.
+     */
+    static final class Atn
+    {
+        final String grammar;
+        final boolean lexer;
+        final String[] rules;
+        final List<State> states = new ArrayList<>();
+
+        /**
+         * Creates a new Atn object.
+         *
+         * @param  grammar  the grammar name.
+         * @param  lexer    {@code true} for lexer grammars.
+         * @param  rules    the rule names.
+         */
+        Atn(String grammar, boolean lexer, String... rules)
+        {
+            this.grammar = grammar;
+            this.lexer = lexer;
+            this.rules = rules;
+        }
+
+        /**
+         * Adds a new state.
+         *
+         * @param   type  the state type.
+         * @param   rule  the index of the rule the state belongs to.
+         *
+         * @return  the state.
+         */
+        State state(int type, int rule)
+        {
+            State result = new State(type, rule);
+            states.add(result);
+
+            return result;
+        }
+    }
+
+    /**
+     * An ATN state.
+     */
+    static final class State
+    {
+        /** The alternatives with conflicting LL(1) lookahead, {@code null} for LL(1). */
+        boolean[] conflicts;
+        int decision = -1;
+        State end;
+        boolean greedy = true;
+        boolean leftRecursive;
+        State loopBack;
+        boolean precedenceDecision;
+        final int rule;
+        final List<Transition> transitions = new ArrayList<>();
+        final int type;
+
+        State(int type, int rule)
+        {
+            this.type = type;
+            this.rule = rule;
+        }
+
+        /**
+         * Adds a new transition.
+         *
+         * @param   type    the transition type.
+         * @param   target  the target state.
+         *
+         * @return  the transition.
+         */
+        Transition add(int type, State target)
+        {
+            Transition result = new Transition(type, target);
+            transitions.add(result);
+
+            return result;
+        }
+
+
+        boolean isDecision()
+        {
+            switch (type)
+            {
+                case BLOCK_START :
+                case PLUS_BLOCK_START :
+                case STAR_BLOCK_START :
+                case TOKEN_START :
+                case STAR_LOOP_ENTRY :
+                case PLUS_LOOP_BACK :
+                    return true;
+
+                default :
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * An ATN transition.
+     */
+    static final class Transition
+    {
+        State follow;
+        int precedence;
+        final State target;
+        final int type;
+
+        Transition(int type, State target)
+        {
+            this.type = type;
+            this.target = target;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package org.antlr.bazel;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Finds compiled methods that exceed the HotSpot {@code HugeMethodLimit}. The JIT
+ * compilers skip methods with more bytecode, so large parser rules would be interpreted
+ * forever. The methods are mapped back to the grammar rules they were generated for.
+ */
+class HugeMethods
+{
+    /** The default HotSpot limit in bytes of bytecode. */
+    static final int LIMIT = 8000;
+
+    /** Matches the rule names array for ANTLR 4.7 and later releases. */
+    private static final Pattern RULE_NAMES = Pattern.compile(
+            "(?:ruleNames\\s*=|makeRuleNames\\(\\)\\s*\\{\\s*return\\s+new\\s+String\\[\\])"
+            + "\\s*\\{([^}]*)\\}");
+
+    private static final Pattern STRING = Pattern.compile("\"(\\w+)\"");
+
+    /** Creates a new HugeMethods object. */
+    private HugeMethods()
+    {
+        super();
+    }
+
+    /**
+     * Returns a description of every method above the limit.
+     *
+     * @param   jar       the compiled classes.
+     * @param   srcjar    the generated sources.
+     * @param   encoding  the encoding of the source files.
+     *
+     * @return  the descriptions, empty if no method exceeds the limit.
+     *
+     * @throws  IOException  if an I/O error occurred.
+     */
+    public static List<String> find(Path jar, Path srcjar, Charset encoding)
+        throws IOException
+    {
+        Map<String, Map<String, Integer>> huge = new LinkedHashMap<>();
+
+        try (JarInputStream in = new JarInputStream(Files.newInputStream(jar)))
+        {
+            for (JarEntry entry; (entry = in.getNextJarEntry()) != null;)
+            {
+                if (entry.getName().endsWith(".class"))
+                {
+                    Map<String, Integer> methods = new LinkedHashMap<>();
+
+                    for (Map.Entry<String, Integer> method : sizes(in).entrySet())
+                    {
+                        if (method.getValue() > LIMIT)
+                        {
+                            methods.put(method.getKey(), method.getValue());
+                        }
+                    }
+
+                    if (!methods.isEmpty())
+                    {
+                        huge.put(entry.getName().replaceFirst("\\.class$", ""), methods);
+                    }
+                }
+            }
+        }
+
+        if (huge.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+
+        List<String> result = new ArrayList<>();
+        URI uri = URI.create("jar:file:" + srcjar.toUri().getPath());
+
+        try (FileSystem archive = FileSystems.newFileSystem(uri,
+                new HashMap<String, String>()))
+        {
+            for (Map.Entry<String, Map<String, Integer>> type : huge.entrySet())
+            {
+                // nested classes belong to the rules of their top-level class
+                String name = type.getKey().replaceFirst("\\$.*", "");
+                Path source = archive.getPath("/" + name + ".java");
+                Set<String> rules = Files.exists(source)
+                    ? rules(new String(Files.readAllBytes(source), encoding))
+                    : Collections.<String>emptySet();
+
+                for (Map.Entry<String, Integer> method : type.getValue().entrySet())
+                {
+                    result.add(describe(type.getKey().replace('/', '.'),
+                            method.getKey(),
+                            method.getValue(),
+                            rules.contains(method.getKey())));
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Returns the bytecode sizes of the methods of the given class file.
+     *
+     * @param   classFile  the class file contents.
+     *
+     * @return  the bytecode sizes by method name. Overloaded methods report the largest
+     *          size.
+     *
+     * @throws  IOException  if an I/O error occurred.
+     */
+    static Map<String, Integer> sizes(InputStream classFile) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(classFile));
+
+        if (in.readInt() != 0xCAFEBABE)
+        {
+            throw new IOException("Not a class file");
+        }
+
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        // only the UTF-8 entries are needed to resolve names
+        String[] strings = constants(in);
+
+        in.readUnsignedShort(); // access flags
+        in.readUnsignedShort(); // this class
+        in.readUnsignedShort(); // super class
+        skip(in, in.readUnsignedShort() * 2); // interfaces
+
+        for (int i = 0, fields = in.readUnsignedShort(); i < fields; i++)
+        {
+            skip(in, 6);
+            skipAttributes(in);
+        }
+
+        Map<String, Integer> result = new LinkedHashMap<>();
+
+        for (int i = 0, methods = in.readUnsignedShort(); i < methods; i++)
+        {
+            in.readUnsignedShort(); // access flags
+
+            String name = strings[in.readUnsignedShort()];
+
+            in.readUnsignedShort(); // descriptor
+
+            for (int j = 0, attributes = in.readUnsignedShort(); j < attributes; j++)
+            {
+                String attribute = strings[in.readUnsignedShort()];
+                int length = in.readInt();
+
+                if ("Code".equals(attribute))
+                {
+                    in.readUnsignedShort(); // max stack
+                    in.readUnsignedShort(); // max locals
+
+                    int size = in.readInt();
+                    result.merge(name, size, Math::max);
+                    skip(in, length - 8);
+                }
+                else
+                {
+                    skip(in, length);
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    private static String[] constants(DataInputStream in) throws IOException
+    {
+        String[] result = new String[in.readUnsignedShort()];
+
+        for (int i = 1; i < result.length; i++)
+        {
+            int tag = in.readUnsignedByte();
+
+            switch (tag)
+            {
+                case 1 : // Utf8
+                    result[i] = in.readUTF();
+                    break;
+
+                case 7 : // Class
+                case 8 : // String
+                case 16 : // MethodType
+                case 19 : // Module
+                case 20 : // Package
+                    skip(in, 2);
+                    break;
+
+                case 15 : // MethodHandle
+                    skip(in, 3);
+                    break;
+
+                case 3 : // Integer
+                case 4 : // Float
+                case 9 : // Fieldref
+                case 10 : // Methodref
+                case 11 : // InterfaceMethodref
+                case 12 : // NameAndType
+                case 17 : // Dynamic
+                case 18 : // InvokeDynamic
+                    skip(in, 4);
+                    break;
+
+                case 5 : // Long
+                case 6 : // Double
+                    skip(in, 8);
+
+                    // takes two entries
+                    i++;
+                    break;
+
+                default :
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        return result;
+    }
+
+
+    private static String describe(String type, String method, int size, boolean rule)
+    {
+        StringBuilder buf = new StringBuilder();
+
+        if ("<clinit>".equals(method))
+        {
+            buf.append("The static initializer of ").append(type);
+        }
+        else if ("<init>".equals(method))
+        {
+            buf.append("A constructor of ").append(type);
+        }
+        else
+        {
+            buf.append(type).append('.').append(method).append("()");
+        }
+
+        buf.append(String.format(
+                " has %d bytes of bytecode, more than the HugeMethodLimit of %d, so it "
+                + "will not be JIT-compiled",
+                size,
+                LIMIT));
+
+        if (rule)
+        {
+            buf.append(String.format(". Consider splitting rule '%s' into smaller rules",
+                    method));
+        }
+
+        return buf.toString();
+    }
+
+
+    private static Set<String> rules(String source)
+    {
+        Set<String> result = new HashSet<>();
+        Matcher m = RULE_NAMES.matcher(source);
+
+        if (m.find())
+        {
+            Matcher names = STRING.matcher(m.group(1));
+
+            while (names.find())
+            {
+                result.add(names.group(1));
+            }
+        }
+
+        return result;
+    }
+
+
+    private static void skip(DataInputStream in, int bytes) throws IOException
+    {
+        in.readFully(new byte[bytes]);
+    }
+
+
+    private static void skipAttributes(DataInputStream in) throws IOException
+    {
+        for (int i = 0, attributes = in.readUnsignedShort(); i < attributes; i++)
+        {
+            in.readUnsignedShort(); // name
+            skip(in, in.readInt());
+        }
+    }
+}
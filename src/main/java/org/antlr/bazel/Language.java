@@ -41,6 +41,13 @@ enum Language
         {
             return LAYOUT;
         }
+
+
+        @Override
+        public FileTypes getFileTypes()
+        {
+            return FileTypes.C;
+        }
     },
 
     /** The C++ target language. */
@@ -74,6 +81,13 @@ enum Language
         {
             return LAYOUT;
         }
+
+
+        @Override
+        public FileTypes getFileTypes()
+        {
+            return FileTypes.C;
+        }
     },
 
     /** The C# target language. */
@@ -152,13 +166,19 @@ enum Language
         {
             return layout;
         }
+
+
+        @Override
+        public FileTypes getFileTypes()
+        {
+            return FileTypes.GO;
+        }
     },
 
     /** The Java target language. */
     JAVA
     {
-        private final DirectoryLayout layout = new DirectoryLayout(
-            Pattern.compile(".*[\\\\/]src[\\\\/]main[\\\\/]antlr[234]?[\\\\/](.*)"));
+        private final DirectoryLayout layout = DirectoryLayout.MAVEN;
 
         @Override
         public String toPath(String namespace)
@@ -259,6 +279,13 @@ enum Language
         {
             return layout;
         }
+
+
+        @Override
+        public FileTypes getFileTypes()
+        {
+            return FileTypes.C;
+        }
     },
 
     /** The Python target language. */
@@ -390,8 +417,7 @@ enum Language
     private static final Pattern PACKAGE = Pattern.compile("package\\s+(.+?)\\s*;?\\s*$",
         Pattern.DOTALL | Pattern.MULTILINE);
 
-    private static final DirectoryLayout LAYOUT = new DirectoryLayout(
-        DirectoryLayout.PATH);
+    private static final DirectoryLayout LAYOUT = DirectoryLayout.PATH;
 
     /**
      * Determines the namespace from the grammar header when present.
@@ -404,6 +430,17 @@ enum Language
     public abstract Namespace detectNamespace(String grammar);
 
 
+    /**
+     * Returns the table to classify generated files.
+     *
+     * @return  the file types.
+     */
+    public FileTypes getFileTypes()
+    {
+        return FileTypes.DEFAULT;
+    }
+
+
     /**
      * Returns the default source directory.
      *
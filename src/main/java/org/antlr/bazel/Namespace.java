@@ -1,20 +1,35 @@
 package org.antlr.bazel;
 
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
- * Represents a namespace.
+ * Represents a namespace. Namespaces are interned, so there is usually only one instance
+ * per identifier and origin, and they cache their file paths per target language. Only
+ * the most recently used namespaces are kept, so a long-running batch does not
+ * accumulate them. Equality does not depend on the identity.
  *
  * @author  Marco Hunsicker
  */
 class Namespace
 {
+    /** The maximal number of interned namespaces per origin. */
+    static final int CAPACITY = 1024;
+
+    private static final Map<String, Namespace> DERIVED = interned();
+    private static final Map<String, Namespace> HEADERS = interned();
+
     /** The namespace identifier. */
     public final String id;
 
     private final boolean header;
+    private final ConcurrentMap<Language, String> paths = new ConcurrentHashMap<>();
 
     /**
      * Creates a new Namespace object.
@@ -53,7 +68,8 @@ class Namespace
      */
     public static Namespace of(String id, boolean header)
     {
-        return new Namespace(id, header);
+        return (header ? HEADERS : DERIVED).computeIfAbsent(id,
+            i -> new Namespace(i, header));
     }
 
 
@@ -71,6 +87,29 @@ class Namespace
     }
 
 
+    /**
+     * Creates the map for interned namespaces that drops the least recently used entry
+     * once the capacity is exceeded.
+     *
+     * @return  the map.
+     */
+    private static Map<String, Namespace> interned()
+    {
+        // access order, so the eldest entry is the least recently used one
+        return Collections.synchronizedMap(
+            new LinkedHashMap<String, Namespace>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Namespace> eldest)
+                {
+                    return size() > CAPACITY;
+                }
+            });
+    }
+
+
     @Override
     public boolean equals(Object obj)
     {
@@ -133,7 +172,7 @@ class Namespace
      */
     public String toPath(Language language)
     {
-        return language.toPath(id);
+        return paths.computeIfAbsent(language, l -> l.toPath(id));
     }
 
 
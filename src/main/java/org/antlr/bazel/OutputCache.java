@@ -0,0 +1,474 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+
+/**
+ * Content-addressed on-disk cache for generated outputs. Entries are keyed by a digest
+ * of everything that influences code generation and hold a copy of every output
+ * (.srcjar or directory trees) by role, together with the warnings reported while
+ * generating them, so a cache hit reports the same warnings. Outputs are always copied
+ * into and out of the cache, as links would let Bazel and the cache modify each other's
+ * files. The cache is bounded in size and evicts the least recently used entries first.
+ */
+class OutputCache
+{
+    /** The default maximal cache size in bytes. */
+    static final long DEFAULT_SIZE = 1024L * 1024 * 1024;
+
+    private static final String SIZE_FILE = "size";
+
+    /** The name prefix of entries that are still being stored. */
+    private static final String STAGING_PREFIX = ".tmp-";
+
+    /** The name prefix of entries that are being deleted. */
+    private static final String TRASH_PREFIX = ".del-";
+    private static final String WARNINGS_FILE = "warnings";
+
+    private final Path directory;
+    private final long maxSize;
+
+    /**
+     * Creates a new OutputCache object.
+     *
+     * @param  directory  the cache directory.
+     * @param  maxSize    the maximal size of all entries in bytes.
+     */
+    OutputCache(Path directory, long maxSize)
+    {
+        if (maxSize < 1)
+        {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns a new digest to compute the key of an entry.
+     *
+     * @return  a new digest.
+     */
+    public Digest digest()
+    {
+        return new Digest();
+    }
+
+
+    /**
+     * Restores the outputs of the given entry.
+     *
+     * @param   key      the entry key.
+     * @param   outputs  the output files and directories by role.
+     *
+     * @return  the warnings stored with the entry or {@code null} if the entry was not
+     *          found or could not be read.
+     *
+     * @throws  IOException  if an I/O error occurred while cleaning up after a failed
+     *                       restore.
+     */
+    public List<String> restore(String key, Map<String, Path> outputs) throws IOException
+    {
+        Path entry = directory.resolve(key);
+
+        if (!Files.isDirectory(entry))
+        {
+            return null;
+        }
+
+        try
+        {
+            // marks the entry as recently used, which also makes eviction less likely
+            // while we copy
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+
+            List<String> warnings = Files.exists(entry.resolve(WARNINGS_FILE))
+                ? Files.readAllLines(entry.resolve(WARNINGS_FILE), StandardCharsets.UTF_8)
+                : new ArrayList<String>();
+
+            for (Map.Entry<String, Path> output : outputs.entrySet())
+            {
+                Path cached = entry.resolve(output.getKey());
+
+                if (Files.exists(cached))
+                {
+                    copy(cached, output.getValue());
+                }
+            }
+
+            return warnings;
+        }
+        catch (IOException ex)
+        {
+            // the entry might have been evicted by another process in the meantime, the
+            // outputs are generated instead
+            for (Path output : outputs.values())
+            {
+                clear(output);
+            }
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Stores the given outputs as new entry.
+     *
+     * @param   key       the entry key.
+     * @param   outputs   the output files and directories by role.
+     * @param   warnings  the warnings reported while generating the outputs.
+     *
+     * @throws  IOException  if an I/O error occurred.
+     */
+    public void store(String key, Map<String, Path> outputs, List<String> warnings)
+        throws IOException
+    {
+        Path entry = directory.resolve(key);
+
+        if (Files.exists(entry))
+        {
+            return;
+        }
+
+        // the entry is assembled in a temporary directory and moved in place at once, so
+        // concurrent readers never see a partial entry
+        Path staging = Files.createDirectories(directory)
+            .resolve(STAGING_PREFIX + UUID.randomUUID());
+
+        try
+        {
+            Files.createDirectories(staging);
+
+            long size = 0;
+
+            for (Map.Entry<String, Path> output : outputs.entrySet())
+            {
+                if (Files.exists(output.getValue()))
+                {
+                    size += copy(output.getValue(), staging.resolve(output.getKey()));
+                }
+            }
+
+            Files.write(staging.resolve(WARNINGS_FILE), warnings, StandardCharsets.UTF_8);
+            Files.write(staging.resolve(SIZE_FILE),
+                String.valueOf(size).getBytes(StandardCharsets.UTF_8));
+
+            try
+            {
+                Files.move(staging, entry, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (FileAlreadyExistsException | AtomicMoveNotSupportedException ex)
+            {
+                // another process stored the same entry in the meantime
+            }
+            catch (IOException ex)
+            {
+                // the entry is not stored, the next build is just a miss
+                return;
+            }
+        }
+        finally
+        {
+            delete(staging);
+        }
+
+        evict();
+    }
+
+
+    /**
+     * Removes what a failed restore left behind. Directories are kept as they might be
+     * declared outputs, only their contents are removed.
+     *
+     * @param   output  the output file or directory.
+     *
+     * @throws  IOException  if an I/O error occurred.
+     */
+    private static void clear(Path output) throws IOException
+    {
+        if (Files.isDirectory(output))
+        {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(output))
+            {
+                for (Path child : children)
+                {
+                    delete(child);
+                }
+            }
+        }
+        else
+        {
+            Files.deleteIfExists(output);
+        }
+    }
+
+
+    private static long copy(Path source, Path target) throws IOException
+    {
+        if (!Files.isDirectory(source))
+        {
+            Files.createDirectories(target.getParent());
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+
+            return Files.size(target);
+        }
+
+        long[] size = { 0 };
+
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException
+                {
+                    Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException
+                {
+                    Files.copy(file,
+                        target.resolve(source.relativize(file).toString()),
+                        StandardCopyOption.REPLACE_EXISTING);
+                    size[0] += attrs.size();
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+        return size[0];
+    }
+
+
+    private static void delete(Path path) throws IOException
+    {
+        if (Files.notExists(path))
+        {
+            return;
+        }
+
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException ex)
+                    throws IOException
+                {
+                    Files.delete(dir);
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException
+                {
+                    Files.delete(file);
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+    }
+
+
+    private void evict() throws IOException
+    {
+        List<Path> entries = new ArrayList<>();
+        Map<Path, Long> sizes = new TreeMap<>();
+        Map<Path, FileTime> used = new TreeMap<>();
+        long total = 0;
+
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory))
+        {
+            for (Path child : children)
+            {
+                String name = child.getFileName().toString();
+
+                // skips entries that are still being stored or deleted
+                if (name.startsWith(STAGING_PREFIX) || name.startsWith(TRASH_PREFIX))
+                {
+                    continue;
+                }
+
+                try
+                {
+                    long bytes = Long.parseLong(new String(
+                                Files.readAllBytes(child.resolve(SIZE_FILE)),
+                                StandardCharsets.UTF_8).trim());
+                    used.put(child, Files.getLastModifiedTime(child));
+                    sizes.put(child, bytes);
+                    entries.add(child);
+                    total += bytes;
+                }
+                catch (IOException ex)
+                {
+                    // evicted by another process
+                }
+            }
+        }
+
+        entries.sort(Comparator.comparing(used::get));
+
+        for (Path entry : entries)
+        {
+            if (total <= maxSize)
+            {
+                break;
+            }
+
+            // rename first so readers don't see a partially deleted entry
+            Path trash = directory.resolve(TRASH_PREFIX + UUID.randomUUID());
+
+            try
+            {
+                Files.move(entry, trash, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException ex)
+            {
+                // removed by another process
+                continue;
+            }
+
+            delete(trash);
+            total -= sizes.get(entry);
+        }
+    }
+
+    /**
+     * Computes the key of a cache entry.
+     */
+    static final class Digest
+    {
+        private final MessageDigest digest;
+
+        private Digest()
+        {
+            try
+            {
+                digest = MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        /**
+         * Adds the contents of the given file.
+         *
+         * @param   file  the file.
+         *
+         * @return  this object.
+         *
+         * @throws  IOException  if an I/O error occurred.
+         */
+        public Digest file(Path file) throws IOException
+        {
+            byte[] buffer = new byte[8192];
+
+            try (InputStream in = Files.newInputStream(file))
+            {
+                for (int read; (read = in.read(buffer)) != -1;)
+                {
+                    digest.update(buffer, 0, read);
+                }
+            }
+
+            return this;
+        }
+
+
+        /**
+         * Adds the given string.
+         *
+         * @param   value  the string.
+         *
+         * @return  this object.
+         */
+        public Digest string(String value)
+        {
+            byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+
+            // the length avoids collisions of adjacent values
+            digest.update(String.valueOf(bytes.length).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) ':');
+            digest.update(bytes);
+
+            return this;
+        }
+
+
+        /**
+         * Adds the relative paths and contents of all files below the given directory.
+         *
+         * @param   directory  the directory.
+         *
+         * @return  this object.
+         *
+         * @throws  IOException  if an I/O error occurred.
+         */
+        public Digest tree(Path directory) throws IOException
+        {
+            Map<String, Path> files = new TreeMap<>();
+
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+                {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    {
+                        files.put(directory.relativize(file).toString(), file);
+
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+
+            for (Map.Entry<String, Path> file : files.entrySet())
+            {
+                string(file.getKey());
+                file(file.getValue());
+            }
+
+            return this;
+        }
+
+
+        @Override
+        public String toString()
+        {
+            StringBuilder buf = new StringBuilder(64);
+
+            for (byte b : digest.digest())
+            {
+                buf.append(String.format("%02x", b));
+            }
+
+            return buf.toString();
+        }
+    }
+}
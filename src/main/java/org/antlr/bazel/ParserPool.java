@@ -0,0 +1,179 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+
+/**
+ * Generates pooled drivers for ANTLR 4 Java parsers. A driver keeps one lexer and parser
+ * instance per thread and resets them for every input instead of creating new ones.
+ * Nested parses on the same thread, e.g. of embedded languages from within a listener,
+ * use fresh instances, as the pooled ones are still in use by the outer parse. All
+ * instances of a generated recognizer already share the static DFA and prediction context
+ * caches, so reusing them just avoids the allocation and initialization per input. The
+ * driver offers a batch API that parses several inputs in parallel as well.
+ */
+class ParserPool
+{
+    /** The suffix of driver class names. */
+    static final String SUFFIX = "Pool";
+
+    private static final String LIMIT =
+        "\t\t\t// the DFA only grows while parsing%n"
+        + "\t\t\t%1$s" + DfaCache.SUFFIX + ".checkLimit();%n";
+
+    private static final String TEMPLATE =
+        "%1$s"
+        + "/**%n"
+        + " * Parses with {@link %2$s} and {@link %3$s} instances that are reused per thread.%n"
+        + " * All instances share the static DFA and prediction context caches of the%n"
+        + " * recognizers. Every parse starts with a parser configured like a new instance.%n"
+        + " * The instances drop the input and the listeners once the parse is done. A nested%n"
+        + " * parse on the same thread uses new instances.%n"
+        + " */%n"
+        + "public final class %2$s" + SUFFIX + " {%n"
+        + "\tprivate static final ThreadLocal<Instances> INSTANCES = "
+        + "ThreadLocal.withInitial(Instances::new);%n%n"
+        + "\tprivate %2$s" + SUFFIX + "() {%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Parses the given input with the parser of the current thread.%n"
+        + "\t *%n"
+        + "\t * @param input the input.%n"
+        + "\t * @param rule invokes the start rule on the parser.%n"
+        + "\t * @return the result of the rule function.%n"
+        + "\t */%n"
+        + "\tpublic static <T> T parse(org.antlr.v4.runtime.CharStream input, "
+        + "java.util.function.Function<? super %2$s, ? extends T> rule) {%n"
+        + "\t\tInstances pooled = INSTANCES.get();%n"
+        + "\t\t// a nested parse must not reset the instances of the outer one%n"
+        + "\t\tInstances instances = pooled.inUse ? new Instances() : pooled;%n"
+        + "\t\tinstances.inUse = true;%n"
+        + "\t\tinstances.lexer.setInputStream(input);%n"
+        + "\t\tinstances.lexer.removeErrorListeners();%n"
+        + "\t\tinstances.lexer.addErrorListener("
+        + "org.antlr.v4.runtime.ConsoleErrorListener.INSTANCE);%n"
+        + "\t\t%2$s parser = instances.parser;%n"
+        + "\t\tparser.setTokenStream(new org.antlr.v4.runtime.CommonTokenStream("
+        + "instances.lexer));%n"
+        + "\t\tparser.removeErrorListeners();%n"
+        + "\t\tparser.addErrorListener(org.antlr.v4.runtime.ConsoleErrorListener.INSTANCE);%n"
+        + "\t\tparser.removeParseListeners();%n"
+        + "\t\tparser.setErrorHandler(new org.antlr.v4.runtime.DefaultErrorStrategy());%n"
+        + "\t\tparser.setBuildParseTree(true);%n"
+        + "\t\tparser.getInterpreter().setPredictionMode("
+        + "org.antlr.v4.runtime.atn.PredictionMode.LL);%n"
+        + "\t\ttry {%n"
+        + "\t\t\treturn rule.apply(parser);%n"
+        + "\t\t} finally {%n"
+        + "\t\t\t// the thread might not parse again for a long time%n"
+        + "\t\t\tinstances.release();%n"
+        + "%4$s"
+        + "\t\t}%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Parses the given input with the parser of the current thread.%n"
+        + "\t *%n"
+        + "\t * @param input the input.%n"
+        + "\t * @param rule invokes the start rule on the parser.%n"
+        + "\t * @return the result of the rule function.%n"
+        + "\t */%n"
+        + "\tpublic static <T> T parse(String input, "
+        + "java.util.function.Function<? super %2$s, ? extends T> rule) {%n"
+        + "\t\treturn parse(org.antlr.v4.runtime.CharStreams.fromString(input), rule);%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Parses the given inputs in parallel with the common fork/join pool.%n"
+        + "\t *%n"
+        + "\t * @param inputs the inputs.%n"
+        + "\t * @param rule invokes the start rule on the parser.%n"
+        + "\t * @return the results of the rule function in input order.%n"
+        + "\t */%n"
+        + "\tpublic static <T> java.util.List<T> parseAll(java.util.List<String> inputs, "
+        + "java.util.function.Function<? super %2$s, ? extends T> rule) {%n"
+        + "\t\treturn parseAll(inputs, rule, java.util.concurrent.ForkJoinPool.commonPool());%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Parses the given inputs in parallel with the given executor.%n"
+        + "\t *%n"
+        + "\t * @param inputs the inputs.%n"
+        + "\t * @param rule invokes the start rule on the parser.%n"
+        + "\t * @param executor the executor to parse with.%n"
+        + "\t * @return the results of the rule function in input order.%n"
+        + "\t * @throws java.util.concurrent.CompletionException if parsing an input failed.%n"
+        + "\t */%n"
+        + "\tpublic static <T> java.util.List<T> parseAll(java.util.List<String> inputs, "
+        + "java.util.function.Function<? super %2$s, ? extends T> rule, "
+        + "java.util.concurrent.Executor executor) {%n"
+        + "\t\tjava.util.List<java.util.concurrent.CompletableFuture<T>> futures = "
+        + "new java.util.ArrayList<>(inputs.size());%n"
+        + "\t\tfor (String input : inputs) {%n"
+        + "\t\t\tfutures.add(java.util.concurrent.CompletableFuture.supplyAsync("
+        + "() -> parse(input, rule), executor));%n"
+        + "\t\t}%n"
+        + "\t\tjava.util.List<T> result = new java.util.ArrayList<>(inputs.size());%n"
+        + "\t\tfor (java.util.concurrent.CompletableFuture<T> future : futures) {%n"
+        + "\t\t\tresult.add(future.join());%n"
+        + "\t\t}%n"
+        + "\t\treturn result;%n"
+        + "\t}%n%n"
+        + "\tprivate static final class Instances {%n"
+        + "\t\tfinal %3$s lexer = new %3$s(org.antlr.v4.runtime.CharStreams.fromString(\"\"));%n"
+        + "\t\tfinal %2$s parser = new %2$s(new org.antlr.v4.runtime.CommonTokenStream(lexer));%n"
+        + "\t\tboolean inUse;%n%n"
+        + "\t\tvoid release() {%n"
+        + "\t\t\tlexer.setInputStream(org.antlr.v4.runtime.CharStreams.fromString(\"\"));%n"
+        + "\t\t\tparser.setTokenStream(new org.antlr.v4.runtime.CommonTokenStream(lexer));%n"
+        + "\t\t\tlexer.removeErrorListeners();%n"
+        + "\t\t\tparser.removeErrorListeners();%n"
+        + "\t\t\tparser.removeParseListeners();%n"
+        + "\t\t\tinUse = false;%n"
+        + "\t\t}%n"
+        + "\t}%n"
+        + "}%n";
+
+    /** Creates a new ParserPool object. */
+    private ParserPool()
+    {
+        super();
+    }
+
+    /**
+     * Generates a driver for every parser below the given directory.
+     *
+     * @param   directory  the directory with the generated sources.
+     * @param   encoding   the encoding of the source files.
+     * @param   limited    if {@code true} the DFA cache limit of the parser is checked
+     *                     after every parse.
+     *
+     * @throws  IOException            if an I/O error occurred.
+     * @throws  IllegalStateException  if no parser was found.
+     */
+    public static void generate(Path directory, Charset encoding, boolean limited)
+        throws IOException
+    {
+        List<Path> parsers = Companions.parsers(directory);
+
+        if (parsers.isEmpty())
+        {
+            throw new IllegalStateException("No parser and lexer pair found to pool");
+        }
+
+        for (Path parser : parsers)
+        {
+            String source = new String(Files.readAllBytes(parser), encoding);
+            String name = parser.getFileName().toString().replaceFirst("\\.java$", "");
+
+            Files.write(parser.resolveSibling(name + SUFFIX + ".java"),
+                String.format(TEMPLATE,
+                        Companions.packageDeclaration(source),
+                        name,
+                        name.replaceFirst("Parser$", "Lexer"),
+                        limited ? String.format(LIMIT, name) : "")
+                    .getBytes(encoding));
+        }
+    }
+}
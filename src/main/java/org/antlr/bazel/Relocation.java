@@ -0,0 +1,186 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Moves a batch of files to their final location. The target directories are created
+ * once up-front and the files are moved concurrently, as relocating thousands of
+ * generated files one at a time is I/O bound.
+ */
+class Relocation
+{
+    /** Below this number of files, moving them serially is faster. */
+    static final int PARALLEL_THRESHOLD = 64;
+
+    private final Map<Path, Path> moves = new LinkedHashMap<>();
+    private final int threads;
+
+    /**
+     * Creates a new Relocation object.
+     */
+    Relocation()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Creates a new Relocation object.
+     *
+     * @param  threads  the maximal number of threads to use.
+     */
+    Relocation(int threads)
+    {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Adds the given file to move.
+     *
+     * @param   source  the file to move.
+     * @param   target  the target file.
+     *
+     * @return  this object.
+     */
+    public Relocation add(Path source, Path target)
+    {
+        if (!source.equals(target))
+        {
+            moves.put(source, target);
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Moves all added files.
+     *
+     * @throws  IOException  if an I/O error occurred.
+     */
+    public void execute() throws IOException
+    {
+        if (moves.isEmpty())
+        {
+            return;
+        }
+
+        Set<Path> directories = new LinkedHashSet<>();
+
+        for (Path target : moves.values())
+        {
+            directories.add(target.getParent());
+        }
+
+        for (Path directory : directories)
+        {
+            Files.createDirectories(directory);
+        }
+
+        List<Map.Entry<Path, Path>> entries = new ArrayList<>(moves.entrySet());
+        moves.clear();
+
+        int count = Math.min(threads, entries.size() / PARALLEL_THRESHOLD);
+
+        if (count < 2)
+        {
+            move(entries);
+
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+
+        try
+        {
+            List<Future<?>> results = new ArrayList<>(count);
+            int chunk = (entries.size() + count - 1) / count;
+
+            for (int i = 0; i < entries.size(); i += chunk)
+            {
+                List<Map.Entry<Path, Path>> part = entries.subList(i,
+                        Math.min(i + chunk, entries.size()));
+
+                results.add(executor.submit(() ->
+                    {
+                        move(part);
+
+                        return null;
+                    }));
+            }
+
+            IOException error = null;
+
+            for (Future<?> result : results)
+            {
+                try
+                {
+                    result.get();
+                }
+                catch (ExecutionException ex)
+                {
+                    IOException cause = (ex.getCause() instanceof IOException)
+                        ? (IOException) ex.getCause() : new IOException(ex.getCause());
+
+                    if (error == null)
+                    {
+                        error = cause;
+                    }
+                    else
+                    {
+                        error.addSuppressed(cause);
+                    }
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+
+                    throw new InterruptedIOException("Relocation interrupted");
+                }
+            }
+
+            if (error != null)
+            {
+                throw error;
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Returns the number of files to move.
+     *
+     * @return  the number of files.
+     */
+    public int size()
+    {
+        return moves.size();
+    }
+
+
+    private static void move(List<Map.Entry<Path, Path>> entries) throws IOException
+    {
+        for (Map.Entry<Path, Path> entry : entries)
+        {
+            Files.move(entry.getKey(), entry.getValue());
+        }
+    }
+}
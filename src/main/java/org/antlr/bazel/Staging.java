@@ -0,0 +1,139 @@
+package org.antlr.bazel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+
+/**
+ * Staging area for output directories. The staging directory mirrors the directory that
+ * contains the output directories and is located next to it, so on the same file system.
+ * Once all files have been generated and relocated, every staged directory is published
+ * with a single rename. If generation fails, the output directories are left untouched.
+ * The guarantee holds per directory only: the directories are renamed one after another,
+ * so a failure while publishing can leave some of them published and others not.
+ */
+class Staging implements Closeable
+{
+    private final Path destination;
+    private final Path root;
+
+    /**
+     * Creates a new Staging object.
+     *
+     * @param   destination  the directory that contains the output directories.
+     * @param   name         the name of the staging directory.
+     *
+     * @throws  IOException  if the staging directory could not be created.
+     */
+    Staging(Path destination, String name) throws IOException
+    {
+        this.destination = destination;
+        this.root = destination.resolve(name);
+
+        // remove leftovers of an aborted run
+        delete(root);
+        Files.createDirectories(root);
+    }
+
+    /**
+     * Deletes the staging directory and everything that has not been published.
+     *
+     * @throws  IOException  if an I/O error occurred.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        delete(root);
+    }
+
+
+    /**
+     * Publishes all staged directories, each with its own rename.
+     *
+     * @throws  IOException            if an I/O error occurred.
+     * @throws  IllegalStateException  if an output directory is not empty.
+     */
+    public void publish() throws IOException
+    {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root))
+        {
+            for (Path entry : entries)
+            {
+                Path target = destination.resolve(entry.getFileName().toString());
+
+                // Bazel creates the declared output directories up-front
+                if (Files.isDirectory(target))
+                {
+                    try (DirectoryStream<Path> children = Files.newDirectoryStream(target))
+                    {
+                        if (children.iterator().hasNext())
+                        {
+                            throw new IllegalStateException(
+                                "Output directory not empty: " + target);
+                        }
+                    }
+
+                    Files.delete(target);
+                }
+
+                Files.move(entry, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+
+    /**
+     * Returns the staged location of the given output directory.
+     *
+     * @param   directory  the output directory.
+     *
+     * @return  the staged directory.
+     */
+    public Path resolve(Path directory)
+    {
+        return root.resolve(destination.relativize(directory).toString());
+    }
+
+
+    private static void delete(Path directory) throws IOException
+    {
+        if (Files.notExists(directory))
+        {
+            return;
+        }
+
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException ex)
+                    throws IOException
+                {
+                    if (ex != null)
+                    {
+                        throw ex;
+                    }
+
+                    Files.delete(dir);
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException
+                {
+                    Files.delete(file);
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+    }
+}
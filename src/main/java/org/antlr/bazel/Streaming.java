@@ -0,0 +1,182 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Generates streaming drivers for ANTLR 4 Java parsers. The default character and token
+ * streams keep the whole input in memory, just like the parse tree does. A driver reads
+ * the input through unbuffered streams instead, copies the token text into the tokens and
+ * does not build a parse tree, but reports the parse events to a listener while parsing.
+ * Without a parse tree, the parser still adds the consumed tokens to the context of the
+ * current rule. The context of a sub rule is dropped when the rule ends, but the context
+ * of the start rule lives until the end of the input. The driver therefore removes the
+ * tokens from the start rule context once the listener has seen them. Memory use then
+ * only depends on the lookahead needed, not on the input size, as long as the unbounded
+ * loops of the grammar consume their tokens in the start rule directly. A sub rule keeps
+ * the tokens it consumes until it ends, e.g. {@code body} in {@code file: body EOF;
+ * body: (ID NEWLINE)*;} keeps every token of the input. The tokens of sub rules are not
+ * removed, as their exit callbacks should see the consumed tokens. The exit callback of
+ * the start rule sees an empty context.
+ */
+class Streaming
+{
+    /** The suffix of driver class names. */
+    static final String SUFFIX = "Streaming";
+
+    private static final String PARSE = "\t\tparser.%1$s();%n";
+
+    private static final String PARSE_LIMITED =
+        "\t\ttry {%n"
+        + "\t\t\tparser.%1$s();%n"
+        + "\t\t} finally {%n"
+        + "\t\t\t// the DFA only grows while parsing%n"
+        + "\t\t\t%2$s" + DfaCache.SUFFIX + ".checkLimit();%n"
+        + "\t\t}%n";
+
+    private static final String TEMPLATE =
+        "%1$s"
+        + "/**%n"
+        + " * Parses input of arbitrary size with {@link %2$s} without buffering the input%n"
+        + " * or building a parse tree. The listener is notified while parsing instead. Tokens%n"
+        + " * that rule {@code %4$s} consumes directly are removed from its context right%n"
+        + " * after the listener has visited them, so the context of {@code %4$s} is empty%n"
+        + " * when the listener exits it. Sub rule contexts keep their tokens until they end,%n"
+        + " * memory use therefore grows with the input if a sub rule consumes tokens in an%n"
+        + " * unbounded loop.%n"
+        + " */%n"
+        + "public final class %2$s" + SUFFIX + " {%n"
+        + "\t/** Removes the tokens of the start rule after the listener has seen them. */%n"
+        + "\tprivate static final org.antlr.v4.runtime.tree.ParseTreeListener RELEASE =%n"
+        + "\t\tnew org.antlr.v4.runtime.tree.ParseTreeListener() {%n"
+        + "\t\t\t@Override%n"
+        + "\t\t\tpublic void visitTerminal(org.antlr.v4.runtime.tree.TerminalNode node) {%n"
+        + "\t\t\t\trelease(node);%n"
+        + "\t\t\t}%n%n"
+        + "\t\t\t@Override%n"
+        + "\t\t\tpublic void visitErrorNode(org.antlr.v4.runtime.tree.ErrorNode node) {%n"
+        + "\t\t\t\trelease(node);%n"
+        + "\t\t\t}%n%n"
+        + "\t\t\t@Override%n"
+        + "\t\t\tpublic void enterEveryRule(org.antlr.v4.runtime.ParserRuleContext ctx) {%n"
+        + "\t\t\t}%n%n"
+        + "\t\t\t@Override%n"
+        + "\t\t\tpublic void exitEveryRule(org.antlr.v4.runtime.ParserRuleContext ctx) {%n"
+        + "\t\t\t}%n%n"
+        + "\t\t\tprivate void release(org.antlr.v4.runtime.tree.ParseTree node) {%n"
+        + "\t\t\t\torg.antlr.v4.runtime.ParserRuleContext ctx =%n"
+        + "\t\t\t\t\t(org.antlr.v4.runtime.ParserRuleContext) node.getParent();%n"
+        + "\t\t\t\t// sub rule contexts are dropped when the rule ends%n"
+        + "\t\t\t\tif (ctx.getParent() == null) ctx.removeLastChild();%n"
+        + "\t\t\t}%n"
+        + "\t\t};%n%n"
+        + "\tprivate %2$s" + SUFFIX + "() {%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Parses the given file with rule {@code %4$s}.%n"
+        + "\t *%n"
+        + "\t * @param file the file to parse.%n"
+        + "\t * @param charset the encoding of the file.%n"
+        + "\t * @param listener receives the parse events.%n"
+        + "\t * @return the number of syntax errors.%n"
+        + "\t * @throws java.io.IOException if an I/O error occurred.%n"
+        + "\t */%n"
+        + "\tpublic static int parse(java.nio.file.Path file, java.nio.charset.Charset charset, "
+        + "org.antlr.v4.runtime.tree.ParseTreeListener listener) throws java.io.IOException {%n"
+        + "\t\ttry (java.io.InputStream in = java.nio.file.Files.newInputStream(file)) {%n"
+        + "\t\t\treturn parse(in, charset, listener);%n"
+        + "\t\t}%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Parses the given input with rule {@code %4$s}.%n"
+        + "\t *%n"
+        + "\t * @param input the input to parse, not closed.%n"
+        + "\t * @param charset the encoding of the input.%n"
+        + "\t * @param listener receives the parse events.%n"
+        + "\t * @return the number of syntax errors.%n"
+        + "\t */%n"
+        + "\tpublic static int parse(java.io.InputStream input, java.nio.charset.Charset charset, "
+        + "org.antlr.v4.runtime.tree.ParseTreeListener listener) {%n"
+        + "\t\t%3$s lexer = new %3$s(new org.antlr.v4.runtime.UnbufferedCharStream("
+        + "input, 4096, charset));%n"
+        + "\t\t// the characters are gone once the token is created%n"
+        + "\t\tlexer.setTokenFactory(new org.antlr.v4.runtime.CommonTokenFactory(true));%n"
+        + "\t\t%2$s parser = new %2$s(new org.antlr.v4.runtime.UnbufferedTokenStream<>(lexer));%n"
+        + "\t\tparser.setBuildParseTree(false);%n"
+        + "\t\tparser.addParseListener(listener);%n"
+        + "\t\tparser.addParseListener(RELEASE);%n"
+        + "%5$s"
+        + "\t\treturn parser.getNumberOfSyntaxErrors();%n"
+        + "\t}%n"
+        + "}%n";
+
+    /** Creates a new Streaming object. */
+    private Streaming()
+    {
+        super();
+    }
+
+    /**
+     * Generates a driver for every parser below the given directory.
+     *
+     * @param   directory  the directory with the generated sources.
+     * @param   encoding   the encoding of the source files.
+     * @param   rule       the start rule of parsers without an own rule. If {@code null},
+     *                     the first rule of the grammar is used.
+     * @param   rules      the start rules by parser class name.
+     * @param   limited    if {@code true} the DFA cache limit of the parser is checked
+     *                     after every parse.
+     *
+     * @throws  IOException            if an I/O error occurred.
+     * @throws  IllegalStateException  if no parser was found or a parser with a start rule
+     *                                 is missing.
+     */
+    public static void generate(Path directory,
+        Charset encoding,
+        String rule,
+        Map<String, String> rules,
+        boolean limited) throws IOException
+    {
+        List<Path> parsers = Companions.parsers(directory);
+
+        if (parsers.isEmpty())
+        {
+            throw new IllegalStateException("No parser and lexer pair found to stream");
+        }
+
+        Map<String, String> pending = new TreeMap<>(rules);
+
+        for (Path parser : parsers)
+        {
+            String source = new String(Files.readAllBytes(parser), encoding);
+            String name = parser.getFileName().toString().replaceFirst("\\.java$", "");
+            String start = pending.remove(name);
+
+            if (start == null)
+            {
+                start = (rule != null) ? rule : Companions.firstRule(source, name);
+            }
+
+            Files.write(parser.resolveSibling(name + SUFFIX + ".java"),
+                String.format(TEMPLATE,
+                        Companions.packageDeclaration(source),
+                        name,
+                        name.replaceFirst("Parser$", "Lexer"),
+                        start,
+                        String.format(limited ? PARSE_LIMITED : PARSE, start, name))
+                    .getBytes(encoding));
+        }
+
+        if (!pending.isEmpty())
+        {
+            throw new IllegalStateException("No parser found for streaming rules: "
+                + pending.keySet());
+        }
+    }
+}
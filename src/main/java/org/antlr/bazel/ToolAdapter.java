@@ -0,0 +1,680 @@
+package org.antlr.bazel;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Typed facade for the ANTLR tools. We use reflection so we are not tied to a specific
+ * ANTLR version, but the method handles are only resolved once per tool class (and
+ * therefore once per class loader and version) to keep the per invocation overhead
+ * low.
+ */
+abstract class ToolAdapter
+{
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final ClassValue<V2> V2_ADAPTERS = new ClassValue<V2>()
+        {
+            @Override
+            protected V2 computeValue(Class<?> type)
+            {
+                return new V2(type);
+            }
+        };
+
+    private static final ClassValue<V3> V3_ADAPTERS = new ClassValue<V3>()
+        {
+            @Override
+            protected V3 computeValue(Class<?> type)
+            {
+                return new V3(type);
+            }
+        };
+
+    private static final ClassValue<V4> V4_ADAPTERS = new ClassValue<V4>()
+        {
+            @Override
+            protected V4 computeValue(Class<?> type)
+            {
+                return new V4(type);
+            }
+        };
+
+    /**
+     * Returns the ANTLR 2 adapter for the given class loader.
+     *
+     * @param   loader  the class loader that provides the tool.
+     *
+     * @return  the adapter.
+     *
+     * @throws  ClassNotFoundException  if the tool could not be found.
+     */
+    public static V2 v2(ClassLoader loader) throws ClassNotFoundException
+    {
+        return V2_ADAPTERS.get(loader.loadClass("antlr.Tool"));
+    }
+
+
+    /**
+     * Returns the ANTLR 3 adapter for the given class loader.
+     *
+     * @param   loader  the class loader that provides the tool.
+     *
+     * @return  the adapter.
+     *
+     * @throws  ClassNotFoundException  if the tool could not be found.
+     */
+    public static V3 v3(ClassLoader loader) throws ClassNotFoundException
+    {
+        return V3_ADAPTERS.get(loader.loadClass("org.antlr.Tool"));
+    }
+
+
+    /**
+     * Returns the ANTLR 4 adapter for the given class loader.
+     *
+     * @param   loader  the class loader that provides the tool.
+     *
+     * @return  the adapter.
+     *
+     * @throws  ClassNotFoundException  if the tool could not be found.
+     */
+    public static V4 v4(ClassLoader loader) throws ClassNotFoundException
+    {
+        return V4_ADAPTERS.get(loader.loadClass("org.antlr.v4.Tool"));
+    }
+
+
+    /**
+     * Returns the adapter for the given version.
+     *
+     * @param   version  the ANTLR version.
+     * @param   loader   the class loader that provides the tool.
+     *
+     * @return  the adapter.
+     *
+     * @throws  ClassNotFoundException  if the tool could not be found.
+     */
+    public static ToolAdapter of(Version version, ClassLoader loader)
+        throws ClassNotFoundException
+    {
+        switch (version)
+        {
+            case V2 :
+            {
+                return v2(loader);
+            }
+
+            case V3 :
+            {
+                return v3(loader);
+            }
+
+            default :
+            {
+                return v4(loader);
+            }
+        }
+    }
+
+
+    /**
+     * Resets the static state a tool run leaves behind, before the class loader is used
+     * for the next request. Does nothing by default, as ANTLR 2 and 4 keep their state
+     * in the tool instance that is created for every request.
+     *
+     * @throws  Exception  if an error occurred.
+     */
+    public void cleanup() throws Exception
+    {
+    }
+
+
+    /**
+     * Unwraps the given throwable as thrown by a method handle.
+     *
+     * @param   ex  the throwable.
+     *
+     * @return  the exception to throw.
+     */
+    static Exception rethrow(Throwable ex)
+    {
+        if (ex instanceof Error)
+        {
+            throw (Error) ex;
+        }
+
+        if (ex instanceof Exception)
+        {
+            return (Exception) ex;
+        }
+
+        return new IllegalStateException(ex);
+    }
+
+
+    /**
+     * Returns the default value of the given type, as returned by listener methods we
+     * don't handle.
+     *
+     * @param   type  the return type.
+     *
+     * @return  the default value. {@code null} for reference types and {@code void}.
+     */
+    private static Object defaultValue(Class<?> type)
+    {
+        if (!type.isPrimitive() || (type == void.class))
+        {
+            return null;
+        }
+
+        // a new array holds the zero value of its component type
+        return Array.get(Array.newInstance(type, 1), 0);
+    }
+
+
+    private static Class<?> load(Class<?> tool, String name)
+    {
+        try
+        {
+            return Class.forName(name, false, tool.getClassLoader());
+        }
+        catch (ClassNotFoundException ex)
+        {
+            throw new IllegalStateException("Could not find " + name, ex);
+        }
+    }
+
+
+    /**
+     * Makes the given member accessible. Some of the tool members we need are not
+     * public.
+     *
+     * @param   member  the member.
+     *
+     * @return  the given member.
+     */
+    private static <T extends AccessibleObject> T accessible(T member)
+    {
+        member.setAccessible(true);
+
+        return member;
+    }
+
+
+    private static MethodHandle constructor(Class<?> type, Class<?>... parameters)
+    {
+        try
+        {
+            return LOOKUP.unreflectConstructor(type.getConstructor(parameters));
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException("Unsupported ANTLR release", ex);
+        }
+    }
+
+
+    private static MethodHandle getter(Class<?> type, String name)
+    {
+        try
+        {
+            return LOOKUP.unreflectGetter(accessible(type.getDeclaredField(name)));
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException("Unsupported ANTLR release", ex);
+        }
+    }
+
+
+    /**
+     * Returns a getter for the given field that only exists in some releases.
+     *
+     * @param   type  the declaring class.
+     * @param   name  the field name.
+     *
+     * @return  the getter or {@code null} if the field does not exist.
+     */
+    private static MethodHandle optionalGetter(Class<?> type, String name)
+    {
+        try
+        {
+            return LOOKUP.unreflectGetter(accessible(type.getDeclaredField(name)));
+        }
+        catch (NoSuchFieldException ex)
+        {
+            return null;
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException("Unsupported ANTLR release", ex);
+        }
+    }
+
+
+    private static MethodHandle method(Class<?> type,
+        String name,
+        Class<?>... parameters)
+    {
+        try
+        {
+            return LOOKUP.unreflect(accessible(type.getDeclaredMethod(name, parameters)));
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException("Unsupported ANTLR release", ex);
+        }
+    }
+
+
+    private static MethodHandle setter(Class<?> type, String name)
+    {
+        try
+        {
+            return LOOKUP.unreflectSetter(accessible(type.getDeclaredField(name)));
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException("Unsupported ANTLR release", ex);
+        }
+    }
+
+    /**
+     * The ANTLR 2 tool.
+     */
+    static final class V2 extends ToolAdapter
+    {
+        private final MethodHandle doEverything;
+        private final MethodHandle newTool;
+
+        private V2(Class<?> $Tool)
+        {
+            newTool = constructor($Tool).asType(MethodType.methodType(Object.class));
+            doEverything = method($Tool, "doEverything", String[].class).asType(
+                    MethodType.methodType(void.class, Object.class, String[].class));
+        }
+
+        /**
+         * Processes a single grammar.
+         *
+         * @param   args  the tool arguments including the grammar.
+         *
+         * @throws  Exception  if an error occurred.
+         */
+        public void process(String[] args) throws Exception
+        {
+            try
+            {
+                doEverything.invokeExact(newTool.invokeExact(), args);
+            }
+            catch (Throwable ex)
+            {
+                throw rethrow(ex);
+            }
+        }
+    }
+
+    /**
+     * The ANTLR 3 tool. ANTLR 3 keeps the error state in static members, the number of
+     * errors is therefore read from the error manager and must be reset via
+     * {@link #cleanup()} before the class loader is used for the next request.
+     */
+    static final class V3 extends ToolAdapter
+    {
+        private final MethodHandle getNumErrors;
+        private final MethodHandle newTool;
+        private final MethodHandle process;
+        private final List<MethodHandle> threadMaps = new ArrayList<>();
+
+        private V3(Class<?> $Tool)
+        {
+            Class<?> $ErrorManager = load($Tool, "org.antlr.tool.ErrorManager");
+
+            newTool = constructor($Tool, String[].class).asType(
+                    MethodType.methodType(Object.class, String[].class));
+            process = method($Tool, "process").asType(
+                    MethodType.methodType(void.class, Object.class));
+            getNumErrors = method($ErrorManager, "getNumErrors").asType(
+                    MethodType.methodType(int.class));
+
+            // the listeners, error states and tools are registered per thread and would
+            // otherwise pile up for every thread that ever used the class loader
+            for (Field field : $ErrorManager.getDeclaredFields())
+            {
+                if (Modifier.isStatic(field.getModifiers())
+                    && Map.class.isAssignableFrom(field.getType())
+                    && field.getName().startsWith("threadTo"))
+                {
+                    threadMaps.add(getter($ErrorManager, field.getName()).asType(
+                            MethodType.methodType(Map.class)));
+                }
+            }
+        }
+
+
+        /**
+         * Clears the per thread state of the error manager.
+         *
+         * @throws  Exception  if an error occurred.
+         */
+        @Override
+        public void cleanup() throws Exception
+        {
+            try
+            {
+                for (MethodHandle threadMap : threadMaps)
+                {
+                    ((Map<?, ?>) threadMap.invokeExact()).clear();
+                }
+            }
+            catch (Throwable ex)
+            {
+                throw rethrow(ex);
+            }
+        }
+
+        /**
+         * Processes the grammars.
+         *
+         * @param   args  the tool arguments including the grammars.
+         *
+         * @return  the number of errors reported on this thread since the last cleanup.
+         *
+         * @throws  Exception  if an error occurred.
+         */
+        public int process(String[] args) throws Exception
+        {
+            try
+            {
+                process.invokeExact(newTool.invokeExact(args));
+
+                return (int) getNumErrors.invokeExact();
+            }
+            catch (Throwable ex)
+            {
+                throw rethrow(ex);
+            }
+        }
+    }
+
+    /**
+     * The ANTLR 4 tool.
+     */
+    static final class V4 extends ToolAdapter
+    {
+        private final MethodHandle addListener;
+        private final MethodHandle errMgr;
+        private final MethodHandle getNumErrors;
+        private final MethodHandle importedGrammars;
+        private final MethodHandle loadGrammar;
+        private final MethodHandle logMgr;
+        private final MethodHandle newTool;
+        private final MethodHandle process;
+        private final MethodHandle removeListener;
+        private final MethodHandle save;
+        private final MethodHandle setErrors;
+        private final MethodHandle setGenPackage;
+        private final MethodHandle setGrammarFiles;
+        private final MethodHandle setWarnings;
+        private final Class<?> toolListener;
+
+        private V4(Class<?> $Tool)
+        {
+            Class<?> $ErrorManager = load($Tool, "org.antlr.v4.tool.ErrorManager");
+            Class<?> $LogManager = load($Tool, "org.antlr.v4.runtime.misc.LogManager");
+            toolListener = load($Tool, "org.antlr.v4.tool.ANTLRToolListener");
+
+            newTool = constructor($Tool, String[].class).asType(
+                    MethodType.methodType(Object.class, String[].class));
+            errMgr = getter($Tool, "errMgr").asType(
+                    MethodType.methodType(Object.class, Object.class));
+            logMgr = getter($Tool, "logMgr").asType(
+                    MethodType.methodType(Object.class, Object.class));
+            setGrammarFiles = setter($Tool, "grammarFiles").asType(
+                    MethodType.methodType(void.class, Object.class, List.class));
+            setGenPackage = setter($Tool, "genPackage").asType(
+                    MethodType.methodType(void.class, Object.class, String.class));
+            process = method($Tool, "processGrammarsOnCommandLine").asType(
+                    MethodType.methodType(void.class, Object.class));
+            setErrors = setter($ErrorManager, "errors").asType(
+                    MethodType.methodType(void.class, Object.class, int.class));
+            setWarnings = setter($ErrorManager, "warnings").asType(
+                    MethodType.methodType(void.class, Object.class, int.class));
+            getNumErrors = method($ErrorManager, "getNumErrors").asType(
+                    MethodType.methodType(int.class, Object.class));
+            save = method($LogManager, "save").asType(
+                    MethodType.methodType(String.class, Object.class));
+            loadGrammar = method($Tool, "loadGrammar", String.class).asType(
+                    MethodType.methodType(Object.class, Object.class, String.class));
+            addListener = method($Tool, "addListener", toolListener).asType(
+                    MethodType.methodType(void.class, Object.class, Object.class));
+            removeListener = method($Tool, "removeListener", toolListener).asType(
+                    MethodType.methodType(void.class, Object.class, Object.class));
+
+            // only cached since 4.6
+            MethodHandle imported = optionalGetter($Tool, "importedGrammars");
+            importedGrammars = (imported != null)
+                ? imported.asType(MethodType.methodType(Map.class, Object.class)) : null;
+        }
+
+        /**
+         * Creates a new tool instance.
+         *
+         * @param   args  the tool arguments.
+         *
+         * @return  the tool.
+         *
+         * @throws  Exception  if an error occurred.
+         */
+        public Object create(String[] args) throws Exception
+        {
+            try
+            {
+                return newTool.invokeExact(args);
+            }
+            catch (Throwable ex)
+            {
+                throw rethrow(ex);
+            }
+        }
+
+
+        /**
+         * Returns the number of errors reported since the last reset.
+         *
+         * @param   tool  the tool.
+         *
+         * @return  the number of errors.
+         *
+         * @throws  Exception  if an error occurred.
+         */
+        public int getNumErrors(Object tool) throws Exception
+        {
+            try
+            {
+                return (int) getNumErrors.invokeExact(errMgr.invokeExact(tool));
+            }
+            catch (Throwable ex)
+            {
+                throw rethrow(ex);
+            }
+        }
+
+
+        /**
+         * Loads the given grammar and builds its ATN without generating code. The
+         * grammar must have been processed before, its messages are therefore not
+         * reported again.
+         *
+         * @param   tool     the tool.
+         * @param   grammar  the grammar file.
+         *
+         * @return  the grammar.
+         *
+         * @throws  Exception  if an error occurred.
+         */
+        public Object loadGrammar(Object tool, String grammar) throws Exception
+        {
+            try
+            {
+                Object listener = Proxy.newProxyInstance(toolListener.getClassLoader(),
+                        new Class<?>[] { toolListener },
+                        new Silence());
+                addListener.invokeExact(tool, listener);
+
+                try
+                {
+                    return (Object) loadGrammar.invokeExact(tool, grammar);
+                }
+                finally
+                {
+                    removeListener.invokeExact(tool, listener);
+                }
+            }
+            catch (Throwable ex)
+            {
+                throw rethrow(ex);
+            }
+        }
+
+
+        /**
+         * Processes the given grammars.
+         *
+         * @param   tool      the tool.
+         * @param   grammars  the grammar files.
+         *
+         * @throws  Exception  if an error occurred.
+         */
+        public void process(Object tool, List<String> grammars) throws Exception
+        {
+            try
+            {
+                setGrammarFiles.invokeExact(tool, grammars);
+                process.invokeExact(tool);
+            }
+            catch (Throwable ex)
+            {
+                throw rethrow(ex);
+            }
+        }
+
+
+        /**
+         * Resets the error and warning counters and forgets the imported grammars. The
+         * tool caches imported grammars by name only, grammars with the same name from
+         * different directories would otherwise resolve to the one loaded first.
+         *
+         * @param   tool  the tool.
+         *
+         * @throws  Exception  if an error occurred.
+         */
+        public void reset(Object tool) throws Exception
+        {
+            try
+            {
+                Object errorManager = errMgr.invokeExact(tool);
+                setErrors.invokeExact(errorManager, 0);
+                setWarnings.invokeExact(errorManager, 0);
+
+                if (importedGrammars != null)
+                {
+                    ((Map<?, ?>) importedGrammars.invokeExact(tool)).clear();
+                }
+            }
+            catch (Throwable ex)
+            {
+                throw rethrow(ex);
+            }
+        }
+
+
+        /**
+         * Saves the log records of the given tool.
+         *
+         * @param   tool  the tool.
+         *
+         * @return  the name of the written log file.
+         *
+         * @throws  Exception  if an error occurred.
+         */
+        public String saveLog(Object tool) throws Exception
+        {
+            try
+            {
+                return (String) save.invokeExact(logMgr.invokeExact(tool));
+            }
+            catch (Throwable ex)
+            {
+                throw rethrow(ex);
+            }
+        }
+
+
+        /**
+         * Sets the package for the generated code.
+         *
+         * @param   tool         the tool.
+         * @param   packageName  the package name. Might be {@code null}.
+         *
+         * @throws  Exception  if an error occurred.
+         */
+        public void setPackage(Object tool, String packageName) throws Exception
+        {
+            try
+            {
+                setGenPackage.invokeExact(tool, packageName);
+            }
+            catch (Throwable ex)
+            {
+                throw rethrow(ex);
+            }
+        }
+    }
+
+    /**
+     * ANTLR 4 tool listener that drops all messages.
+     */
+    private static final class Silence implements InvocationHandler
+    {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            switch (method.getName())
+            {
+                case "equals" :
+                {
+                    return proxy == args[0];
+                }
+
+                case "hashCode" :
+                {
+                    return System.identityHashCode(proxy);
+                }
+
+                case "toString" :
+                {
+                    return "Silence";
+                }
+
+                default :
+                {
+                    return defaultValue(method.getReturnType());
+                }
+            }
+        }
+    }
+}
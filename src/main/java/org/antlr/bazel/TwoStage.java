@@ -0,0 +1,200 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Adds two-stage parse methods to generated ANTLR 4 Java parsers. A two-stage method
+ * first parses with the faster SLL prediction and an error strategy that bails out on
+ * the first syntax error. Only if that fails, the input is parsed again with full LL
+ * prediction and the regular error handling. Both stages yield the same result for valid
+ * input, SLL just cannot resolve some ambiguities that full LL prediction can.
+ */
+class TwoStage
+{
+    /** The suffix of the two-stage method names. */
+    static final String SUFFIX = "TwoStage";
+
+    private static final String SUPPORT =
+        "%n"
+        + "\tprivate static final java.util.List<String> _twoStageRules = "
+        + "java.util.Arrays.asList(%1$s);%n"
+        + "\tprivate static final java.util.concurrent.atomic.AtomicLongArray _twoStageCounts = "
+        + "new java.util.concurrent.atomic.AtomicLongArray(2 * _twoStageRules.size());%n%n"
+        + "\t/**%n"
+        + "\t * Returns the number of two-stage parses of the given start rule.%n"
+        + "\t *%n"
+        + "\t * @param rule the start rule.%n"
+        + "\t * @return the number of parses.%n"
+        + "\t */%n"
+        + "\tpublic static long getTwoStageParses(String rule) {%n"
+        + "\t\treturn _twoStageCounts.get(2 * _twoStageIndex(rule));%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Returns the number of two-stage parses of the given start rule that fell back%n"
+        + "\t * to full LL prediction.%n"
+        + "\t *%n"
+        + "\t * @param rule the start rule.%n"
+        + "\t * @return the number of fallbacks.%n"
+        + "\t */%n"
+        + "\tpublic static long getTwoStageFallbacks(String rule) {%n"
+        + "\t\treturn _twoStageCounts.get(2 * _twoStageIndex(rule) + 1);%n"
+        + "\t}%n%n"
+        + "\tprivate static int _twoStageIndex(String rule) {%n"
+        + "\t\tint result = _twoStageRules.indexOf(rule);%n"
+        + "\t\tif (result == -1) throw new IllegalArgumentException("
+        + "\"No two-stage parse for rule \" + rule);%n"
+        + "\t\treturn result;%n"
+        + "\t}%n%n"
+        + "\t@SuppressWarnings({\"rawtypes\", \"unchecked\"})%n"
+        + "\tprivate <T> T _parseTwoStage(int index, java.util.function.Supplier<T> rule) {%n"
+        + "\t\torg.antlr.v4.runtime.ANTLRErrorStrategy handler = getErrorHandler();%n"
+        + "\t\torg.antlr.v4.runtime.atn.PredictionMode mode = "
+        + "getInterpreter().getPredictionMode();%n"
+        + "\t\tjava.util.List listeners = new java.util.ArrayList(getErrorListeners());%n"
+        + "\t\tint start = _input.index();%n"
+        + "\t\t_twoStageCounts.incrementAndGet(2 * index);%n"
+        + "\t\ttry {%n"
+        + "\t\t\tgetInterpreter().setPredictionMode("
+        + "org.antlr.v4.runtime.atn.PredictionMode.SLL);%n"
+        + "\t\t\tsetErrorHandler(new org.antlr.v4.runtime.BailErrorStrategy());%n"
+        + "\t\t\tremoveErrorListeners();%n"
+        + "\t\t\treturn rule.get();%n"
+        + "\t\t}%n"
+        + "\t\tcatch (org.antlr.v4.runtime.misc.ParseCancellationException e) {%n"
+        + "\t\t\t_twoStageCounts.incrementAndGet(2 * index + 1);%n"
+        + "\t\t\treset();%n"
+        + "\t\t\t_input.seek(Math.max(start, 0));%n"
+        + "\t\t\tsetErrorHandler(handler);%n"
+        + "\t\t\tfor (Object listener : listeners) {%n"
+        + "\t\t\t\taddErrorListener((org.antlr.v4.runtime.ANTLRErrorListener) listener);%n"
+        + "\t\t\t}%n"
+        + "\t\t\tgetInterpreter().setPredictionMode("
+        + "org.antlr.v4.runtime.atn.PredictionMode.LL);%n"
+        + "\t\t\treturn rule.get();%n"
+        + "\t\t}%n"
+        + "\t\tfinally {%n"
+        + "\t\t\tsetErrorHandler(handler);%n"
+        + "\t\t\tremoveErrorListeners();%n"
+        + "\t\t\tfor (Object listener : listeners) {%n"
+        + "\t\t\t\taddErrorListener((org.antlr.v4.runtime.ANTLRErrorListener) listener);%n"
+        + "\t\t\t}%n"
+        + "\t\t\tgetInterpreter().setPredictionMode(mode);%n"
+        + "\t\t}%n"
+        + "\t}%n";
+
+    private static final String METHOD =
+        "%n"
+        + "\t/**%n"
+        + "\t * Parses rule {@code %1$s} with SLL prediction and falls back to full LL%n"
+        + "\t * prediction if SLL prediction fails.%n"
+        + "\t *%n"
+        + "\t * @return the parse tree.%n"
+        + "\t */%n"
+        + "\tpublic final %2$s %1$s" + SUFFIX + "() throws RecognitionException {%n"
+        + "\t\treturn _parseTwoStage(%3$d, this::%1$s);%n"
+        + "\t}%n";
+
+    /** Creates a new TwoStage object. */
+    private TwoStage()
+    {
+        super();
+    }
+
+    /**
+     * Adds two-stage parse methods for the given start rules to all parsers below the
+     * given directory.
+     *
+     * @param   directory  the directory with the generated sources.
+     * @param   encoding   the encoding of the source files.
+     * @param   rules      the start rules.
+     *
+     * @throws  IOException            if an I/O error occurred.
+     * @throws  IllegalStateException  if a start rule could not be found in any parser.
+     */
+    public static void generate(Path directory, Charset encoding, Collection<String> rules)
+        throws IOException
+    {
+        Set<String> missing = new LinkedHashSet<>(rules);
+
+        for (Path parser : Companions.sources(directory, "Parser.java"))
+        {
+            String source = new String(Files.readAllBytes(parser), encoding);
+            List<String> found = new ArrayList<>();
+            String rewritten = rewrite(source, rules, found);
+
+            if (rewritten != null)
+            {
+                Files.write(parser, rewritten.getBytes(encoding));
+                missing.removeAll(found);
+            }
+        }
+
+        if (!missing.isEmpty())
+        {
+            throw new IllegalStateException(String.format(
+                    "No parser rule without arguments found for two-stage parsing: %s",
+                    String.join(", ", missing)));
+        }
+    }
+
+
+    /**
+     * Adds two-stage parse methods to the given parser source.
+     *
+     * @param   source  the parser source.
+     * @param   rules   the start rules.
+     * @param   found   receives the start rules found in the source.
+     *
+     * @return  the rewritten source or {@code null} if the source contains none of the
+     *          start rules.
+     */
+    static String rewrite(String source, Collection<String> rules, List<String> found)
+    {
+        StringBuilder methods = new StringBuilder();
+
+        for (String rule : rules)
+        {
+            Matcher m = Pattern.compile("public final (\\w+) " + Pattern.quote(rule)
+                        + "\\(\\) throws RecognitionException")
+                .matcher(source);
+
+            if (m.find())
+            {
+                methods.append(String.format(METHOD, rule, m.group(1), found.size()));
+                found.add(rule);
+            }
+        }
+
+        if (found.isEmpty())
+        {
+            return null;
+        }
+
+        StringBuilder names = new StringBuilder();
+
+        for (String rule : found)
+        {
+            names.append((names.length() == 0) ? "" : ", ").append('"').append(rule)
+                .append('"');
+        }
+
+        // the generated class ends with the closing brace of the parser class
+        int end = source.lastIndexOf('}');
+
+        return source.substring(0, end)
+            + String.format(SUPPORT, names)
+            + methods
+            + source.substring(end);
+    }
+}
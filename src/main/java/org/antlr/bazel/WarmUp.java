@@ -0,0 +1,246 @@
+package org.antlr.bazel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+
+/**
+ * Generates warm-up companions for ANTLR 4 Java parsers. The DFA cache of a parser is
+ * built lazily during adaptive prediction and shared by all instances of the parser
+ * class, but ANTLR provides no means to persist it. A companion therefore does not
+ * restore a DFA snapshot: it embeds a sample corpus as class resource and replays it at
+ * startup, which populates the cache by parsing before the first real input arrives. The
+ * corpus is replayed once at build time as well to verify that it still matches the
+ * grammar. Every parser of a target needs its own corpus and rule, so both are keyed by
+ * parser unless the target has only one parser.
+ */
+class WarmUp
+{
+    /** The file extension of corpus resources. */
+    static final String EXTENSION = ".corpus";
+
+    /** The suffix of companion class names. */
+    static final String SUFFIX = "WarmUp";
+
+    private static final String TEMPLATE =
+        "%1$s"
+        + "/**%n"
+        + " * Warms up {@link %2$s} by replaying a sample corpus at startup. Parsing the%n"
+        + " * corpus fills the DFA cache the parser builds at runtime. This is no DFA%n"
+        + " * snapshot: nothing is loaded from disk and the replay takes as long as%n"
+        + " * parsing the corpus.%n"
+        + " */%n"
+        + "public final class %2$s" + SUFFIX + " {%n"
+        + "\tprivate %2$s" + SUFFIX + "() {%n"
+        + "\t}%n%n"
+        + "\t/**%n"
+        + "\t * Replays the sample corpus. Call once at startup, before the first real%n"
+        + "\t * input.%n"
+        + "\t *%n"
+        + "\t * @return the number of syntax errors.%n"
+        + "\t */%n"
+        + "\tpublic static int run() {%n"
+        + "\t\tjava.io.InputStream stream = %2$s" + SUFFIX + ".class.getResourceAsStream("
+        + "\"%2$s" + SUFFIX + EXTENSION + "\");%n"
+        + "\t\tif (stream == null) throw new IllegalStateException(\"Missing %2$s"
+        + SUFFIX + EXTENSION + "\");%n"
+        + "\t\tint errors = 0;%n"
+        + "\t\ttry (java.io.DataInputStream in = new java.io.DataInputStream("
+        + "new java.io.BufferedInputStream(stream))) {%n"
+        + "\t\t\tfor (int i = 0, size = in.readInt(); i < size; i++) {%n"
+        + "\t\t\t\tbyte[] sample = new byte[in.readInt()];%n"
+        + "\t\t\t\tin.readFully(sample);%n"
+        + "\t\t\t\t%3$s lexer = new %3$s(org.antlr.v4.runtime.CharStreams.fromString("
+        + "new String(sample, java.nio.charset.Charset.forName(\"%5$s\"))));%n"
+        + "\t\t\t\tlexer.removeErrorListeners();%n"
+        + "\t\t\t\t%2$s parser = new %2$s(new org.antlr.v4.runtime.CommonTokenStream(lexer));%n"
+        + "\t\t\t\tparser.removeErrorListeners();%n"
+        + "\t\t\t\tparser.%4$s();%n"
+        + "\t\t\t\terrors += parser.getNumberOfSyntaxErrors();%n"
+        + "\t\t\t}%n"
+        + "\t\t}%n"
+        + "\t\tcatch (java.io.IOException e) {%n"
+        + "\t\t\tthrow new IllegalStateException(\"Could not read %2$s" + SUFFIX + EXTENSION
+        + "\", e);%n"
+        + "\t\t}%n"
+        + "\t\treturn errors;%n"
+        + "\t}%n"
+        + "}%n";
+
+    private final List<Path> corpus;
+    private final Map<String, List<Path>> corpora;
+    private final List<String> companions = new ArrayList<>();
+    private final String rule;
+    private final Map<String, String> rules;
+
+    /**
+     * Creates a new WarmUp object.
+     *
+     * @param  corpus   the sample files if the target has only one parser.
+     * @param  corpora  the sample files by parser class name.
+     * @param  rule     the start rule if the target has only one parser. If {@code null},
+     *                  the first rule of the grammar is used.
+     * @param  rules    the start rules by parser class name.
+     */
+    WarmUp(List<Path> corpus,
+        Map<String, List<Path>> corpora,
+        String rule,
+        Map<String, String> rules)
+    {
+        this.corpus = corpus;
+        this.corpora = corpora;
+        this.rule = rule;
+        this.rules = rules;
+    }
+
+    /**
+     * Generates a companion for every parser below the given directory that has a
+     * corpus.
+     *
+     * @param   directory  the directory with the generated sources.
+     * @param   encoding   the encoding of the source files and the corpus.
+     *
+     * @throws  IOException            if an I/O error occurred.
+     * @throws  IllegalStateException  if no parser was found, the corpus or rule is not
+     *                                 keyed by parser although there are several parsers
+     *                                 or a keyed parser is missing.
+     */
+    public void generate(Path directory, Charset encoding) throws IOException
+    {
+        List<Path> parsers = Companions.parsers(directory);
+
+        if (parsers.isEmpty())
+        {
+            throw new IllegalStateException("No parser and lexer pair found to warm up");
+        }
+
+        if ((parsers.size() > 1) && (!corpus.isEmpty() || (rule != null)))
+        {
+            throw new IllegalStateException(String.format(
+                    "Found %d parsers to warm up, use <Parser>=<sample> and "
+                    + "<Parser>=<rule> to key the warm-up corpus and rule by parser",
+                    parsers.size()));
+        }
+
+        Map<String, List<Path>> pending = new TreeMap<>(corpora);
+        Set<String> pendingRules = new TreeSet<>(rules.keySet());
+
+        for (Path parser : parsers)
+        {
+            String source = new String(Files.readAllBytes(parser), encoding);
+            String name = parser.getFileName().toString().replaceFirst("\\.java$", "");
+            List<Path> samples = new ArrayList<>(corpus);
+            samples.addAll(pending.getOrDefault(name, Collections.<Path>emptyList()));
+            pending.remove(name);
+            pendingRules.remove(name);
+
+            if (samples.isEmpty())
+            {
+                continue;
+            }
+
+            String start = rules.containsKey(name) ? rules.get(name) : rule;
+            String pkg = Companions.packageName(source);
+
+            Files.write(parser.resolveSibling(name + SUFFIX + ".java"),
+                String.format(TEMPLATE,
+                        Companions.packageDeclaration(source),
+                        name,
+                        name.replaceFirst("Parser$", "Lexer"),
+                        (start != null) ? start : Companions.firstRule(source, name),
+                        encoding.name())
+                    .getBytes(encoding));
+            Files.write(parser.resolveSibling(name + SUFFIX + EXTENSION), samples(samples));
+
+            companions.add((pkg != null) ? (pkg + "." + name + SUFFIX) : (name + SUFFIX));
+        }
+
+        if (!pending.isEmpty())
+        {
+            throw new IllegalStateException("No parser found for warm-up samples: "
+                + pending.keySet());
+        }
+
+        if (!pendingRules.isEmpty())
+        {
+            throw new IllegalStateException("No parser found for warm-up rules: "
+                + pendingRules);
+        }
+    }
+
+
+    /**
+     * Replays the sample corpus with the compiled companions.
+     *
+     * @param   classjar   the compiled classes.
+     * @param   classpath  the runtime classpath.
+     *
+     * @throws  Exception              if the corpus could not be replayed.
+     * @throws  IllegalStateException  if the corpus contains syntax errors.
+     */
+    public void verify(Path classjar, Collection<Path> classpath) throws Exception
+    {
+        List<URL> urls = new ArrayList<>();
+        urls.add(classjar.toUri().toURL());
+
+        for (Path entry : classpath)
+        {
+            urls.add(entry.toUri().toURL());
+        }
+
+        // isolated from our own classpath to only see the runtime the parser was
+        // compiled against
+        try (URLClassLoader loader = new URLClassLoader(urls.toArray(new URL[urls.size()]),
+                    null))
+        {
+            for (String companion : companions)
+            {
+                Method run = loader.loadClass(companion).getMethod("run");
+                int errors = (Integer) run.invoke(null);
+
+                if (errors > 0)
+                {
+                    throw new IllegalStateException(String.format(
+                            "Sample corpus does not match %s: %d syntax errors",
+                            companion.substring(0, companion.length() - SUFFIX.length()),
+                            errors));
+                }
+            }
+        }
+    }
+
+
+    private static byte[] samples(List<Path> corpus) throws IOException
+    {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(buf))
+        {
+            out.writeInt(corpus.size());
+
+            for (Path sample : corpus)
+            {
+                byte[] bytes = Files.readAllBytes(sample);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        return buf.toByteArray();
+    }
+}
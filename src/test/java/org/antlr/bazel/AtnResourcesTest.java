@@ -0,0 +1,229 @@
+package org.antlr.bazel;
+
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link AtnResources}.
+ */
+public class AtnResourcesTest
+{
+    @Test
+    public void constructor() throws Exception
+    {
+        UtilityClassTestSupport.test(AtnResources.class);
+    }
+
+
+    @Test
+    public void encode()
+    {
+        String atn = "\u0000\u0003\u007f\u0080\u3fff\u4000\u608b\uffff";
+        byte[] resource = AtnResources.encode(atn);
+
+        assertEquals(1 + 3 + 2 * 2 + 3 * 3, resource.length);
+        assertEquals(atn, AtnResources.decode(resource));
+    }
+
+
+    @Test
+    public void extract() throws Exception
+    {
+        Path directory = Files.createTempDirectory("antlr-bazel-test-");
+        Path srcjar = directory.resolve("T.srcjar");
+        Path jar = directory.resolve("T.jar");
+
+        try
+        {
+            Map<String, String> env = new HashMap<>();
+            env.put("create", "true");
+
+            try (FileSystem archive = FileSystems.newFileSystem(
+                        URI.create("jar:" + srcjar.toUri()),
+                        env))
+            {
+                Files.write(Files.createDirectories(archive.getPath("/p")).resolve("T.java"),
+                    ("package p;\n"
+                        + "public class T {\n"
+                        + "\tpublic static int loads;\n"
+                        + "\tpublic static int getATN() { return _ATN; }\n"
+                        + "\tpublic static final String _serializedATN =\n"
+                        + "\t\t\"\\3\\u608b\\ua72a\\t\\2\"+\n"
+                        + "\t\t\"\\u0000\\\"x\";\n"
+                        + "\tpublic static final int _ATN = _serializedATN.length() + loads++;\n"
+                        + "}\n").getBytes(StandardCharsets.UTF_8));
+
+                assertEquals(1, AtnResources.extract(archive.getPath("/"),
+                        StandardCharsets.UTF_8));
+                assertTrue(Files.exists(archive.getPath("/p/T.atn")));
+            }
+
+            new Compilation(StandardCharsets.UTF_8).compile(srcjar, jar);
+
+            try (URLClassLoader loader = new URLClassLoader(
+                        new URL[] { jar.toUri().toURL() },
+                        null))
+            {
+                Class<?> type = Class.forName("p.T", true, loader);
+
+                // initializing the class must not load the ATN
+                assertEquals(0, type.getField("loads").get(null));
+                assertEquals(8, type.getMethod("getATN").invoke(null));
+                assertEquals(1, type.getField("loads").get(null));
+
+                Field serialized = loader.loadClass("p.T$" + AtnResources.HOLDER)
+                    .getField("_serializedATN");
+                serialized.setAccessible(true);
+                assertEquals("\3\u608b\ua72a\t\2\u0000\"x", serialized.get(null));
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(jar);
+            Files.deleteIfExists(srcjar);
+            Files.delete(directory);
+        }
+    }
+
+
+    @Test
+    public void rewrite()
+    {
+        StringBuilder atn = new StringBuilder();
+        String source = AtnResources.rewrite(
+                "class L extends Lexer {\n"
+                + "\tprotected static final DFA[] _decisionToDFA;\n"
+                + "\tpublic L(CharStream input) {\n"
+                + "\t\t_interp = new LexerATNSimulator(this,_ATN,_decisionToDFA,null);\n"
+                + "\t}\n"
+                + "\tpublic String getSerializedATN() { return _serializedATN; }\n"
+                + "\tpublic static final String _serializedATN =\n"
+                + "\t\t\"\\3\\u608b\\ua72a\\2\\7\\37\\b\\1\\4\\2\\t\\2\\4\\377\\400\"+\n"
+                + "\t\t\"\\n\\r\\f\\\\\\'a\";\n"
+                + "\tpublic static final ATN _ATN =\n"
+                + "\t\tnew ATNDeserializer().deserialize(_serializedATN.toCharArray());\n"
+                + "\tstatic {\n"
+                + "\t\t_decisionToDFA = new DFA[_ATN.getNumberOfDecisions()];\n"
+                + "\t\tfor (int i = 0; i < _ATN.getNumberOfDecisions(); i++) {\n"
+                + "\t\t\t_decisionToDFA[i] = new DFA(_ATN.getDecisionState(i), i);\n"
+                + "\t\t}\n"
+                + "\t}\n"
+                + "}\n",
+                "L",
+                atn);
+
+        assertEquals("\3\u608b\ua72a\2\7\37\b\1\4\2\t\2\4\377\40" + "0\n\r\f\\'a",
+            atn.toString());
+        assertTrue(source, source.contains("\tstatic final class _ATNHolder {"));
+        assertTrue(source, source.contains("\t\tpublic static final String _serializedATN = "
+                + "_loadATN();"));
+        assertTrue(source, source.contains("\t\tpublic static final ATN _ATN ="));
+        assertTrue(source, source.contains("\t\tprotected static final DFA[] _decisionToDFA;"));
+        assertTrue(source, source.contains("\t\tstatic {"));
+        assertTrue(source, source.contains("L.class.getResourceAsStream(\"L.atn\")"));
+        assertTrue(source, source.contains(
+                "new LexerATNSimulator(this,_ATNHolder._ATN,_ATNHolder._decisionToDFA,null)"));
+        assertTrue(source, source.contains("return _ATNHolder._serializedATN;"));
+        assertFalse(source, source.contains("\\u608b"));
+    }
+
+
+    @Test
+    public void rewriteActions()
+    {
+        StringBuilder atn = new StringBuilder();
+        String source = AtnResources.rewrite(
+                "class P extends Parser {\n"
+                + "\tprotected static final DFA[] _decisionToDFA;\n"
+                + "\tpublic ATN getATN() { return _ATN; }\n"
+                + "\t// members that use _serializedATN\n"
+                + "\tint decisions() { return _ATN.getNumberOfDecisions(); }\n"
+                + "\tString name = \"_decisionToDFA }\";\n"
+                + "\tpublic static final String _serializedATN = \"\\3a\";\n"
+                + "\tpublic static final ATN _ATN = deserialize(_serializedATN);\n"
+                + "\tstatic {\n"
+                + "\t\t_decisionToDFA = new DFA['}'];\n"
+                + "\t\tString s = \"}\";\n"
+                + "\t\t/* } */\n"
+                + "\t\t_decisionToDFA[0] = null;\n"
+                + "\t}\n"
+                + "}\n",
+                "P",
+                atn);
+
+        assertEquals("\3a", atn.toString());
+        assertTrue(source, source.contains("return _ATNHolder._ATN;"));
+
+        // actions, literals and comments are not rewritten
+        assertTrue(source, source.contains("\t// members that use _serializedATN\n"));
+        assertTrue(source, source.contains("return _ATN.getNumberOfDecisions();"));
+        assertTrue(source, source.contains("\tString name = \"_decisionToDFA }\";\n"));
+
+        // only fields that actions refer to are delegated
+        assertFalse(source, source.contains("= _ATNHolder._decisionToDFA;"));
+        assertFalse(source, source.contains("= _ATNHolder._serializedATN;"));
+
+        // the whole static initializer is moved
+        assertTrue(source, source.contains("\t\t\t_decisionToDFA[0] = null;\n\t\t}\n"));
+        assertTrue(source, source.endsWith(
+                "\t}\n\n\tpublic static final ATN _ATN = _ATNHolder._ATN;\n}\n"));
+    }
+
+
+    @Test
+    public void rewriteNone()
+    {
+        StringBuilder atn = new StringBuilder();
+
+        assertNull(AtnResources.rewrite("class L {}", "L", atn));
+        assertEquals(0, atn.length());
+    }
+
+
+    @Test
+    public void rewriteSegments()
+    {
+        StringBuilder atn = new StringBuilder();
+        String source = AtnResources.rewrite(
+                "class P {\n"
+                + "\tprivate static final int _serializedATNSegments = 2;\n"
+                + "\tprivate static final String _serializedATNSegment0 =\n"
+                + "\t\t\"\\3ab\";\n"
+                + "\tprivate static final String _serializedATNSegment1 =\n"
+                + "\t\t\"cd\";\n"
+                + "\tpublic static final String _serializedATN = Utils.join(\n"
+                + "\t\tnew String[] {\n"
+                + "\t\t\t_serializedATNSegment0,\n"
+                + "\t\t\t_serializedATNSegment1\n"
+                + "\t\t},\n"
+                + "\t\t\"\"\n"
+                + "\t);\n"
+                + "\tpublic static final ATN _ATN = deserialize(_serializedATN);\n"
+                + "}\n",
+                "P",
+                atn);
+
+        assertEquals("\3abcd", atn.toString());
+        assertFalse(source, source.contains("_serializedATNSegment0"));
+        assertFalse(source, source.contains("Utils.join"));
+        assertTrue(source, source.contains("_serializedATN = _loadATN();"));
+        assertTrue(source, source.contains("\t\tpublic static final ATN _ATN ="));
+    }
+}
@@ -0,0 +1,174 @@
+package org.antlr.bazel;
+
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link ClassLoaderPool}.
+ */
+public class ClassLoaderPoolTest
+{
+    @Test
+    public void cleanup() throws Exception
+    {
+        Path directory = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            List<URL> classpath = Stubs.antlr3(directory);
+            ClassLoaderPool pool = new ClassLoaderPool(ClassLoaderPool.IDLE_TIMEOUT);
+            URLClassLoader loader;
+
+            try (ClassLoaderPool.Lease lease = pool.checkout(Version.V3, classpath))
+            {
+                loader = lease.loader();
+                Class<?> type = loader.loadClass("org.antlr.tool.ErrorManager");
+                type.getMethod("error", Object.class).invoke(null, "error");
+
+                assertEquals(1, threadToErrorStateMap(loader).size());
+            }
+
+            assertTrue(threadToErrorStateMap(loader).isEmpty());
+        }
+        finally
+        {
+            Stubs.delete(directory);
+        }
+    }
+
+
+    @Test
+    public void discard() throws Exception
+    {
+        Path directory = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            List<URL> classpath = Stubs.antlr3(directory);
+            ClassLoaderPool pool = new ClassLoaderPool(ClassLoaderPool.IDLE_TIMEOUT);
+            URLClassLoader loader;
+
+            try (ClassLoaderPool.Lease lease = pool.checkout(Version.V3, classpath))
+            {
+                loader = lease.loader();
+                lease.discard();
+            }
+
+            try (ClassLoaderPool.Lease lease = pool.checkout(Version.V3, classpath))
+            {
+                assertNotSame(loader, lease.loader());
+            }
+
+            ClassLoaderPool.Metrics metrics = pool.metrics();
+            assertEquals(0, metrics.hits);
+            assertEquals(2, metrics.misses);
+        }
+        finally
+        {
+            Stubs.delete(directory);
+        }
+    }
+
+
+    @Test
+    public void eviction() throws Exception
+    {
+        Path directory = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            List<URL> classpath = Stubs.antlr3(directory);
+            ClassLoaderPool pool = new ClassLoaderPool(0);
+            URLClassLoader loader;
+
+            try (ClassLoaderPool.Lease lease = pool.checkout(Version.V3, classpath))
+            {
+                loader = lease.loader();
+            }
+
+            try (ClassLoaderPool.Lease lease = pool.checkout(Version.V3, classpath))
+            {
+                assertNotSame(loader, lease.loader());
+            }
+
+            ClassLoaderPool.Metrics metrics = pool.metrics();
+            assertEquals(0, metrics.hits);
+            assertEquals(2, metrics.misses);
+            assertEquals(2, metrics.evictions);
+        }
+        finally
+        {
+            Stubs.delete(directory);
+        }
+    }
+
+
+    @Test
+    public void leases() throws Exception
+    {
+        Path directory = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            List<URL> classpath = Stubs.antlr3(directory);
+            ClassLoaderPool pool = new ClassLoaderPool(ClassLoaderPool.IDLE_TIMEOUT);
+            URLClassLoader loader;
+            URLClassLoader other;
+
+            try (ClassLoaderPool.Lease lease = pool.checkout(Version.V3, classpath))
+            {
+                loader = lease.loader();
+                assertSame(loader, Thread.currentThread().getContextClassLoader());
+
+                // the cached class loader is checked out, a new one must be used
+                try (ClassLoaderPool.Lease second = pool.checkout(Version.V3, classpath))
+                {
+                    other = second.loader();
+                    assertNotSame(loader, other);
+                    assertSame(other, Thread.currentThread().getContextClassLoader());
+                }
+
+                assertSame(loader, Thread.currentThread().getContextClassLoader());
+            }
+
+            assertNotSame(loader, Thread.currentThread().getContextClassLoader());
+
+            try (ClassLoaderPool.Lease lease = pool.checkout(Version.V3, classpath))
+            {
+                assertSame(loader, lease.loader());
+            }
+
+            ClassLoaderPool.Metrics metrics = pool.metrics();
+            assertEquals(1, metrics.hits);
+            assertEquals(2, metrics.misses);
+            assertEquals(0, metrics.evictions);
+        }
+        finally
+        {
+            Stubs.delete(directory);
+        }
+    }
+
+
+    private static Map<?, ?> threadToErrorStateMap(ClassLoader loader) throws Exception
+    {
+        Field field = loader.loadClass("org.antlr.tool.ErrorManager").getDeclaredField(
+                "threadToErrorStateMap");
+        field.setAccessible(true);
+
+        return (Map<?, ?>) field.get(null);
+    }
+}
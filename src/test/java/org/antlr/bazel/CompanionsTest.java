@@ -0,0 +1,74 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link Companions}.
+ */
+public class CompanionsTest
+{
+    @Test
+    public void constructor() throws Exception
+    {
+        UtilityClassTestSupport.test(Companions.class);
+    }
+
+
+    @Test
+    public void keyed()
+    {
+        assertArrayEquals(new String[] { "HelloParser", "r" },
+            Companions.keyed("HelloParser=r"));
+        assertArrayEquals(new String[] { "HelloParser", "a/b=c.txt" },
+            Companions.keyed("HelloParser=a/b=c.txt"));
+        assertArrayEquals(new String[] { null, "r" }, Companions.keyed("r"));
+        assertArrayEquals(new String[] { null, "a/b=c.txt" },
+            Companions.keyed("a/b=c.txt"));
+    }
+
+
+    @Test
+    public void packageName()
+    {
+        assertEquals("hello.world",
+            Companions.packageName("// header\npackage hello.world;\nclass T {}"));
+        assertEquals("package hello.world;\n\n",
+            Companions.packageDeclaration("package hello.world ;"));
+        assertNull(Companions.packageName("class T {}"));
+        assertEquals("", Companions.packageDeclaration("class T {}"));
+    }
+
+
+    @Test
+    public void parsers() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path dir = Files.createDirectories(fs.getPath("/a/b"));
+            Files.write(dir.resolve("TParser.java"), new byte[0]);
+            Files.write(dir.resolve("TLexer.java"), new byte[0]);
+            Files.write(fs.getPath("/SParser.java"), new byte[0]);
+            Files.write(fs.getPath("/SLexer.java"), new byte[0]);
+            Files.write(fs.getPath("/UParser.java"), new byte[0]);
+            Files.write(fs.getPath("/VLexer.java"), new byte[0]);
+
+            assertEquals(Arrays.asList(fs.getPath("/SParser.java"),
+                    dir.resolve("TParser.java")),
+                Companions.parsers(fs.getPath("/")));
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.antlr.bazel;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link Compilation}.
+ */
+public class CompilationTest
+{
+    @Test
+    public void compile() throws IOException
+    {
+        Path directory = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            Path srcjar = srcjar(directory,
+                    "package p; public class A { class B {} }",
+                    "package p; class C extends A {}");
+            Path jar = directory.resolve("A.jar");
+
+            new Compilation(StandardCharsets.UTF_8).options(
+                    Collections.singletonList("-g:none"))
+                .compile(srcjar, jar);
+
+            List<String> entries = new ArrayList<>();
+
+            try (JarFile file = new JarFile(jar.toFile()))
+            {
+                for (JarEntry entry : Collections.list(file.entries()))
+                {
+                    entries.add(entry.getName());
+                }
+            }
+
+            assertEquals(
+                "[META-INF/MANIFEST.MF, p/A$B.class, p/A.class, p/C.class]",
+                entries.toString());
+
+            // the output must be reproducible
+            byte[] first = Files.readAllBytes(jar);
+            new Compilation(StandardCharsets.UTF_8).options(
+                    Collections.singletonList("-g:none"))
+                .compile(srcjar, jar);
+            assertArrayEquals(first, Files.readAllBytes(jar));
+        }
+        finally
+        {
+            delete(directory);
+        }
+    }
+
+
+    @Test
+    public void failure() throws IOException
+    {
+        Path directory = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            Path srcjar = srcjar(directory, "package p; public class A extends X {}");
+
+            try
+            {
+                new Compilation(StandardCharsets.UTF_8).compile(srcjar,
+                    directory.resolve("A.jar"));
+                fail();
+            }
+            catch (IllegalStateException ex)
+            {
+                assertTrue(ex.getMessage(), ex.getMessage().startsWith("Compilation failed:"));
+                assertTrue(ex.getMessage(), ex.getMessage().contains("A.java"));
+            }
+        }
+        finally
+        {
+            delete(directory);
+        }
+    }
+
+
+    @Test
+    public void release() throws IOException
+    {
+        Path directory = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            Path srcjar = srcjar(directory, "package p; public class A {}");
+            Path jar = directory.resolve("A.jar");
+
+            new Compilation(StandardCharsets.UTF_8).compile(srcjar, jar);
+            assertEquals(52, majorVersion(jar));
+
+            // explicit options take precedence, but only newer compilers support them
+            if (ToolProvider.getSystemJavaCompiler().isSupportedOption("--release") > -1)
+            {
+                new Compilation(StandardCharsets.UTF_8).options(
+                        Arrays.asList("--release", "9"))
+                    .compile(srcjar, jar);
+                assertEquals(53, majorVersion(jar));
+            }
+        }
+        finally
+        {
+            delete(directory);
+        }
+    }
+
+
+    private static void delete(Path directory) throws IOException
+    {
+        Files.deleteIfExists(directory.resolve("A.jar"));
+        Files.deleteIfExists(directory.resolve("A.srcjar"));
+        Files.delete(directory);
+    }
+
+
+    private static int majorVersion(Path jar) throws IOException
+    {
+        try (JarFile file = new JarFile(jar.toFile());
+            DataInputStream in = new DataInputStream(file.getInputStream(
+                    file.getEntry("p/A.class"))))
+        {
+            // skips the magic number and the minor version
+            in.readInt();
+            in.readUnsignedShort();
+
+            return in.readUnsignedShort();
+        }
+    }
+
+
+    private static Path srcjar(Path directory, String... sources) throws IOException
+    {
+        Path srcjar = directory.resolve("A.srcjar");
+        Map<String, String> env = new HashMap<>();
+        env.put("create", "true");
+
+        try (FileSystem archive = FileSystems.newFileSystem(
+                    URI.create("jar:" + srcjar.toUri()),
+                    env))
+        {
+            Path p = Files.createDirectories(archive.getPath("/p"));
+
+            for (String source : sources)
+            {
+                String name = source.replaceFirst(".*?class (\\w+).*", "$1");
+                Files.write(p.resolve(name + ".java"),
+                    source.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        return srcjar;
+    }
+}
@@ -0,0 +1,75 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link DfaCache}.
+ */
+public class DfaCacheTest
+{
+    @Test
+    public void constructor() throws Exception
+    {
+        UtilityClassTestSupport.test(DfaCache.class);
+    }
+
+
+    @Test
+    public void generate() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path dir = Files.createDirectories(fs.getPath("/hello/world"));
+            Files.write(dir.resolve("HelloParser.java"),
+                "package hello.world;\npublic class HelloParser {}\n".getBytes(
+                    StandardCharsets.UTF_8));
+            // the lexer ATN was extracted into a resource
+            Files.write(dir.resolve("HelloLexer.java"),
+                ("package hello.world;\nclass HelloLexer {\n\tstatic final class "
+                    + AtnResources.HOLDER + " {\n\t}\n}\n").getBytes(
+                    StandardCharsets.UTF_8));
+            Files.write(fs.getPath("/UParser.java"), new byte[0]);
+
+            DfaCache.generate(fs.getPath("/"), StandardCharsets.UTF_8, 50000);
+
+            String companion = new String(Files.readAllBytes(
+                        dir.resolve("HelloParserDfaCache.java")),
+                    StandardCharsets.UTF_8);
+
+            assertTrue(companion, companion.startsWith("package hello.world;"));
+            assertTrue(companion, companion.contains("public final class HelloParserDfaCache"));
+            assertTrue(companion, companion.contains("DEFAULT_LIMIT = 50000;"));
+            assertTrue(companion, companion.contains("HelloParser._decisionToDFA[i] = new "));
+            assertTrue(companion,
+                companion.contains("HelloLexer._ATNHolder._decisionToDFA[i] = new "));
+
+            // no lexer
+            assertFalse(Files.exists(fs.getPath("/UParserDfaCache.java")));
+        }
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void generateWithoutParser() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Files.write(fs.getPath("/TLexer.java"), new byte[0]);
+
+            DfaCache.generate(fs.getPath("/"), StandardCharsets.UTF_8, 1);
+        }
+    }
+}
@@ -11,6 +11,7 @@ import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.antlr.bazel.DirectoryLayout;
@@ -106,6 +107,16 @@ public class DirectoryLayoutTest
     }
 
 
+    @Test
+    public void of()
+    {
+        assertSame(DirectoryLayout.of("src/grammars"), DirectoryLayout.of("src/grammars"));
+        assertTrue(DirectoryLayout.of("flat").isFlat());
+        assertEquals(new DirectoryLayout("src/grammars").toString(),
+            DirectoryLayout.of("src/grammars").toString());
+    }
+
+
     @Test
     public void tostring()
     {
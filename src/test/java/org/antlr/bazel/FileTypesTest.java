@@ -0,0 +1,67 @@
+package org.antlr.bazel;
+
+import java.nio.file.Paths;
+
+import static org.antlr.bazel.FileTypes.Role.*;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link FileTypes}.
+ */
+public class FileTypesTest
+{
+    @Test
+    public void c()
+    {
+        FileTypes types = Language.CPP.getFileTypes();
+
+        assertEquals(SOURCE, types.classify("HelloParser.cpp"));
+        assertEquals(SOURCE, types.classify("HelloParser.C"));
+        assertEquals(HEADER, types.classify("HelloParser.h"));
+        assertEquals(HEADER, types.classify("HelloParser.H"));
+        assertEquals(HEADER, types.classify("HelloParser.h++"));
+        assertEquals(DATA, types.classify("Hello.tokens"));
+        assertEquals(DATA, types.classify("Hello.interp"));
+        assertEquals(DATA, types.classify("Hello"));
+        assertEquals(LOG, types.classify("antlr-2020-01-01.log"));
+        assertEquals(DISCARD, types.classify(Paths.get("out", "expandedHello.g")));
+    }
+
+
+    @Test
+    public void defaults()
+    {
+        FileTypes types = Language.JAVA.getFileTypes();
+
+        assertEquals(SOURCE, types.classify("HelloParser.java"));
+        assertEquals(SOURCE, types.classify("Hello.tokens"));
+        assertEquals(SOURCE, types.classify("expanded.java"));
+        assertEquals(LOG, types.classify("antlr-2020-01-01.log"));
+        assertEquals(DISCARD, types.classify("expandedHello.g"));
+    }
+
+
+    @Test
+    public void go()
+    {
+        FileTypes types = Language.GO.getFileTypes();
+
+        assertEquals(SOURCE, types.classify("hello_parser.go"));
+        assertEquals(DATA, types.classify("Hello.tokens"));
+        assertEquals(LOG, types.classify("antlr-2020-01-01.log"));
+    }
+
+
+    @Test
+    public void with()
+    {
+        FileTypes types = FileTypes.DEFAULT.with(DATA, "tokens");
+
+        assertEquals(DATA, types.classify("Hello.tokens"));
+        assertEquals(SOURCE, FileTypes.DEFAULT.classify("Hello.tokens"));
+        assertEquals(LOG, types.classify("antlr.log"));
+    }
+}
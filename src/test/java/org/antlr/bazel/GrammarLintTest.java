@@ -0,0 +1,219 @@
+package org.antlr.bazel;
+
+import java.util.List;
+
+import org.antlr.bazel.GrammarLint.Atn;
+import org.antlr.bazel.GrammarLint.State;
+
+import static org.antlr.bazel.GrammarLint.ATOM;
+import static org.antlr.bazel.GrammarLint.BASIC;
+import static org.antlr.bazel.GrammarLint.BLOCK_END;
+import static org.antlr.bazel.GrammarLint.BLOCK_START;
+import static org.antlr.bazel.GrammarLint.EPSILON;
+import static org.antlr.bazel.GrammarLint.LOOP_END;
+import static org.antlr.bazel.GrammarLint.PRECEDENCE;
+import static org.antlr.bazel.GrammarLint.PREDICATE;
+import static org.antlr.bazel.GrammarLint.RULE;
+import static org.antlr.bazel.GrammarLint.RULE_START;
+import static org.antlr.bazel.GrammarLint.STAR_BLOCK_START;
+import static org.antlr.bazel.GrammarLint.STAR_LOOP_BACK;
+import static org.antlr.bazel.GrammarLint.STAR_LOOP_ENTRY;
+import static org.antlr.bazel.GrammarLint.WILDCARD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link GrammarLint}.
+ */
+public class GrammarLintTest
+{
+    @Test
+    public void constructor() throws Exception
+    {
+        UtilityClassTestSupport.test(GrammarLint.class);
+    }
+
+
+    @Test
+    public void leftRecursion()
+    {
+        List<String> findings = GrammarLint.analyze(
+                leftRecursive(GrammarLint.PRECEDENCE_LEVELS + 1));
+
+        assertEquals(findings.toString(), 1, findings.size());
+        assertTrue(findings.get(0),
+            findings.get(0).startsWith(
+                "Rule 'e' of grammar T is left-recursive with 17 precedence levels"));
+
+        assertTrue(GrammarLint.analyze(leftRecursive(GrammarLint.PRECEDENCE_LEVELS))
+            .isEmpty());
+    }
+
+
+    @Test
+    public void lexerPredicates()
+    {
+        Atn atn = new Atn("TLexer", true, "A");
+        State start = atn.state(RULE_START, 0);
+        State state = atn.state(BASIC, 0);
+        start.add(PREDICATE, state);
+        state.add(ATOM, atn.state(BASIC, 0));
+
+        List<String> findings = GrammarLint.analyze(atn);
+
+        assertEquals(findings.toString(), 1, findings.size());
+        assertTrue(findings.get(0),
+            findings.get(0).startsWith(
+                "Lexer rule 'A' of grammar TLexer contains 1 semantic predicate."));
+    }
+
+
+    @Test
+    public void lookahead()
+    {
+        List<String> findings = GrammarLint.analyze(lookahead(true));
+
+        assertEquals(findings.toString(), 1, findings.size());
+        assertTrue(findings.get(0),
+            findings.get(0).startsWith(
+                "Decision 0 in rule 's' of grammar T is not LL(1) and 2 of its "
+                + "alternatives can match input of arbitrary length"));
+
+        // bounded alternatives
+        assertTrue(GrammarLint.analyze(lookahead(false)).isEmpty());
+    }
+
+
+    @Test
+    public void predicates()
+    {
+        // p : q* ; q : {pred}? ID ; r : {pred}? ID ;
+        Atn atn = new Atn("T", false, "p", "q", "r");
+        State p = atn.state(RULE_START, 0);
+        State q = atn.state(RULE_START, 1);
+        State r = atn.state(RULE_START, 2);
+        State entry = loop(atn, 0, p, false);
+        State body = entry.transitions.get(0).target;
+        body.transitions.clear();
+        body.add(RULE, q).follow = entry.loopBack;
+
+        for (State start : new State[] { q, r })
+        {
+            State state = atn.state(BASIC, start.rule);
+            start.add(PREDICATE, state);
+            state.add(ATOM, atn.state(BASIC, start.rule));
+        }
+
+        List<String> findings = GrammarLint.analyze(atn);
+
+        assertEquals(findings.toString(), 1, findings.size());
+        assertTrue(findings.get(0),
+            findings.get(0).startsWith(
+                "Rule 'q' of grammar T is invoked repeatedly, in a loop or recursively, "
+                + "and contains 1 semantic predicate."));
+    }
+
+
+    @Test
+    public void wildcards()
+    {
+        // COMMENT : '#' .* '\n' ;
+        Atn atn = new Atn("TLexer", true, "COMMENT", "LINE");
+        loop(atn, 0, atn.state(RULE_START, 0), true);
+
+        // LINE : '#' .*? '\n' ;
+        loop(atn, 1, atn.state(RULE_START, 1), true).greedy = false;
+
+        List<String> findings = GrammarLint.analyze(atn);
+
+        assertEquals(findings.toString(), 1, findings.size());
+        assertTrue(findings.get(0),
+            findings.get(0).startsWith(
+                "Lexer rule 'COMMENT' of grammar TLexer contains a greedy loop over the "
+                + "wildcard"));
+    }
+
+
+    private static Atn leftRecursive(int levels)
+    {
+        Atn atn = new Atn("T", false, "e");
+        State start = atn.state(RULE_START, 0);
+        start.leftRecursive = true;
+
+        for (int i = 1; i <= levels; i++)
+        {
+            start.add(PRECEDENCE, atn.state(BASIC, 0)).precedence = i;
+        }
+
+        return atn;
+    }
+
+
+    /**
+     * Creates the ATN for {@code s : a X | a Y ;} where {@code a} either matches a list of
+     * arbitrary length or a single token.
+     */
+    private static Atn lookahead(boolean list)
+    {
+        Atn atn = new Atn("T", false, "s", "a");
+        State s = atn.state(RULE_START, 0);
+        State a = atn.state(RULE_START, 1);
+        State block = atn.state(BLOCK_START, 0);
+        State end = atn.state(BLOCK_END, 0);
+        block.decision = 0;
+        block.end = end;
+        block.conflicts = new boolean[] { true, true };
+        s.add(EPSILON, block);
+
+        for (int i = 0; i < 2; i++)
+        {
+            State call = atn.state(BASIC, 0);
+            State follow = atn.state(BASIC, 0);
+            block.add(EPSILON, call);
+            call.add(RULE, a).follow = follow;
+            follow.add(ATOM, end);
+        }
+
+        if (list)
+        {
+            loop(atn, 1, a, false);
+        }
+        else
+        {
+            a.add(ATOM, atn.state(BASIC, 1));
+        }
+
+        return atn;
+    }
+
+
+    /**
+     * Adds a star loop to the given state.
+     *
+     * @param   atn       the ATN.
+     * @param   rule      the rule index.
+     * @param   from      the state to add the loop to.
+     * @param   wildcard  if {@code true} the body matches the wildcard, otherwise a
+     *                    token.
+     *
+     * @return  the loop entry state.
+     */
+    private static State loop(Atn atn, int rule, State from, boolean wildcard)
+    {
+        State entry = atn.state(STAR_LOOP_ENTRY, rule);
+        State body = atn.state(STAR_BLOCK_START, rule);
+        State back = atn.state(STAR_LOOP_BACK, rule);
+        entry.decision = 1;
+        entry.loopBack = back;
+        from.add(EPSILON, entry);
+        entry.add(EPSILON, body);
+        entry.add(EPSILON, atn.state(LOOP_END, rule));
+        body.add(wildcard ? WILDCARD : ATOM, back);
+        back.add(EPSILON, entry);
+
+        return entry;
+    }
+}
@@ -0,0 +1,142 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link HugeMethods}.
+ */
+public class HugeMethodsTest
+{
+    @Test
+    public void constructor() throws Exception
+    {
+        UtilityClassTestSupport.test(HugeMethods.class);
+    }
+
+
+    @Test
+    public void find() throws IOException
+    {
+        Path directory = Files.createTempDirectory("antlr-bazel-test-");
+        Path srcjar = directory.resolve("T.srcjar");
+        Path jar = directory.resolve("T.jar");
+
+        try
+        {
+            StringBuilder body = new StringBuilder();
+
+            // every increment of a field takes 10 bytes
+            for (int i = 0; i < 1000; i++)
+            {
+                body.append("x++;");
+            }
+
+            Map<String, String> env = new HashMap<>();
+            env.put("create", "true");
+
+            try (FileSystem archive = FileSystems.newFileSystem(
+                        URI.create("jar:" + srcjar.toUri()),
+                        env))
+            {
+                Files.write(Files.createDirectories(archive.getPath("/p"))
+                        .resolve("TParser.java"),
+                    ("package p;\n"
+                        + "public class TParser {\n"
+                        + "\tpublic static final String[] ruleNames = {\n"
+                        + "\t\t\"expr\", \"small\"\n"
+                        + "\t};\n"
+                        + "\tint x;\n"
+                        + "\tpublic void expr() {" + body + "}\n"
+                        + "\tpublic void expr(int y) {}\n"
+                        + "\tpublic void small() {x++;}\n"
+                        + "\tpublic void other() {" + body + "}\n"
+                        + "}\n").getBytes(StandardCharsets.UTF_8));
+            }
+
+            new Compilation(StandardCharsets.UTF_8).compile(srcjar, jar);
+
+            List<String> methods = HugeMethods.find(jar, srcjar, StandardCharsets.UTF_8);
+
+            assertEquals(methods.toString(), 2, methods.size());
+            assertEquals("p.TParser.expr() has 10001 bytes of bytecode, more than the "
+                + "HugeMethodLimit of 8000, so it will not be JIT-compiled. Consider "
+                + "splitting rule 'expr' into smaller rules",
+                methods.get(0));
+            assertEquals("p.TParser.other() has 10001 bytes of bytecode, more than the "
+                + "HugeMethodLimit of 8000, so it will not be JIT-compiled",
+                methods.get(1));
+        }
+        finally
+        {
+            Files.deleteIfExists(jar);
+            Files.deleteIfExists(srcjar);
+            Files.delete(directory);
+        }
+    }
+
+
+    @Test
+    public void findNone() throws IOException
+    {
+        Path directory = Files.createTempDirectory("antlr-bazel-test-");
+        Path srcjar = directory.resolve("T.srcjar");
+        Path jar = directory.resolve("T.jar");
+
+        try
+        {
+            Map<String, String> env = new HashMap<>();
+            env.put("create", "true");
+
+            try (FileSystem archive = FileSystems.newFileSystem(
+                        URI.create("jar:" + srcjar.toUri()),
+                        env))
+            {
+                Files.write(archive.getPath("/T.java"),
+                    "class T { void t() {} }".getBytes(StandardCharsets.UTF_8));
+            }
+
+            new Compilation(StandardCharsets.UTF_8).compile(srcjar, jar);
+
+            assertEquals(Collections.emptyList(),
+                HugeMethods.find(jar, srcjar, StandardCharsets.UTF_8));
+        }
+        finally
+        {
+            Files.deleteIfExists(jar);
+            Files.deleteIfExists(srcjar);
+            Files.delete(directory);
+        }
+    }
+
+
+    @Test
+    public void sizes() throws IOException
+    {
+        try (InputStream in = HugeMethods.class.getResourceAsStream(
+                    "HugeMethods.class"))
+        {
+            Map<String, Integer> sizes = HugeMethods.sizes(in);
+
+            assertTrue(sizes.toString(), sizes.containsKey("<init>"));
+            assertTrue(sizes.toString(), sizes.containsKey("<clinit>"));
+            assertTrue(sizes.toString(), sizes.get("find") > 0);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import java.nio.file.Paths;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.antlr.bazel.Language;
@@ -37,6 +39,32 @@ public class NamespaceTest
     }
 
 
+    @Test
+    public void interned()
+    {
+        assertSame(Namespace.of("foo.bar"), Namespace.of("foo.bar"));
+        assertSame(Namespace.of("foo.bar", true), Namespace.of("foo.bar", true));
+        assertNotSame(Namespace.of("foo.bar"), Namespace.of("foo.bar", true));
+        assertSame(Namespace.of("foo.bar").toPath(Language.JAVA),
+            Namespace.of("foo.bar").toPath(Language.JAVA));
+    }
+
+
+    @Test
+    public void internedBounded()
+    {
+        Namespace namespace = Namespace.of("bounded");
+
+        for (int i = 0; i < Namespace.CAPACITY; i++)
+        {
+            Namespace.of("bounded" + i);
+        }
+
+        assertNotSame(namespace, Namespace.of("bounded"));
+        assertEquals(namespace, Namespace.of("bounded"));
+    }
+
+
     @Test
     public void isEmpty()
     {
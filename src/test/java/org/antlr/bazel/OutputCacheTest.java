@@ -0,0 +1,233 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link OutputCache}.
+ */
+public class OutputCacheTest
+{
+    @Test
+    public void digest() throws IOException
+    {
+        Path root = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            OutputCache cache = new OutputCache(root.resolve("cache"), 1024);
+            Path grammar = write(root.resolve("src/Hello.g4"), "grammar Hello;");
+
+            String key = cache.digest().string("4").file(grammar).toString();
+
+            assertEquals(64, key.length());
+            assertEquals(key, cache.digest().string("4").file(grammar).toString());
+            assertNotEquals(key, cache.digest().string("3").file(grammar).toString());
+            assertNotEquals(cache.digest().string("ab").string("c").toString(),
+                cache.digest().string("a").string("bc").toString());
+            assertNotEquals(key,
+                cache.digest().string("4").tree(root.resolve("src")).toString());
+        }
+        finally
+        {
+            delete(root);
+        }
+    }
+
+
+    @Test
+    public void evict() throws IOException
+    {
+        Path root = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            OutputCache cache = new OutputCache(root.resolve("cache"), 10);
+
+            cache.store("a", outputs(write(root.resolve("a.srcjar"), "123456")),
+                Collections.<String>emptyList());
+            assertTrue(Files.exists(root.resolve("cache/a")));
+            Files.setLastModifiedTime(root.resolve("cache/a"), FileTime.fromMillis(0));
+
+            cache.store("b", outputs(write(root.resolve("b.srcjar"), "123456")),
+                Collections.<String>emptyList());
+            assertFalse(Files.exists(root.resolve("cache/a")));
+            assertTrue(Files.exists(root.resolve("cache/b")));
+        }
+        finally
+        {
+            delete(root);
+        }
+    }
+
+
+    @Test
+    public void evictSkipsPending() throws IOException
+    {
+        Path root = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            OutputCache cache = new OutputCache(root.resolve("cache"), 10);
+
+            // an entry another process is still storing
+            Path pending = write(root.resolve("cache/.tmp-1/size"), "100");
+            Files.setLastModifiedTime(pending.getParent(), FileTime.fromMillis(0));
+
+            cache.store("a", outputs(write(root.resolve("a.srcjar"), "123456")),
+                Collections.<String>emptyList());
+            assertTrue(Files.exists(pending));
+            assertTrue(Files.exists(root.resolve("cache/a")));
+        }
+        finally
+        {
+            delete(root);
+        }
+    }
+
+
+    @Test
+    public void miss() throws IOException
+    {
+        Path root = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            OutputCache cache = new OutputCache(root.resolve("cache"), 1024);
+
+            assertNull(cache.restore("a", outputs(root.resolve("a.srcjar"))));
+            assertFalse(Files.exists(root.resolve("a.srcjar")));
+        }
+        finally
+        {
+            delete(root);
+        }
+    }
+
+
+    @Test
+    public void restore() throws IOException
+    {
+        Path root = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            OutputCache cache = new OutputCache(root.resolve("cache"), 1024);
+            Path sources = root.resolve("out/hello.cc");
+            write(sources.resolve("a/HelloParser.cpp"), "parser");
+            write(sources.resolve("a/HelloLexer.cpp"), "lexer");
+
+            Map<String, Path> outputs = new HashMap<>();
+            outputs.put("sources", sources);
+            outputs.put("headers", root.resolve("out/hello.inc"));
+            cache.store("a", outputs, Arrays.asList("first", "second"));
+
+            Path restored = Files.createDirectories(root.resolve("other/hello.cc"));
+            outputs.put("sources", restored);
+            outputs.put("headers", root.resolve("other/hello.inc"));
+
+            assertEquals(Arrays.asList("first", "second"), cache.restore("a", outputs));
+            assertEquals("parser", read(restored.resolve("a/HelloParser.cpp")));
+            assertEquals("lexer", read(restored.resolve("a/HelloLexer.cpp")));
+            assertFalse(Files.exists(root.resolve("other/hello.inc")));
+        }
+        finally
+        {
+            delete(root);
+        }
+    }
+
+
+    @Test
+    public void restoreFailure() throws IOException
+    {
+        Path root = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            OutputCache cache = new OutputCache(root.resolve("cache"), 1024);
+            cache.store("a", outputs(write(root.resolve("a.srcjar"), "123456")),
+                Collections.<String>emptyList());
+
+            // a directory can't be replaced by the cached file
+            Path srcjar = root.resolve("other/a.srcjar");
+            write(srcjar.resolve("stale"), "stale");
+
+            assertNull(cache.restore("a", outputs(srcjar)));
+            assertTrue(Files.isDirectory(srcjar));
+            assertFalse(Files.exists(srcjar.resolve("stale")));
+        }
+        finally
+        {
+            delete(root);
+        }
+    }
+
+
+    private void delete(Path directory) throws IOException
+    {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException ex)
+                    throws IOException
+                {
+                    Files.delete(dir);
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException
+                {
+                    Files.delete(file);
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+    }
+
+
+    private Map<String, Path> outputs(Path srcjar)
+    {
+        Map<String, Path> result = new HashMap<>();
+        result.put("srcjar", srcjar);
+
+        return result;
+    }
+
+
+    private String read(Path file) throws IOException
+    {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+
+    private Path write(Path file, String contents) throws IOException
+    {
+        Files.createDirectories(file.getParent());
+
+        return Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
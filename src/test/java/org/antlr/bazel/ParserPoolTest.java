@@ -0,0 +1,98 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link ParserPool}.
+ */
+public class ParserPoolTest
+{
+    @Test
+    public void constructor() throws Exception
+    {
+        UtilityClassTestSupport.test(ParserPool.class);
+    }
+
+
+    @Test
+    public void generate() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path dir = Files.createDirectories(fs.getPath("/hello/world"));
+            Files.write(dir.resolve("HelloParser.java"),
+                "package hello.world;\npublic class HelloParser {}\n".getBytes(
+                    StandardCharsets.UTF_8));
+            Files.write(dir.resolve("HelloLexer.java"),
+                "package hello.world;".getBytes(StandardCharsets.UTF_8));
+            Files.write(fs.getPath("/UParser.java"), new byte[0]);
+
+            ParserPool.generate(fs.getPath("/"), StandardCharsets.UTF_8, false);
+
+            String driver = new String(Files.readAllBytes(
+                        dir.resolve("HelloParserPool.java")),
+                    StandardCharsets.UTF_8);
+
+            assertTrue(driver, driver.startsWith("package hello.world;"));
+            assertTrue(driver, driver.contains("public final class HelloParserPool"));
+            assertTrue(driver, driver.contains("final HelloLexer lexer = new HelloLexer("));
+            assertTrue(driver, driver.contains("HelloParser parser = instances.parser;"));
+            assertTrue(driver, driver.contains("parseAll("));
+            assertTrue(driver, driver.contains("instances.release();"));
+            assertTrue(driver,
+                driver.contains("Instances instances = pooled.inUse ? new Instances() : "
+                    + "pooled;"));
+            assertTrue(driver,
+                driver.contains("lexer.setInputStream(org.antlr.v4.runtime.CharStreams."
+                    + "fromString(\"\"));"));
+            assertFalse(driver, driver.contains("checkLimit()"));
+
+            // no lexer
+            assertFalse(Files.exists(fs.getPath("/UParserPool.java")));
+        }
+    }
+
+
+    @Test
+    public void generateLimited() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Files.write(fs.getPath("/TParser.java"),
+                "public class TParser {}".getBytes(StandardCharsets.UTF_8));
+            Files.write(fs.getPath("/TLexer.java"), new byte[0]);
+
+            ParserPool.generate(fs.getPath("/"), StandardCharsets.UTF_8, true);
+
+            String driver = new String(Files.readAllBytes(fs.getPath("/TParserPool.java")),
+                    StandardCharsets.UTF_8);
+
+            assertTrue(driver, driver.contains("TParserDfaCache.checkLimit();"));
+        }
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void generateWithoutParser() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Files.write(fs.getPath("/TLexer.java"), new byte[0]);
+
+            ParserPool.generate(fs.getPath("/"), StandardCharsets.UTF_8, false);
+        }
+    }
+}
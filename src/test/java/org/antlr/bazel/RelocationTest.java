@@ -0,0 +1,110 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link Relocation}.
+ */
+public class RelocationTest
+{
+    @Test
+    public void execute() throws IOException
+    {
+        test(10);
+    }
+
+
+    @Test
+    public void executeParallel() throws IOException
+    {
+        test(Relocation.PARALLEL_THRESHOLD * 4 + 3);
+    }
+
+
+    @Test
+    public void failure() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path root = Files.createDirectories(fs.getPath("/work"));
+            Relocation relocation = new Relocation(4);
+
+            for (int i = 0; i < Relocation.PARALLEL_THRESHOLD * 4; i++)
+            {
+                relocation.add(root.resolve("missing" + i), root.resolve("a/missing" + i));
+            }
+
+            relocation.execute();
+
+            fail("Expected NoSuchFileException");
+        }
+        catch (NoSuchFileException ex)
+        {
+            assertEquals(3, ex.getSuppressed().length);
+        }
+    }
+
+
+    @Test
+    public void same() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path file = Files.write(fs.getPath("/Hello.java"),
+                    "".getBytes(StandardCharsets.UTF_8));
+            Relocation relocation = new Relocation().add(file, file);
+
+            assertEquals(0, relocation.size());
+            relocation.execute();
+            assertTrue(Files.exists(file));
+        }
+    }
+
+
+    private void test(int count) throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path root = Files.createDirectories(fs.getPath("/work"));
+            Relocation relocation = new Relocation(4);
+
+            for (int i = 0; i < count; i++)
+            {
+                Path file = Files.write(root.resolve("File" + i + ".cpp"),
+                        String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+                relocation.add(file, root.resolve("ns" + (i % 3)).resolve(file.getFileName()));
+            }
+
+            assertEquals(count, relocation.size());
+
+            relocation.execute();
+
+            assertEquals(0, relocation.size());
+
+            for (int i = 0; i < count; i++)
+            {
+                assertFalse(Files.exists(root.resolve("File" + i + ".cpp")));
+
+                Path target = root.resolve("ns" + (i % 3)).resolve("File" + i + ".cpp");
+                assertEquals(String.valueOf(i),
+                    new String(Files.readAllBytes(target), StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link Staging}.
+ */
+public class StagingTest
+{
+    @Test
+    public void discard() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path bin = Files.createDirectories(fs.getPath("/bin"));
+            Path sources = Files.createDirectories(bin.resolve("parser.cc"));
+
+            try (Staging staging = new Staging(bin, "parser.staging"))
+            {
+                Path staged = Files.createDirectories(staging.resolve(sources));
+                Files.write(staged.resolve("HelloParser.cpp"),
+                    "".getBytes(StandardCharsets.UTF_8));
+            }
+
+            assertFalse(Files.exists(bin.resolve("parser.staging")));
+            assertTrue(Files.isDirectory(sources));
+            assertFalse(Files.list(sources).findAny().isPresent());
+        }
+    }
+
+
+    @Test
+    public void notEmpty() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path bin = Files.createDirectories(fs.getPath("/bin"));
+            Path sources = Files.createDirectories(bin.resolve("parser.cc"));
+            Files.write(sources.resolve("Stale.cpp"), "".getBytes(StandardCharsets.UTF_8));
+
+            try (Staging staging = new Staging(bin, "parser.staging"))
+            {
+                Files.createDirectories(staging.resolve(sources));
+                staging.publish();
+
+                fail("Expected IllegalStateException");
+            }
+            catch (IllegalStateException ex)
+            {
+                assertEquals("Output directory not empty: /bin/parser.cc", ex.getMessage());
+            }
+        }
+    }
+
+
+    @Test
+    public void publish() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path bin = Files.createDirectories(fs.getPath("/bin"));
+            Path sources = Files.createDirectories(bin.resolve("parser.cc"));
+            Path headers = bin.resolve("parser.inc");
+
+            try (Staging staging = new Staging(bin, "parser.staging"))
+            {
+                Path staged = Files.createDirectories(staging.resolve(sources).resolve("a"));
+                Files.write(staged.resolve("HelloParser.cpp"),
+                    "".getBytes(StandardCharsets.UTF_8));
+                staged = Files.createDirectories(staging.resolve(headers).resolve("a"));
+                Files.write(staged.resolve("HelloParser.h"),
+                    "".getBytes(StandardCharsets.UTF_8));
+
+                staging.publish();
+            }
+
+            assertFalse(Files.exists(bin.resolve("parser.staging")));
+            assertTrue(Files.exists(sources.resolve("a/HelloParser.cpp")));
+            assertTrue(Files.exists(headers.resolve("a/HelloParser.h")));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link Streaming}.
+ */
+public class StreamingTest
+{
+    @Test
+    public void constructor() throws Exception
+    {
+        UtilityClassTestSupport.test(Streaming.class);
+    }
+
+
+    @Test
+    public void generate() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path dir = Files.createDirectories(fs.getPath("/hello/world"));
+            Files.write(dir.resolve("HelloParser.java"),
+                ("package hello.world;\npublic class HelloParser {\n"
+                    + "\tpublic static final String[] ruleNames = {\n\t\t\"r\", \"s\"\n\t};\n}\n")
+                .getBytes(StandardCharsets.UTF_8));
+            Files.write(dir.resolve("HelloLexer.java"),
+                "package hello.world;".getBytes(StandardCharsets.UTF_8));
+            Files.write(fs.getPath("/UParser.java"), new byte[0]);
+
+            Streaming.generate(fs.getPath("/"),
+                StandardCharsets.UTF_8,
+                null,
+                Collections.emptyMap(),
+                false);
+
+            String driver = new String(Files.readAllBytes(
+                        dir.resolve("HelloParserStreaming.java")),
+                    StandardCharsets.UTF_8);
+
+            assertTrue(driver, driver.startsWith("package hello.world;"));
+            assertTrue(driver, driver.contains("public final class HelloParserStreaming"));
+            assertTrue(driver, driver.contains("UnbufferedCharStream("));
+            assertTrue(driver, driver.contains("UnbufferedTokenStream<>(lexer)"));
+            assertTrue(driver, driver.contains("parser.setBuildParseTree(false);"));
+            assertTrue(driver, driver.contains("parser.r();"));
+            assertTrue(driver, driver.contains("parser.addParseListener(RELEASE);"));
+            assertTrue(driver, driver.contains("ctx.removeLastChild();"));
+            assertFalse(driver, driver.contains("checkLimit()"));
+
+            // no lexer
+            assertFalse(Files.exists(fs.getPath("/UParserStreaming.java")));
+        }
+    }
+
+
+    @Test
+    public void generateRule() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Files.write(fs.getPath("/TParser.java"),
+                "public class TParser {}".getBytes(StandardCharsets.UTF_8));
+            Files.write(fs.getPath("/TLexer.java"), new byte[0]);
+
+            Streaming.generate(fs.getPath("/"),
+                StandardCharsets.UTF_8,
+                "s",
+                Collections.emptyMap(),
+                true);
+
+            String driver = new String(Files.readAllBytes(
+                        fs.getPath("/TParserStreaming.java")),
+                    StandardCharsets.UTF_8);
+
+            assertTrue(driver, driver.startsWith("/**"));
+            assertTrue(driver, driver.contains("parser.s();"));
+            assertTrue(driver, driver.contains("TParserDfaCache.checkLimit();"));
+        }
+    }
+
+
+    @Test
+    public void generateParserRules() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            for (String grammar : new String[] { "T", "U" })
+            {
+                Files.write(fs.getPath("/" + grammar + "Parser.java"),
+                    ("public class " + grammar + "Parser {}").getBytes(
+                        StandardCharsets.UTF_8));
+                Files.write(fs.getPath("/" + grammar + "Lexer.java"), new byte[0]);
+            }
+
+            Streaming.generate(fs.getPath("/"),
+                StandardCharsets.UTF_8,
+                "s",
+                Collections.singletonMap("UParser", "u"),
+                false);
+
+            assertTrue(new String(Files.readAllBytes(fs.getPath("/TParserStreaming.java")),
+                    StandardCharsets.UTF_8).contains("parser.s();"));
+            assertTrue(new String(Files.readAllBytes(fs.getPath("/UParserStreaming.java")),
+                    StandardCharsets.UTF_8).contains("parser.u();"));
+        }
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void generateUnknownParser() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Files.write(fs.getPath("/TParser.java"),
+                "public class TParser {}".getBytes(StandardCharsets.UTF_8));
+            Files.write(fs.getPath("/TLexer.java"), new byte[0]);
+
+            Streaming.generate(fs.getPath("/"),
+                StandardCharsets.UTF_8,
+                null,
+                Collections.singletonMap("UParser", "u"),
+                false);
+        }
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void generateWithoutParser() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Files.write(fs.getPath("/TLexer.java"), new byte[0]);
+
+            Streaming.generate(fs.getPath("/"),
+                StandardCharsets.UTF_8,
+                null,
+                Collections.emptyMap(),
+                false);
+        }
+    }
+}
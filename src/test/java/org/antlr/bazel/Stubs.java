@@ -0,0 +1,109 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Minimal tool releases to test the tool handling without the real ANTLR archives.
+ */
+class Stubs
+{
+    private Stubs()
+    {
+        super();
+    }
+
+    /**
+     * Creates a minimal ANTLR 3 tool that keeps its error state per thread in static
+     * members like the real one. The tool reports every grammar argument as error.
+     *
+     * @param   directory  the directory to create the tool in. Holds the
+     *                     {@code antlr.srcjar} and {@code antlr.jar} files afterwards.
+     *
+     * @return  the tool classpath.
+     *
+     * @throws  IOException  if an I/O error occurred.
+     */
+    public static List<URL> antlr3(Path directory) throws IOException
+    {
+        Path srcjar = directory.resolve("antlr.srcjar");
+        Map<String, String> env = new HashMap<>();
+        env.put("create", "true");
+
+        try (FileSystem archive = FileSystems.newFileSystem(
+                    URI.create("jar:" + srcjar.toUri()),
+                    env))
+        {
+            Path tool = Files.createDirectories(archive.getPath("/org/antlr/tool"));
+            write(archive.getPath("/org/antlr/Tool.java"),
+                "package org.antlr;",
+                "import org.antlr.tool.ErrorManager;",
+                "public class Tool {",
+                "  private final String[] args;",
+                "  public Tool(String[] args) { this.args = args; }",
+                "  public void process() {",
+                "    for (String arg : args) {",
+                "      if (!arg.startsWith(\"-\")) ErrorManager.error(arg);",
+                "    }",
+                "  }",
+                "}");
+            write(tool.resolve("ErrorManager.java"),
+                "package org.antlr.tool;",
+                "public class ErrorManager {",
+                "  private static java.util.Map<Thread, int[]> threadToErrorStateMap",
+                "    = new java.util.HashMap<>();",
+                "  public static void error(Object message) {",
+                "    state()[0]++;",
+                "  }",
+                "  public static int getNumErrors() {",
+                "    return state()[0];",
+                "  }",
+                "  private static int[] state() {",
+                "    int[] state = threadToErrorStateMap.get(Thread.currentThread());",
+                "    if (state == null) {",
+                "      state = new int[1];",
+                "      threadToErrorStateMap.put(Thread.currentThread(), state);",
+                "    }",
+                "    return state;",
+                "  }",
+                "}");
+        }
+
+        Path jar = directory.resolve("antlr.jar");
+        new Compilation(StandardCharsets.UTF_8).compile(srcjar, jar);
+
+        return Collections.singletonList(jar.toUri().toURL());
+    }
+
+
+    /**
+     * Deletes the stub files and the given directory.
+     *
+     * @param   directory  the directory that holds the stub.
+     *
+     * @throws  IOException  if an I/O error occurred.
+     */
+    public static void delete(Path directory) throws IOException
+    {
+        Files.deleteIfExists(directory.resolve("antlr.jar"));
+        Files.deleteIfExists(directory.resolve("antlr.srcjar"));
+        Files.delete(directory);
+    }
+
+
+    private static void write(Path file, String... lines) throws IOException
+    {
+        Files.write(file, String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,114 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link ToolAdapter}.
+ */
+public class ToolAdapterTest
+{
+    @Test
+    public void rethrow()
+    {
+        IOException checked = new IOException();
+        assertSame(checked, ToolAdapter.rethrow(checked));
+
+        Throwable custom = new Throwable();
+        assertSame(custom, ToolAdapter.rethrow(custom).getCause());
+
+        try
+        {
+            ToolAdapter.rethrow(new AssertionError("error"));
+            fail();
+        }
+        catch (AssertionError ex)
+        {
+            assertEquals("error", ex.getMessage());
+        }
+    }
+
+
+    @Test
+    public void v3() throws Exception
+    {
+        Path directory = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            List<URL> classpath = Stubs.antlr3(directory);
+
+            try (URLClassLoader loader = new URLClassLoader(
+                        classpath.toArray(new URL[classpath.size()]),
+                        null))
+            {
+                ToolAdapter.V3 adapter = ToolAdapter.v3(loader);
+
+                assertEquals(2, adapter.process(new String[] { "-make", "A.g", "B.g" }));
+
+                // the error state is kept until the tool is reset
+                assertEquals(2, adapter.process(new String[] { "-make" }));
+                adapter.cleanup();
+                assertEquals(1, adapter.process(new String[] { "-make", "A.g" }));
+            }
+        }
+        finally
+        {
+            Stubs.delete(directory);
+        }
+    }
+
+
+    @Test
+    public void v3Cleanup() throws Exception
+    {
+        Path directory = Files.createTempDirectory("antlr-bazel-test-");
+
+        try
+        {
+            List<URL> classpath = Stubs.antlr3(directory);
+
+            try (URLClassLoader loader = new URLClassLoader(
+                        classpath.toArray(new URL[classpath.size()]),
+                        null))
+            {
+                Map<Object, Object> states = threadToErrorStateMap(loader);
+                states.put(new Thread(), null);
+
+                ToolAdapter.of(Version.V3, loader).cleanup();
+
+                assertTrue(states.isEmpty());
+            }
+        }
+        finally
+        {
+            Stubs.delete(directory);
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static Map<Object, Object> threadToErrorStateMap(ClassLoader loader)
+        throws Exception
+    {
+        Field field = loader.loadClass("org.antlr.tool.ErrorManager").getDeclaredField(
+                "threadToErrorStateMap");
+        field.setAccessible(true);
+
+        return (Map<Object, Object>) field.get(null);
+    }
+}
@@ -0,0 +1,106 @@
+package org.antlr.bazel;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link TwoStage}.
+ */
+public class TwoStageTest
+{
+    private static final String PARSER = "public class TParser extends Parser {\n"
+        + "\tpublic final RContext r() throws RecognitionException {\n"
+        + "\t\treturn null;\n"
+        + "\t}\n"
+        + "\tpublic final ArgsContext args(int i) throws RecognitionException {\n"
+        + "\t\treturn null;\n"
+        + "\t}\n"
+        + "\tpublic final ExprContext expr() throws RecognitionException {\n"
+        + "\t\treturn expr(0);\n"
+        + "\t}\n"
+        + "}\n";
+
+    @Test
+    public void constructor() throws Exception
+    {
+        UtilityClassTestSupport.test(TwoStage.class);
+    }
+
+
+    @Test
+    public void generate() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path parser = Files.write(Files.createDirectories(fs.getPath("/a"))
+                    .resolve("TParser.java"),
+                    PARSER.getBytes(StandardCharsets.UTF_8));
+            Path other = Files.write(fs.getPath("/UParser.java"),
+                    "public class UParser {}\n".getBytes(StandardCharsets.UTF_8));
+
+            TwoStage.generate(fs.getPath("/"), StandardCharsets.UTF_8,
+                Collections.singletonList("r"));
+
+            String source = new String(Files.readAllBytes(parser), StandardCharsets.UTF_8);
+
+            assertTrue(source, source.contains("public final RContext rTwoStage()"));
+            assertEquals("public class UParser {}\n",
+                new String(Files.readAllBytes(other), StandardCharsets.UTF_8));
+        }
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void generateUnknownRule() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Files.write(fs.getPath("/TParser.java"), PARSER.getBytes(StandardCharsets.UTF_8));
+
+            // rules with arguments are not supported
+            TwoStage.generate(fs.getPath("/"), StandardCharsets.UTF_8,
+                Arrays.asList("r", "args"));
+        }
+    }
+
+
+    @Test
+    public void rewrite()
+    {
+        List<String> found = new ArrayList<>();
+        String source = TwoStage.rewrite(PARSER, Arrays.asList("expr", "s", "r"), found);
+
+        assertEquals(Arrays.asList("expr", "r"), found);
+        assertTrue(source, source.contains("java.util.Arrays.asList(\"expr\", \"r\");"));
+        assertTrue(source, source.contains("public final ExprContext exprTwoStage() "
+                + "throws RecognitionException {"));
+        assertTrue(source, source.contains("return _parseTwoStage(0, this::expr);"));
+        assertTrue(source, source.contains("return _parseTwoStage(1, this::r);"));
+        assertTrue(source, source.endsWith("\t}\n}\n"));
+    }
+
+
+    @Test
+    public void rewriteNone()
+    {
+        assertNull(TwoStage.rewrite(PARSER, Collections.singletonList("s"),
+                new ArrayList<String>()));
+    }
+}
@@ -0,0 +1,249 @@
+package org.antlr.bazel;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for {@link WarmUp}.
+ */
+public class WarmUpTest
+{
+    @Test
+    public void generate() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path root = fs.getPath("/");
+            Path a = Files.write(fs.getPath("/a.txt"),
+                    "hello a".getBytes(StandardCharsets.UTF_8));
+            Path b = Files.write(fs.getPath("/b.txt"),
+                    "hello b".getBytes(StandardCharsets.UTF_8));
+            Path dir = Files.createDirectories(fs.getPath("/src/hello/world"));
+            Files.write(dir.resolve("HelloParser.java"),
+                ("package hello.world;\n"
+                    + "public class HelloParser extends Parser {\n"
+                    + "\tprivate static String[] makeRuleNames() {\n"
+                    + "\t\treturn new String[] {\n"
+                    + "\t\t\t\"r\", \"s\"\n"
+                    + "\t\t};\n"
+                    + "\t}\n"
+                    + "}\n").getBytes(StandardCharsets.UTF_8));
+            Files.write(dir.resolve("HelloLexer.java"),
+                "package hello.world;".getBytes(StandardCharsets.UTF_8));
+
+            new WarmUp(Arrays.asList(a, b),
+                Collections.<String, List<Path>>emptyMap(),
+                null,
+                Collections.<String, String>emptyMap()).generate(root,
+                StandardCharsets.ISO_8859_1);
+
+            String companion = new String(Files.readAllBytes(
+                        dir.resolve("HelloParserWarmUp.java")),
+                    StandardCharsets.UTF_8);
+
+            assertTrue(companion, companion.startsWith("package hello.world;"));
+            assertTrue(companion, companion.contains("class HelloParserWarmUp"));
+            assertTrue(companion, companion.contains("HelloLexer lexer = new HelloLexer("));
+            assertTrue(companion, companion.contains("parser.r();"));
+            assertTrue(companion, companion.contains("Charset.forName(\"ISO-8859-1\")"));
+
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(
+                            dir.resolve("HelloParserWarmUp.corpus"))))
+            {
+                assertEquals(2, in.readInt());
+
+                byte[] sample = new byte[in.readInt()];
+                in.readFully(sample);
+                assertEquals("hello a", new String(sample, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+
+    @Test
+    public void generateRule() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path root = fs.getPath("/");
+            Path sample = Files.write(fs.getPath("/a.txt"), new byte[0]);
+            Files.write(fs.getPath("/TParser.java"),
+                ("public class TParser {\n"
+                    + "\tpublic static final String[] ruleNames = {\n"
+                    + "\t\t\"a\"\n"
+                    + "\t};\n"
+                    + "}\n").getBytes(StandardCharsets.UTF_8));
+            Files.write(fs.getPath("/TLexer.java"), new byte[0]);
+            Files.write(fs.getPath("/UParser.java"), new byte[0]);
+
+            new WarmUp(Collections.singletonList(sample),
+                Collections.<String, List<Path>>emptyMap(),
+                "b",
+                Collections.<String, String>emptyMap()).generate(root,
+                StandardCharsets.UTF_8);
+
+            String companion = new String(Files.readAllBytes(
+                        fs.getPath("/TParserWarmUp.java")),
+                    StandardCharsets.UTF_8);
+
+            assertTrue(companion, companion.startsWith("/**"));
+            assertTrue(companion, companion.contains("parser.b();"));
+
+            // no lexer
+            assertFalse(Files.exists(fs.getPath("/UParserWarmUp.java")));
+        }
+    }
+
+
+    @Test
+    public void generateKeyed() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path t = Files.write(fs.getPath("/t.txt"), new byte[0]);
+            parsers(fs, "T", "U", "V");
+
+            new WarmUp(Collections.<Path>emptyList(),
+                Collections.singletonMap("TParser", Collections.singletonList(t)),
+                null,
+                Collections.singletonMap("TParser", "b")).generate(fs.getPath("/"),
+                StandardCharsets.UTF_8);
+
+            assertTrue(new String(Files.readAllBytes(fs.getPath("/TParserWarmUp.java")),
+                    StandardCharsets.UTF_8).contains("parser.b();"));
+
+            // parsers without samples get no companion
+            assertFalse(Files.exists(fs.getPath("/UParserWarmUp.java")));
+            assertFalse(Files.exists(fs.getPath("/VParserWarmUp.java")));
+        }
+    }
+
+
+    @Test
+    public void generateNotKeyed() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path sample = Files.write(fs.getPath("/a.txt"), new byte[0]);
+            parsers(fs, "T", "U");
+
+            try
+            {
+                new WarmUp(Collections.singletonList(sample),
+                    Collections.<String, List<Path>>emptyMap(),
+                    null,
+                    Collections.<String, String>emptyMap()).generate(fs.getPath("/"),
+                    StandardCharsets.UTF_8);
+                fail();
+            }
+            catch (IllegalStateException ex)
+            {
+                assertTrue(ex.getMessage(), ex.getMessage().startsWith("Found 2 parsers"));
+            }
+
+            try
+            {
+                new WarmUp(Collections.<Path>emptyList(),
+                    Collections.singletonMap("TParser", Collections.singletonList(sample)),
+                    "a",
+                    Collections.<String, String>emptyMap()).generate(fs.getPath("/"),
+                    StandardCharsets.UTF_8);
+                fail();
+            }
+            catch (IllegalStateException ex)
+            {
+                assertTrue(ex.getMessage(), ex.getMessage().startsWith("Found 2 parsers"));
+            }
+        }
+    }
+
+
+    @Test
+    public void generateUnknownParser() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Path sample = Files.write(fs.getPath("/a.txt"), new byte[0]);
+            parsers(fs, "T");
+
+            try
+            {
+                new WarmUp(Collections.<Path>emptyList(),
+                    Collections.singletonMap("UParser", Collections.singletonList(sample)),
+                    null,
+                    Collections.<String, String>emptyMap()).generate(fs.getPath("/"),
+                    StandardCharsets.UTF_8);
+                fail();
+            }
+            catch (IllegalStateException ex)
+            {
+                assertEquals("No parser found for warm-up samples: [UParser]",
+                    ex.getMessage());
+            }
+
+            try
+            {
+                new WarmUp(Collections.singletonList(sample),
+                    Collections.<String, List<Path>>emptyMap(),
+                    null,
+                    Collections.singletonMap("UParser", "u")).generate(fs.getPath("/"),
+                    StandardCharsets.UTF_8);
+                fail();
+            }
+            catch (IllegalStateException ex)
+            {
+                assertEquals("No parser found for warm-up rules: [UParser]",
+                    ex.getMessage());
+            }
+        }
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void generateWithoutParser() throws IOException
+    {
+        try (FileSystem fs = Jimfs.newFileSystem(Configuration.unix()))
+        {
+            Files.write(fs.getPath("/TLexer.java"), new byte[0]);
+
+            new WarmUp(Collections.<Path>emptyList(),
+                Collections.<String, List<Path>>emptyMap(),
+                null,
+                Collections.<String, String>emptyMap()).generate(fs.getPath("/"),
+                StandardCharsets.UTF_8);
+        }
+    }
+
+
+    private static void parsers(FileSystem fs, String... grammars) throws IOException
+    {
+        for (String grammar : grammars)
+        {
+            Files.write(fs.getPath("/" + grammar + "Parser.java"),
+                ("public class " + grammar + "Parser {\n"
+                    + "\tpublic static final String[] ruleNames = {\n"
+                    + "\t\t\"a\"\n"
+                    + "\t};\n"
+                    + "}\n").getBytes(StandardCharsets.UTF_8));
+            Files.write(fs.getPath("/" + grammar + "Lexer.java"), new byte[0]);
+        }
+    }
+}